@@ -0,0 +1,208 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Machine readable record of one measured run, written as JSON next to the CSV and read back by {@link Compare}.
+ *
+ * @param payloadSize mean request body size
+ * @param keepAlive   true if every request was sent on the kept alive channel
+ * @param workload    description of the workload profile
+ * @param throughput  successful calls per second
+ * @param server      measurements of a server driver in its own JVM, null if the server ran in process
+ */
+public record BenchmarkResult(String name,
+                              String strategy,
+                              int workers,
+                              int clients,
+                              int payloads,
+                              int warmups,
+                              int payloadSize,
+                              boolean keepAlive,
+                              String workload,
+                              String timestamp,
+                              Map<String, Object> jvm,
+                              Map<String, Object> hardware,
+                              long durationMs,
+                              int success,
+                              int failed,
+                              int timeouts,
+                              double throughput,
+                              Latency latency,
+                              List<WorkerResult> perWorker,
+                              Map<String, Object> server) {
+
+    /**
+     * Latencies in microseconds.
+     */
+    public record Latency(double mean, double p50, double p90, double p99, double p999, double max) {
+
+        static Latency of(LatencyHistogram histogram) {
+            return new Latency(
+                    histogram.mean() / 1000,
+                    histogram.valueAtPercentile(50) / 1000.0,
+                    histogram.valueAtPercentile(90) / 1000.0,
+                    histogram.valueAtPercentile(99) / 1000.0,
+                    histogram.valueAtPercentile(99.9) / 1000.0,
+                    histogram.max() / 1000.0
+            );
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("meanUs", mean);
+            map.put("p50Us", p50);
+            map.put("p90Us", p90);
+            map.put("p99Us", p99);
+            map.put("p999Us", p999);
+            map.put("maxUs", max);
+            return map;
+        }
+
+        static Latency fromMap(Map<?, ?> map) {
+            return new Latency(number(map, "meanUs"), number(map, "p50Us"), number(map, "p90Us"),
+                    number(map, "p99Us"), number(map, "p999Us"), number(map, "maxUs"));
+        }
+    }
+
+    /**
+     * @param client counters of the worker's NioClient
+     */
+    public record WorkerResult(int worker, int success, int failed, int timeouts, Latency latency, Map<String, Object> client) {
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("worker", worker);
+            map.put("success", success);
+            map.put("failed", failed);
+            map.put("timeouts", timeouts);
+            map.put("latency", latency.toMap());
+            map.put("client", client);
+            return map;
+        }
+
+        @SuppressWarnings("unchecked")
+        static WorkerResult fromMap(Map<?, ?> map) {
+            return new WorkerResult((int) number(map, "worker"), (int) number(map, "success"),
+                    (int) number(map, "failed"), (int) number(map, "timeouts"),
+                    Latency.fromMap((Map<?, ?>) map.get("latency")), (Map<String, Object>) map.get("client"));
+        }
+    }
+
+    public String toJson() {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("name", name);
+        config.put("strategy", strategy);
+        config.put("workers", workers);
+        config.put("clients", clients);
+        config.put("payloads", payloads);
+        config.put("warmups", warmups);
+        config.put("payloadSize", payloadSize);
+        config.put("keepAlive", keepAlive);
+        config.put("workload", workload);
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("timestamp", timestamp);
+        root.put("config", config);
+        root.put("jvm", jvm);
+        root.put("hardware", hardware);
+        root.put("durationMs", durationMs);
+        root.put("success", success);
+        root.put("failed", failed);
+        root.put("timeouts", timeouts);
+        root.put("throughput", throughput);
+        root.put("latency", latency.toMap());
+        root.put("workers", perWorker.stream().map(WorkerResult::toMap).toList());
+        if (server != null) root.put("server", server);
+        return Json.write(root);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static BenchmarkResult fromJson(String json) {
+        if (!(Json.parse(json) instanceof Map<?, ?> root)) throw new IllegalArgumentException("Result is not a JSON object");
+        Map<?, ?> config = (Map<?, ?>) root.get("config");
+        return new BenchmarkResult(
+                (String) config.get("name"),
+                (String) config.get("strategy"),
+                (int) number(config, "workers"),
+                (int) number(config, "clients"),
+                (int) number(config, "payloads"),
+                (int) number(config, "warmups"),
+                // Records from before sweeps always sent the 5 byte "Hello" payload over kept alive connections
+                (int) number(config, "payloadSize", 5),
+                !Boolean.FALSE.equals(config.get("keepAlive")),
+                (String) config.get("workload"),
+                (String) root.get("timestamp"),
+                (Map<String, Object>) root.get("jvm"),
+                (Map<String, Object>) root.get("hardware"),
+                (long) number(root, "durationMs"),
+                (int) number(root, "success"),
+                (int) number(root, "failed"),
+                (int) number(root, "timeouts"),
+                number(root, "throughput"),
+                Latency.fromMap((Map<?, ?>) root.get("latency")),
+                ((List<?>) root.get("workers")).stream().map(w -> WorkerResult.fromMap((Map<?, ?>) w)).toList(),
+                (Map<String, Object>) root.get("server")
+        );
+    }
+
+    public static BenchmarkResult read(Path path) throws IOException {
+        return fromJson(Files.readString(path));
+    }
+
+    public void write(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Files.writeString(path, toJson());
+    }
+
+    private static double number(Map<?, ?> map, String key) {
+        if (!(map.get(key) instanceof Number n)) throw new IllegalArgumentException("Missing number " + key);
+        return n.doubleValue();
+    }
+
+    private static double number(Map<?, ?> map, String key, double missing) {
+        return map.containsKey(key) ? number(map, key) : missing;
+    }
+
+    static Map<String, Object> jvmInfo() {
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("version", System.getProperty("java.version"));
+        jvm.put("vendor", System.getProperty("java.vendor"));
+        jvm.put("vm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        jvm.put("flags", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        jvm.put("gc", ManagementFactory.getGarbageCollectorMXBeans().stream().map(GarbageCollectorMXBean::getName).toList());
+        jvm.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        return jvm;
+    }
+
+    static Map<String, Object> hardwareInfo() {
+        Map<String, Object> hardware = new LinkedHashMap<>();
+        hardware.put("processors", Runtime.getRuntime().availableProcessors());
+        hardware.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        hardware.put("arch", System.getProperty("os.arch"));
+        hardware.put("cpu", cpuModel());
+        return hardware;
+    }
+
+    private static String cpuModel() {
+        Path cpuInfo = Path.of("/proc/cpuinfo");
+        if (!Files.isReadable(cpuInfo)) return "unknown";
+        try (Stream<String> lines = Files.lines(cpuInfo)) {
+            return lines.filter(line -> line.startsWith("model name"))
+                    .map(line -> line.substring(line.indexOf(':') + 1).trim())
+                    .findFirst()
+                    .orElse("unknown");
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package se.edinjakupovic;
+
+import java.util.Map;
+
+import static se.edinjakupovic.Common.measureNioClientReuse;
+import static se.edinjakupovic.Common.printStats;
+import static se.edinjakupovic.Common.runWarmup;
+import static se.edinjakupovic.Common.saveStats;
+
+/**
+ * {@code --role=client}, runs only the load generator against a {@link ServerDriver} on the same host
+ * and adds the server's own measurements to the result record.
+ */
+public class ClientDriver implements Sim {
+    private static final long CONNECT_TIMEOUT_MS = 30_000;
+
+    @Override
+    public void run(Common.CommandLineArgs simArgs) throws Exception {
+        System.out.printf("Running client against a %s server: %d warmups, %d clients, %d payloads per id, control port %d%n",
+                simArgs.strategy(), simArgs.warmups(), simArgs.clients(), simArgs.payloads(), simArgs.control());
+
+        try (ControlChannel control = ControlChannel.connect(simArgs.control(), CONNECT_TIMEOUT_MS)) {
+            control.send(ControlChannel.Command.WARMUP);
+            runWarmup(simArgs);
+
+            control.send(ControlChannel.Command.START);
+            System.out.println("\nStarting test...\n");
+            Common.Stats stats = measureNioClientReuse(false, simArgs);
+            Map<String, Object> server = control.stop();
+            control.send(ControlChannel.Command.SHUTDOWN);
+
+            printStats(simArgs, stats);
+            printServerStats(server);
+            saveStats(simArgs, stats, server);
+        }
+    }
+
+    /**
+     * The measurements went through JSON, so every number is a double.
+     */
+    static void printServerStats(Map<String, Object> server) {
+        System.out.printf("""
+                Server process:
+
+                %.0f responses
+                %.0f waited for OP_WRITE
+                %.0f ms CPU, %.2f cores
+                %.0f GCs, %.0f ms
+
+                %n""", number(server, "responses"), number(server, "writeFallbacks"), number(server, "cpuTimeMs"),
+                number(server, "cpuCores"), number(server, "gcCount"), number(server, "gcTimeMs"));
+    }
+
+    static double number(Map<String, Object> server, String key) {
+        return server.get(key) instanceof Number n ? n.doubleValue() : Double.NaN;
+    }
+}
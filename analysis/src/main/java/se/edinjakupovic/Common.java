@@ -1,30 +1,43 @@
 package se.edinjakupovic;
 
-import se.edinjakupovic.utils.PayloadUtils;
+import se.edinjakupovic.capture.CaptureConfig;
+import se.edinjakupovic.multi_reactor.MultiReactorServer;
+import se.edinjakupovic.single_reactor.SingleReactorServer;
+import se.edinjakupovic.workload.ResponseMode;
+import se.edinjakupovic.workload.SizeDistribution;
+import se.edinjakupovic.workload.TypeMix;
+import se.edinjakupovic.workload.WorkloadProfile;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class Common {
-    public record Stats(long durationMs, int success, int fails, int timeouts) {
+    public record Stats(long durationMs, int success, int fails, int timeouts, LatencyHistogram latency, List<TaskStats> tasks) {
     }
 
 
-    public static Stats measureNioClientReuse(boolean saveResult, int clients, String simulationName, int payloads) throws InterruptedException, IOException {
+    public static Stats measureNioClientReuse(boolean saveResult, CommandLineArgs simArgs) throws InterruptedException, IOException {
+        int clients = simArgs.clients();
+        int payloads = simArgs.payloads();
         @SuppressWarnings("resource")
         ExecutorService executorService = Executors.newFixedThreadPool(clients);
         List<NioClient> nioClients = new ArrayList<>(clients);
@@ -32,7 +45,7 @@ public class Common {
             try {
                 NioClient nioClient = new NioClient();
                 nioClients.add(nioClient);
-                return new MakeCallsTask(nioClient, w, payloads);
+                return new MakeCallsTask(nioClient, w, payloads, simArgs.workload().requests(w));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -53,61 +66,165 @@ public class Common {
         nioClients.forEach(NioClient::stop);
 
         int success = 0, failed = 0, timeouts = 0;
+        LatencyHistogram latency = new LatencyHistogram();
         for (TaskStats stat : stats) {
             success += stat.success;
             failed += stat.failed;
             timeouts += stat.timeouts;
+            latency.add(stat.latency);
         }
+        Stats result = new Stats(duration, success, failed, timeouts, latency, stats);
 
         if (saveResult) {
-            saveStats(clients, simulationName, payloads, stats);
+            saveStats(simArgs, result, null);
         }
 
         executorService.shutdownNow();
-        return new Stats(duration, success, failed, timeouts);
+        return result;
     }
 
 
-    private static void saveStats(int clients, String simulationName, int payloads, List<TaskStats> stats) throws IOException {
-        var result = taskStatsToCsv(stats);
-        String name = simulationName + "_" + LocalDateTime.now() + "_WORKERS_%d_PAYLOADS_%d_.csv".formatted(clients, payloads);
-        Path filePath = Path.of("results/" + name);
+    /**
+     * @param server measurements of a separate server process, null if the server ran in process
+     */
+    static void saveStats(CommandLineArgs simArgs, Stats stats, Map<String, Object> server) throws IOException {
+        var result = taskStatsToCsv(stats.tasks());
+        String timestamp = LocalDateTime.now().toString();
+        String name = simArgs.simulationName() + "_" + timestamp + "_WORKERS_%d_PAYLOADS_%d_".formatted(simArgs.clients(), simArgs.payloads());
+        Path filePath = Path.of("results/" + name + ".csv");
+        Files.createDirectories(filePath.getParent());
         System.out.println("Writing result to " + filePath);
         Files.writeString(filePath, result);
+
+        Path resultPath = simArgs.output() != null ? Path.of(simArgs.output()) : Path.of("results/" + name + ".json");
+        System.out.println("Writing result record to " + resultPath);
+        toResult(simArgs, stats, timestamp, server).write(resultPath);
+    }
+
+    static BenchmarkResult toResult(CommandLineArgs simArgs, Stats stats, String timestamp, Map<String, Object> server) {
+        List<BenchmarkResult.WorkerResult> perWorker = stats.tasks().stream().map(TaskStats::toResult).toList();
+        return new BenchmarkResult(
+                simArgs.simulationName(),
+                simArgs.strategy(),
+                simArgs.workers(),
+                simArgs.clients(),
+                simArgs.payloads(),
+                simArgs.warmups(),
+                (int) Math.round(simArgs.workload().sizes().mean()),
+                simArgs.workload().keepAliveRatio() == 1,
+                simArgs.workload().toString(),
+                timestamp,
+                BenchmarkResult.jvmInfo(),
+                BenchmarkResult.hardwareInfo(),
+                stats.durationMs(),
+                stats.success(),
+                stats.fails(),
+                stats.timeouts(),
+                stats.success() / ((double) Math.max(1, stats.durationMs()) / 1000),
+                BenchmarkResult.Latency.of(stats.latency()),
+                perWorker,
+                server
+        );
     }
 
 
-    record MakeCallsTask(NioClient nioClient, int id, int payloads) implements Callable<TaskStats> {
+    record MakeCallsTask(NioClient nioClient, int id, int payloads, ByteBuffer[] requests) implements Callable<TaskStats> {
 
         @Override
         public TaskStats call() throws Exception {
             int success = 0, failed = 0, timeouts = 0;
+            // Sampled up front and sent round robin, the client copies them
+            Completion completion = new Completion(Thread.currentThread());
+            LatencyHistogram latency = new LatencyHistogram();
 
             for (int i = 0; i < payloads; i++) {
-                CompletableFuture<Long> response = nioClient.sendRPC(PayloadUtils.payload((byte) 0, "Hello", true));
-                if (response == null) {
+                completion.reset();
+                if (!nioClient.sendRPC(requests[i % requests.length], completion)) {
                     failed++;
                     continue;
                 }
-                try {
-                    response.get(1000, TimeUnit.MILLISECONDS);
-                    if (response.isCompletedExceptionally()) {
-                        failed++;
-                    }
-                    if (response.isDone()) {
+                switch (completion.await(TimeUnit.MILLISECONDS.toNanos(1000))) {
+                    case Completion.OK -> {
                         success++;
+                        latency.record(completion.elapsedNanos);
+                    }
+                    case Completion.FAILED -> failed++;
+                    default -> {
+                        failed++;
+                        // The late response must not complete the next call
+                        completion = new Completion(Thread.currentThread());
                     }
-                } catch (TimeoutException e) {
-                    failed++;
                 }
             }
 
             System.out.println("W:" + id + ", " + nioClient.state);
-            return new TaskStats(success, failed, timeouts, nioClient.state, id);
+            return new TaskStats(success, failed, timeouts, nioClient.state, id, latency);
         }
     }
 
-    record TaskStats(int success, int failed, int timeouts, NioClient.ClientState status, int worker) {
+    /**
+     * Reusable completion for one call at a time, so measuring does not allocate a future per call.
+     */
+    static final class Completion implements ResponseCallback {
+        static final int PENDING = 0;
+        static final int OK = 1;
+        static final int FAILED = 2;
+
+        private final Thread waiter;
+        private volatile int state;
+        // Written before state, so it is visible once await returns OK
+        long elapsedNanos;
+
+        Completion(Thread waiter) {
+            this.waiter = waiter;
+        }
+
+        void reset() {
+            state = PENDING;
+        }
+
+        @Override
+        public void onResponse(int type, ByteBuffer body, long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+            state = OK;
+            LockSupport.unpark(waiter);
+        }
+
+        @Override
+        public void onError(String reason) {
+            state = FAILED;
+            LockSupport.unpark(waiter);
+        }
+
+        /**
+         * @return OK, FAILED or PENDING if the timeout passed first
+         */
+        int await(long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            int current;
+            while ((current = state) == PENDING) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return PENDING;
+                LockSupport.parkNanos(this, left);
+            }
+            return current;
+        }
+    }
+
+    record TaskStats(int success, int failed, int timeouts, NioClient.ClientState status, int worker, LatencyHistogram latency) {
+
+        private BenchmarkResult.WorkerResult toResult() {
+            Map<String, Object> client = new LinkedHashMap<>();
+            client.put("channelsOpened", status.channelsOpened);
+            client.put("channelsReused", status.channelsReused);
+            client.put("channelsClosed", status.channelsClosed);
+            client.put("requestsRegistered", status.requestsRegistered);
+            client.put("requestCompleted", status.requestCompleted);
+            client.put("channelConnected", status.channelConnected);
+            client.put("channelConnectionErrors", status.channelConnectionErrors);
+            client.put("connectDurationMs", status.connectDurationMs);
+            return new BenchmarkResult.WorkerResult(worker, success, failed, timeouts, BenchmarkResult.Latency.of(latency), client);
+        }
 
         private String toCSV() {
             return Stream.of(
@@ -141,7 +258,7 @@ public class Common {
         IntStream.range(0, simArgs.warmups()).forEach(round -> {
             System.out.println("\nRunning warmup " + round);
             try {
-                measureNioClientReuse(false, simArgs.clients(), simArgs.simulationName(), simArgs.payloads());
+                measureNioClientReuse(false, simArgs);
                 Thread.sleep(1000);
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -183,6 +300,13 @@ public class Common {
                 
                 %d count
                 
+                Latency:
+                
+                %.1f us p50
+                %.1f us p99
+                %.1f us p99.9
+                %.1f us max
+                
                 
                 %n""".formatted(
                 numberOfCalls,
@@ -196,10 +320,74 @@ public class Common {
                 stats.fails(),
                 failCallsPerMs,
                 failCallsPerSec,
-                stats.timeouts());
+                stats.timeouts(),
+                stats.latency().valueAtPercentile(50) / 1000.0,
+                stats.latency().valueAtPercentile(99) / 1000.0,
+                stats.latency().valueAtPercentile(99.9) / 1000.0,
+                stats.latency().max() / 1000.0);
         System.out.printf(results);
     }
 
+    /**
+     * Config of the simulation servers on port 8080.
+     */
+    static ServerConfig serverConfig(int workers, Map<Byte, MessageHandler> handlers, int maxBodySize, CaptureConfig capture) {
+        return new ServerConfig(
+                new InetSocketAddress(8080),
+                new TLVConfig(
+                        5, maxBodySize
+                ),
+                1000L,
+                1000L,
+                0,
+                1000,
+                workers,
+                handlers,
+                null
+        ).withCapture(capture);
+    }
+
+    /**
+     * A simulation server running on its own threads.
+     */
+    record SimServer(Supplier<ReactorStats> stats, Runnable shutdown) implements AutoCloseable {
+        @Override
+        public void close() {
+            shutdown.run();
+        }
+    }
+
+    static SimServer startServer(String strategy, ServerConfig config) throws IOException, InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        if (strategy.equals("multi")) {
+            MultiReactorServer server = new MultiReactorServer(config);
+            server.startServer(latch::countDown);
+            if (!latch.await(1, TimeUnit.SECONDS)) throw new IllegalStateException("Failed to start server");
+            return new SimServer(server::stats, server::shutdown);
+        }
+        SingleReactorServer server = new SingleReactorServer(config);
+        ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "server"));
+        serverExecutor.execute(() -> {
+            try {
+                server.start(latch::countDown);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        if (!latch.await(1, TimeUnit.SECONDS)) throw new IllegalStateException("Failed to start server");
+        return new SimServer(server::stats, serverExecutor::shutdownNow);
+    }
+
+    public static void printServerStats(ReactorStats stats) {
+        System.out.printf("""
+                Server:
+
+                %d responses
+                %d waited for OP_WRITE (%.2f%%)
+
+                %n""", stats.responses, stats.writeFallbacks, stats.writeFallbackRatio() * 100);
+    }
+
 
     public static CommandLineArgs parseArgs(String[] args) {
         int workers = 0;
@@ -208,6 +396,15 @@ public class Common {
         int clients = 0;
         String simulationName = "";
         String strategy = "single";
+        String output = null;
+        CaptureConfig capture = null;
+        String role = "both";
+        int control = 9090;
+        SizeDistribution sizes = WorkloadProfile.DEFAULT.sizes();
+        TypeMix types = WorkloadProfile.DEFAULT.types();
+        double keepAliveRatio = WorkloadProfile.DEFAULT.keepAliveRatio();
+        ResponseMode response = WorkloadProfile.DEFAULT.response();
+        long seed = WorkloadProfile.DEFAULT.seed();
 
         for (String arg : args) {
             if (arg.startsWith("--workers=")) {
@@ -222,6 +419,28 @@ public class Common {
                 simulationName = arg.substring("--name=".length()).replaceAll("\\s+", "_");
             } else if (arg.startsWith("--strategy=")) {
                 strategy = arg.substring("--strategy=".length());
+            } else if (arg.startsWith("--payload-size=")) {
+                sizes = new SizeDistribution.Fixed(parseUnsignedInt(arg, "--payload-size="));
+            } else if (arg.startsWith("--sizes=")) {
+                sizes = SizeDistribution.parse(arg.substring("--sizes=".length()));
+            } else if (arg.startsWith("--types=")) {
+                types = TypeMix.parse(arg.substring("--types=".length()));
+            } else if (arg.startsWith("--keep-alive=")) {
+                keepAliveRatio = Boolean.parseBoolean(arg.substring("--keep-alive=".length())) ? 1 : 0;
+            } else if (arg.startsWith("--keep-alive-ratio=")) {
+                keepAliveRatio = Double.parseDouble(arg.substring("--keep-alive-ratio=".length()));
+            } else if (arg.startsWith("--response=")) {
+                response = ResponseMode.parse(arg.substring("--response=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else if (arg.startsWith("--capture=")) {
+                capture = new CaptureConfig(Path.of(arg.substring("--capture=".length())));
+            } else if (arg.startsWith("--role=")) {
+                role = arg.substring("--role=".length());
+            } else if (arg.startsWith("--control=")) {
+                control = parseUnsignedInt(arg, "--control=");
             } else {
                 throw new IllegalArgumentException("Unknown argument: " + arg);
             }
@@ -233,8 +452,12 @@ public class Common {
         if (!strategy.equals("single") && !strategy.equals("multi")) {
             throw new IllegalArgumentException("--strategy either 'single' or 'multi' for patterns, got [" + strategy + "]");
         }
+        if (!role.equals("both") && !role.equals("server") && !role.equals("client")) {
+            throw new IllegalArgumentException("--role either 'both', 'server' or 'client', got [" + role + "]");
+        }
 
-        return new CommandLineArgs(workers, clients, payloads, warmups, simulationName, strategy);
+        return new CommandLineArgs(workers, clients, payloads, warmups, simulationName, strategy, output,
+                new WorkloadProfile(sizes, types, keepAliveRatio, response, seed), capture, role, control);
     }
 
     private static int parseUnsignedInt(String arg, String prefix) {
@@ -250,7 +473,15 @@ public class Common {
         }
     }
 
-    public record CommandLineArgs(int workers, int clients, int payloads, int warmups, String simulationName, String strategy) {
+    /**
+     * @param output   path of the JSON result record, null to write it next to the CSV in results/
+     * @param workload requests sent and the server's answers
+     * @param capture  records the server's incoming frames, including warm-up, null to disable
+     * @param role     {@code both} runs server and clients in this JVM, {@code server} and {@code client} only one side
+     * @param control  loopback port the client and server roles coordinate on
+     */
+    public record CommandLineArgs(int workers, int clients, int payloads, int warmups, String simulationName, String strategy,
+                                  String output, WorkloadProfile workload, CaptureConfig capture, String role, int control) {
     }
 
 }
@@ -0,0 +1,95 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Compares a run against a stored baseline, {@code compare --baseline=<file> --run=<file>}.
+ * Exits with 1 when throughput dropped or p99 grew by more than the tolerance, given in percent.
+ */
+public class Compare {
+    static final double DEFAULT_THROUGHPUT_TOLERANCE = 5;
+    static final double DEFAULT_P99_TOLERANCE = 10;
+
+    record Tolerance(double throughputPercent, double p99Percent) {
+        Tolerance {
+            if (throughputPercent < 0 || p99Percent < 0) {
+                throw new IllegalArgumentException("Tolerances can not be negative");
+            }
+        }
+    }
+
+    /**
+     * @param throughputChange percent, negative is slower
+     * @param p99Change        percent, positive is slower
+     */
+    record Comparison(double throughputChange, double p99Change, boolean throughputRegressed, boolean p99Regressed) {
+
+        boolean regressed() {
+            return throughputRegressed || p99Regressed;
+        }
+    }
+
+    static Comparison compare(BenchmarkResult baseline, BenchmarkResult run, Tolerance tolerance) {
+        double throughputChange = percentChange(baseline.throughput(), run.throughput());
+        double p99Change = percentChange(baseline.latency().p99(), run.latency().p99());
+        return new Comparison(
+                throughputChange,
+                p99Change,
+                throughputChange < -tolerance.throughputPercent(),
+                p99Change > tolerance.p99Percent()
+        );
+    }
+
+    private static double percentChange(double from, double to) {
+        if (from == 0) return to == 0 ? 0 : Double.POSITIVE_INFINITY;
+        return (to - from) / from * 100;
+    }
+
+    /**
+     * @return the process exit code
+     */
+    public static int run(String[] args) throws IOException {
+        Path baselinePath = null;
+        Path runPath = null;
+        double throughputTolerance = DEFAULT_THROUGHPUT_TOLERANCE;
+        double p99Tolerance = DEFAULT_P99_TOLERANCE;
+
+        for (String arg : args) {
+            if (arg.startsWith("--baseline=")) {
+                baselinePath = Path.of(arg.substring("--baseline=".length()));
+            } else if (arg.startsWith("--run=")) {
+                runPath = Path.of(arg.substring("--run=".length()));
+            } else if (arg.startsWith("--throughput-tolerance=")) {
+                throughputTolerance = Double.parseDouble(arg.substring("--throughput-tolerance=".length()));
+            } else if (arg.startsWith("--p99-tolerance=")) {
+                p99Tolerance = Double.parseDouble(arg.substring("--p99-tolerance=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (baselinePath == null || runPath == null) {
+            throw new IllegalArgumentException("compare needs --baseline=<file> and --run=<file>");
+        }
+
+        BenchmarkResult baseline = BenchmarkResult.read(baselinePath);
+        BenchmarkResult run = BenchmarkResult.read(runPath);
+        if (!baseline.strategy().equals(run.strategy()) || baseline.workers() != run.workers()
+                || baseline.clients() != run.clients() || baseline.payloads() != run.payloads()) {
+            System.out.println("WARNING: baseline and run were measured with different configs");
+        }
+
+        Comparison comparison = compare(baseline, run, new Tolerance(throughputTolerance, p99Tolerance));
+        System.out.printf("""
+                        %-12s %14s %14s %9s
+                        %-12s %14.2f %14.2f %+8.2f%% %s
+                        %-12s %14.2f %14.2f %+8.2f%% %s
+                        %n""",
+                "", "baseline", "run", "change",
+                "calls/s", baseline.throughput(), run.throughput(), comparison.throughputChange(),
+                comparison.throughputRegressed() ? "REGRESSED" : "ok",
+                "p99 us", baseline.latency().p99(), run.latency().p99(), comparison.p99Change(),
+                comparison.p99Regressed() ? "REGRESSED" : "ok");
+        return comparison.regressed() ? 1 : 0;
+    }
+}
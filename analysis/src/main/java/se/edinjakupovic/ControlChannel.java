@@ -0,0 +1,132 @@
+package se.edinjakupovic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line based loopback connection the client driver uses to step the server driver through a run.
+ * <p>
+ * The client sends a command per line and the server answers each with one line,
+ * {@code OK} or for {@link Command#STOP} {@code STATS <json>} with the server side measurements.
+ * The server only listens once its reactors are running, so a connected client can start sending.
+ */
+final class ControlChannel implements AutoCloseable {
+    private static final String OK = "OK";
+    private static final String STATS = "STATS ";
+
+    enum Command {
+        /**
+         * Client is about to warm up.
+         */
+        WARMUP,
+        /**
+         * Warm up done, the server starts measuring.
+         */
+        START,
+        /**
+         * Measured run done, the server answers with what it measured since START.
+         */
+        STOP,
+        /**
+         * The server answers and exits.
+         */
+        SHUTDOWN
+    }
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    private ControlChannel(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    static ServerSocket listen(int port) throws IOException {
+        return new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    }
+
+    static ControlChannel accept(ServerSocket serverSocket) throws IOException {
+        return new ControlChannel(serverSocket.accept());
+    }
+
+    /**
+     * Retries until the server driver listens, it does so only after its server started.
+     */
+    static ControlChannel connect(int port, long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+                return new ControlChannel(socket);
+            } catch (ConnectException e) {
+                socket.close();
+                if (System.nanoTime() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Client side, sends the command and waits for the server to acknowledge it.
+     */
+    void send(Command command) throws IOException {
+        String reply = request(command);
+        if (!reply.equals(OK)) throw new IOException("Server answered " + command + " with " + reply);
+    }
+
+    /**
+     * Client side, ends the measured run.
+     *
+     * @return the server side measurements
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> stop() throws IOException {
+        String reply = request(Command.STOP);
+        if (!reply.startsWith(STATS)) throw new IOException("Server answered STOP with " + reply);
+        return (Map<String, Object>) Json.parse(reply.substring(STATS.length()));
+    }
+
+    private String request(Command command) throws IOException {
+        out.println(command.name());
+        String reply = in.readLine();
+        if (reply == null) throw new IOException("Server closed the control channel on " + command);
+        return reply;
+    }
+
+    /**
+     * Server side.
+     *
+     * @return the next command, null once the client is gone
+     */
+    Command receive() throws IOException {
+        String line = in.readLine();
+        return line == null ? null : Command.valueOf(line.trim());
+    }
+
+    void acknowledge() {
+        out.println(OK);
+    }
+
+    void reply(Map<String, Object> stats) {
+        // Newlines inside strings are escaped, the rest is indentation
+        out.println(STATS + Json.write(stats).strip().replace('\n', ' '));
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,216 @@
+package se.edinjakupovic;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the result files, objects are maps, arrays lists and numbers doubles.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(value, sb, 0);
+        return sb.append('\n').toString();
+    }
+
+    private static void write(Object value, StringBuilder sb, int indent) {
+        switch (value) {
+            case null -> sb.append("null");
+            case String s -> writeString(s, sb);
+            case Boolean _, Integer _, Long _ -> sb.append(value);
+            case Number n -> {
+                double d = n.doubleValue();
+                sb.append(Double.isFinite(d) ? String.valueOf(d) : "null");
+            }
+            case Map<?, ?> map -> {
+                sb.append('{');
+                String separator = "\n";
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    sb.append(separator).append("  ".repeat(indent + 1));
+                    writeString(String.valueOf(entry.getKey()), sb);
+                    sb.append(": ");
+                    write(entry.getValue(), sb, indent + 1);
+                    separator = ",\n";
+                }
+                if (!map.isEmpty()) sb.append('\n').append("  ".repeat(indent));
+                sb.append('}');
+            }
+            case List<?> list -> {
+                sb.append('[');
+                String separator = "\n";
+                for (Object element : list) {
+                    sb.append(separator).append("  ".repeat(indent + 1));
+                    write(element, sb, indent + 1);
+                    separator = ",\n";
+                }
+                if (!list.isEmpty()) sb.append('\n').append("  ".repeat(indent));
+                sb.append(']');
+            }
+            default -> writeString(value.toString(), sb);
+        }
+    }
+
+    private static void writeString(String s, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append("\\u%04x".formatted((int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    static Object parse(String json) {
+        Parser parser = new Parser(json);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != json.length()) throw parser.error("Trailing characters");
+        return value;
+    }
+
+    private static final class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skipWhitespace();
+            if (pos >= s.length()) throw error("Unexpected end");
+            char c = s.charAt(pos);
+            return switch (c) {
+                case '{' -> object();
+                case '[' -> array();
+                case '"' -> string();
+                case 't' -> literal("true", Boolean.TRUE);
+                case 'f' -> literal("false", Boolean.FALSE);
+                case 'n' -> literal("null", null);
+                default -> number();
+            };
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                map.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (pos + 4 > s.length()) throw error("Bad unicode escape");
+                        sb.append((char) Integer.parseInt(s, pos, pos + 4, 16));
+                        pos += 4;
+                    }
+                    default -> sb.append(escaped);
+                }
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+            if (start == pos) throw error("Unexpected character '" + s.charAt(pos) + "'");
+            return Double.parseDouble(s.substring(start, pos));
+        }
+
+        private Object literal(String literal, Object value) {
+            if (!s.startsWith(literal, pos)) throw error("Expected " + literal);
+            pos += literal.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw error("Expected '" + c + "'");
+        }
+
+        private char peek() {
+            if (pos >= s.length()) throw error("Unexpected end");
+            return s.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + pos);
+        }
+    }
+}
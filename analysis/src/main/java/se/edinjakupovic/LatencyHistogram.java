@@ -0,0 +1,79 @@
+package se.edinjakupovic;
+
+/**
+ * Log-linear histogram of nanosecond latencies with about 1.5% precision. Values under 128ns are exact,
+ * above that every power of two is split in 64 buckets. Recording does not allocate.
+ * Not thread safe, record from one thread and {@link #add} histograms together afterwards.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Highest bit of a positive long is 62, powers 7..62 get SUB_BUCKETS each
+    private static final int BUCKETS = LINEAR_BUCKETS + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+    private long sum;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return highest value of the bucket holding the percentile, capped at the recorded max, 0 when empty
+     */
+    public long valueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (msb - 7) * SUB_BUCKETS + sub;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR_BUCKETS) return index;
+        int msb = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 7;
+        int sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = msb - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
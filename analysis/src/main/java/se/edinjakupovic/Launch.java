@@ -0,0 +1,163 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulation with the server and the load generator in two JVMs on this host,
+ * {@code launch --strategy=multi --workers=4 --clients=8 --payloads=100000 --server-cpus=0-3 --client-cpus=4-7}.
+ * <p>
+ * Takes the simulation arguments and forks a {@link ServerDriver} and a {@link ClientDriver} with them.
+ * The client's output is shown, the server's goes to a log next to the result record,
+ * which holds the client's measurements and the server's under {@code server}.
+ */
+public class Launch {
+    private static final long SERVER_EXIT_TIMEOUT_SECONDS = 30;
+
+    /**
+     * @param serverCpus cpu list for taskset, null to leave the server unpinned
+     */
+    record LaunchArgs(List<String> simArgs,
+                      List<String> serverJvmFlags,
+                      List<String> clientJvmFlags,
+                      String serverCpus,
+                      String clientCpus,
+                      Path output,
+                      long timeoutSeconds) {
+    }
+
+    /**
+     * @return the process exit code, 1 if either side failed
+     */
+    public static int run(String[] args) throws IOException, InterruptedException {
+        LaunchArgs launchArgs = parseArgs(args);
+        Path output = launchArgs.output();
+        Path serverLog = output.resolveSibling(output.getFileName().toString().replace(".json", "") + "_server.log");
+        Files.createDirectories(output.toAbsolutePath().getParent());
+
+        Process server = new ProcessBuilder(command(launchArgs.serverCpus(), launchArgs.serverJvmFlags(), launchArgs.simArgs(), "server"))
+                .redirectErrorStream(true)
+                .redirectOutput(serverLog.toFile())
+                .start();
+        System.out.println("Started server process " + server.pid() + ", logging to " + serverLog);
+        Process client = new ProcessBuilder(command(launchArgs.clientCpus(), launchArgs.clientJvmFlags(), launchArgs.simArgs(), "client"))
+                .inheritIO()
+                .start();
+        System.out.println("Started client process " + client.pid());
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(launchArgs.timeoutSeconds());
+            while (!client.waitFor(100, TimeUnit.MILLISECONDS)) {
+                // The server exits cleanly only after the client sent SHUTDOWN
+                if (!server.isAlive() && server.exitValue() != 0) {
+                    System.out.println("Server exited with " + server.exitValue() + ", see " + serverLog);
+                    return 1;
+                }
+                if (System.nanoTime() > deadline) {
+                    System.out.println("Timed out after " + launchArgs.timeoutSeconds() + "s");
+                    return 1;
+                }
+            }
+            if (!server.waitFor(SERVER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Server did not exit, see " + serverLog);
+                return 1;
+            }
+            if (client.exitValue() != 0 || server.exitValue() != 0 || !Files.exists(output)) {
+                System.out.printf("Client exited with %d, server with %d, see %s%n", client.exitValue(), server.exitValue(), serverLog);
+                return 1;
+            }
+        } finally {
+            client.destroyForcibly().waitFor();
+            server.destroyForcibly().waitFor();
+        }
+
+        BenchmarkResult result = BenchmarkResult.read(output);
+        // A record without server measurements prints NaN for them
+        Map<String, Object> serverStats = result.server() == null ? Map.of() : result.server();
+        System.out.printf("%.2f calls/s, p99 %.1f us, server used %.2f cores and %.0f ms in GC, result in %s%n",
+                result.throughput(), result.latency().p99(),
+                ClientDriver.number(serverStats, "cpuCores"),
+                ClientDriver.number(serverStats, "gcTimeMs"),
+                output);
+        return 0;
+    }
+
+    private static List<String> command(String cpus, List<String> jvmFlags, List<String> simArgs, String role) {
+        List<String> command = new ArrayList<>();
+        if (cpus != null) {
+            command.add("taskset");
+            command.add("-c");
+            command.add(cpus);
+        }
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmFlags);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(simArgs);
+        command.add("--role=" + role);
+        return command;
+    }
+
+    static LaunchArgs parseArgs(String[] args) throws IOException {
+        List<String> simArgs = new ArrayList<>();
+        // Same flags as this JVM unless told otherwise
+        List<String> serverJvmFlags = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        List<String> clientJvmFlags = serverJvmFlags;
+        String serverCpus = null;
+        String clientCpus = null;
+        Path output = null;
+        String name = "";
+        boolean control = false;
+        long timeoutSeconds = 600;
+
+        for (String arg : args) {
+            if (arg.startsWith("--server-jvm-flags=")) {
+                serverJvmFlags = flags(arg.substring("--server-jvm-flags=".length()));
+            } else if (arg.startsWith("--client-jvm-flags=")) {
+                clientJvmFlags = flags(arg.substring("--client-jvm-flags=".length()));
+            } else if (arg.startsWith("--server-cpus=")) {
+                serverCpus = arg.substring("--server-cpus=".length());
+            } else if (arg.startsWith("--client-cpus=")) {
+                clientCpus = arg.substring("--client-cpus=".length());
+            } else if (arg.startsWith("--timeout=")) {
+                timeoutSeconds = Long.parseLong(arg.substring("--timeout=".length()));
+            } else if (arg.startsWith("--role=")) {
+                throw new IllegalArgumentException("launch runs both roles, drop " + arg);
+            } else if (arg.startsWith("--output=")) {
+                output = Path.of(arg.substring("--output=".length()));
+            } else {
+                if (arg.startsWith("--name=")) name = arg.substring("--name=".length()).replaceAll("\\s+", "_");
+                if (arg.startsWith("--control=")) control = true;
+                simArgs.add(arg);
+            }
+        }
+
+        if (!control) simArgs.add("--control=" + freePort());
+        if (output == null) {
+            output = Path.of("results", name + "_launch_" + LocalDateTime.now().toString().replace(':', '-') + ".json");
+        }
+        simArgs.add("--output=" + output);
+        // Fail here rather than in both forked JVMs
+        Common.parseArgs(simArgs.toArray(String[]::new));
+        return new LaunchArgs(List.copyOf(simArgs), serverJvmFlags, clientJvmFlags, serverCpus, clientCpus, output, timeoutSeconds);
+    }
+
+    private static List<String> flags(String flags) {
+        return flags.isBlank() ? List.of() : List.of(flags.trim().split("\\s+"));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = ControlChannel.listen(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -1,11 +1,36 @@
 package se.edinjakupovic;
 
+import java.util.Arrays;
+
 import static se.edinjakupovic.Common.parseArgs;
 
 public class Main {
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("compare")) {
+            System.exit(Compare.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("sweep")) {
+            System.exit(Sweep.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("replay")) {
+            System.exit(Replay.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("selected-keys")) {
+            System.exit(SelectedKeysBench.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("launch")) {
+            System.exit(Launch.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
         Common.CommandLineArgs simArgs = parseArgs(args);
+        switch (simArgs.role()) {
+            case "server" -> new ServerDriver().run(simArgs);
+            case "client" -> new ClientDriver().run(simArgs);
+            default -> runInProcess(simArgs);
+        }
+    }
+
+    private static void runInProcess(Common.CommandLineArgs simArgs) throws Exception {
         switch (simArgs.strategy()) {
             case "multi" -> new Multi().run(simArgs);
             case "single" -> new Single().run(simArgs);
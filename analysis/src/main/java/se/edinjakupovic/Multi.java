@@ -1,14 +1,12 @@
 package se.edinjakupovic;
 
 import se.edinjakupovic.multi_reactor.MultiReactorServer;
-import se.edinjakupovic.utils.PayloadUtils;
 
-import java.net.InetSocketAddress;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static se.edinjakupovic.Common.measureNioClientReuse;
+import static se.edinjakupovic.Common.printServerStats;
 import static se.edinjakupovic.Common.printStats;
 import static se.edinjakupovic.Common.runWarmup;
 
@@ -25,31 +23,15 @@ public class Multi implements Sim {
         runWarmup(simArgs);
 
         System.out.println("\nStarting test...\n");
-        Common.Stats stats = measureNioClientReuse(true, simArgs.clients(), simArgs.simulationName(), simArgs.payloads());
+        Common.Stats stats = measureNioClientReuse(true, simArgs);
         printStats(simArgs, stats);
+        printServerStats(multiReactorServer.stats());
 
         multiReactorServer.shutdown();
     }
 
     private static MultiReactorServer createServer(Common.CommandLineArgs args) {
-        return new MultiReactorServer(
-                new ServerConfig(
-                        new InetSocketAddress(8080),
-                        new TLVConfig(
-                                5, 1000
-                        ),
-                        1000L,
-                        1000L,
-                        0,
-                        1000,
-                        args.workers(),
-                        Map.of(
-                                (byte) 0, _ -> PayloadUtils.payload((byte) 0, "Some result", true)
-                        ),
-                        _ -> ServerConstants.ERROR_TYPE_BASE
-                )
-        );
+        return new MultiReactorServer(Common.serverConfig(args.workers(), args.workload().handlers(),
+                args.workload().maxBodySize(), args.capture()));
     }
-
-
 }
@@ -0,0 +1,240 @@
+package se.edinjakupovic;
+
+import se.edinjakupovic.capture.CaptureReader;
+import se.edinjakupovic.capture.CaptureReader.CapturedFrame;
+import se.edinjakupovic.workload.ResponseMode;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture written with {@code --capture=<file>}, {@code replay --capture=<file> --strategy=multi --workers=4}.
+ * <p>
+ * Frames are sent at their captured offsets divided by {@code --speed}, {@code --speed=0} sends as fast as possible.
+ * Each captured connection is pinned to one of {@code --clients} replay clients, which send one frame at a time,
+ * so frames of a connection keep their order. A frame whose predecessor is still in flight is sent late,
+ * the report shows how far replay fell behind the captured schedule.
+ * Without {@code --target=<host:port>} a server of {@code --strategy} is started that answers with {@code --response}.
+ */
+public class Replay {
+
+    /**
+     * @param due offset from the start of the replay
+     */
+    record ScheduledFrame(long due, ByteBuffer frame) {
+    }
+
+    record LaneStats(int success, int failed, int skipped, LatencyHistogram latency, LatencyHistogram lag) {
+    }
+
+    record ReplayArgs(Path capture, String strategy, int workers, int clients, double speed, ResponseMode response,
+                      InetSocketAddress target) {
+    }
+
+    public static int run(String[] args) throws Exception {
+        ReplayArgs replayArgs = parseArgs(args);
+        List<CapturedFrame> frames = CaptureReader.read(replayArgs.capture());
+        if (frames.isEmpty()) {
+            System.out.println("Capture " + replayArgs.capture() + " has no frames");
+            return 1;
+        }
+
+        Map<Integer, List<CapturedFrame>> connections = new LinkedHashMap<>();
+        for (CapturedFrame frame : frames) {
+            connections.computeIfAbsent(frame.connectionId(), _ -> new ArrayList<>()).add(frame);
+        }
+        int clients = Math.min(replayArgs.clients(), connections.size());
+        List<List<ScheduledFrame>> lanes = schedule(connections, clients, replayArgs.speed());
+        long capturedNanos = frames.stream().mapToLong(CapturedFrame::nanos).max().orElse(0)
+                - frames.stream().mapToLong(CapturedFrame::nanos).min().orElse(0);
+        System.out.printf("Replaying %d frames of %d connections captured at %s over %d clients, speed %s%n",
+                frames.size(), connections.size(), Instant.ofEpochMilli(CaptureReader.startEpochMicros(replayArgs.capture()) / 1000),
+                clients, replayArgs.speed() == 0 ? "unpaced" : replayArgs.speed() + "x");
+
+        AutoCloseable server = replayArgs.target() == null ? startServer(replayArgs, frames) : () -> {
+        };
+        InetSocketAddress address = replayArgs.target() == null ? new InetSocketAddress(8080) : replayArgs.target();
+        try (server; ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            List<NioClient> nioClients = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                nioClients.add(new NioClient(address));
+            }
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            List<Future<LaneStats>> futures = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                NioClient client = nioClients.get(i);
+                List<ScheduledFrame> lane = lanes.get(i);
+                futures.add(executor.submit(() -> replay(client, lane, start)));
+            }
+
+            int success = 0, failed = 0, skipped = 0;
+            LatencyHistogram latency = new LatencyHistogram();
+            LatencyHistogram lag = new LatencyHistogram();
+            for (Future<LaneStats> future : futures) {
+                LaneStats stats = future.get();
+                success += stats.success();
+                failed += stats.failed();
+                skipped += stats.skipped();
+                latency.add(stats.latency());
+                lag.add(stats.lag());
+            }
+            long durationNanos = System.nanoTime() - start;
+            nioClients.forEach(NioClient::stop);
+
+            System.out.printf("""
+
+                            Replayed in %d ms, captured traffic spanned %d ms
+
+                            %d ok, %d failed, %d skipped
+                            %.1f us p50, %.1f us p99, %.1f us max latency
+                            %.1f us p50, %.1f us p99, %.1f us max behind schedule
+                            %n""",
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos), TimeUnit.NANOSECONDS.toMillis(capturedNanos),
+                    success, failed, skipped,
+                    latency.valueAtPercentile(50) / 1000.0, latency.valueAtPercentile(99) / 1000.0, latency.max() / 1000.0,
+                    lag.valueAtPercentile(50) / 1000.0, lag.valueAtPercentile(99) / 1000.0, lag.max() / 1000.0);
+            return failed == 0 ? 0 : 1;
+        }
+    }
+
+    /**
+     * Spreads the connections over the clients and orders each client's frames by due time.
+     * Frames of wide types that the 1 byte header can not carry are left out.
+     */
+    static List<List<ScheduledFrame>> schedule(Map<Integer, List<CapturedFrame>> connections, int clients, double speed) {
+        long first = connections.values().stream()
+                .flatMap(List::stream)
+                .mapToLong(CapturedFrame::nanos)
+                .min()
+                .orElse(0);
+        List<List<ScheduledFrame>> lanes = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) lanes.add(new ArrayList<>());
+
+        int connection = 0;
+        for (List<CapturedFrame> frames : connections.values()) {
+            List<ScheduledFrame> lane = lanes.get(connection++ % clients);
+            for (CapturedFrame frame : frames) {
+                long due = speed == 0 ? 0 : (long) ((frame.nanos() - first) / speed);
+                ByteBuffer body = frame.body().duplicate();
+                byte[] bytes = new byte[body.remaining()];
+                body.get(bytes);
+                ByteBuffer wire = frame.type() > ServerConstants.TLV_TYPE_MASK
+                        ? null
+                        : FrameCodec.DEFAULT.frame(frame.type(), bytes, frame.keepAlive());
+                lane.add(new ScheduledFrame(due, wire));
+            }
+        }
+        // Stable, frames of one connection keep their captured order
+        lanes.forEach(lane -> lane.sort(Comparator.comparingLong(ScheduledFrame::due)));
+        return lanes;
+    }
+
+    private static LaneStats replay(NioClient client, List<ScheduledFrame> lane, long start) {
+        int success = 0, failed = 0, skipped = 0;
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram lag = new LatencyHistogram();
+        Common.Completion completion = new Common.Completion(Thread.currentThread());
+
+        for (ScheduledFrame scheduled : lane) {
+            if (scheduled.frame() == null) {
+                skipped++;
+                continue;
+            }
+            long due = start + scheduled.due();
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            lag.record(System.nanoTime() - due);
+
+            completion.reset();
+            if (!client.sendRPC(scheduled.frame(), completion)) {
+                failed++;
+                continue;
+            }
+            switch (completion.await(TimeUnit.SECONDS.toNanos(1))) {
+                case Common.Completion.OK -> {
+                    success++;
+                    latency.record(completion.elapsedNanos);
+                }
+                case Common.Completion.FAILED -> failed++;
+                default -> {
+                    failed++;
+                    completion = new Common.Completion(Thread.currentThread());
+                }
+            }
+        }
+        return new LaneStats(success, failed, skipped, latency, lag);
+    }
+
+    private static AutoCloseable startServer(ReplayArgs replayArgs, List<CapturedFrame> frames) throws Exception {
+        Map<Byte, MessageHandler> handlers = new HashMap<>();
+        int maxBodySize = 1000;
+        for (CapturedFrame frame : frames) {
+            if (frame.type() < ServerConstants.ERROR_TYPE) {
+                handlers.computeIfAbsent((byte) frame.type(), replayArgs.response()::handler);
+            }
+            maxBodySize = Math.max(maxBodySize, frame.body().remaining());
+        }
+        maxBodySize = Math.max(maxBodySize, replayArgs.response().maxBodySize());
+        ServerConfig config = Common.serverConfig(
+                replayArgs.strategy().equals("single") ? 1 : replayArgs.workers(), handlers, maxBodySize, null);
+
+        return Common.startServer(replayArgs.strategy(), config);
+    }
+
+    static ReplayArgs parseArgs(String[] args) {
+        Path capture = null;
+        String strategy = "multi";
+        int workers = 1;
+        int clients = 16;
+        double speed = 1;
+        ResponseMode response = new ResponseMode.Echo();
+        InetSocketAddress target = null;
+
+        for (String arg : args) {
+            if (arg.startsWith("--capture=")) {
+                capture = Path.of(arg.substring("--capture=".length()));
+            } else if (arg.startsWith("--strategy=")) {
+                strategy = arg.substring("--strategy=".length());
+            } else if (arg.startsWith("--workers=")) {
+                workers = Integer.parseInt(arg.substring("--workers=".length()));
+            } else if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(arg.substring("--clients=".length()));
+            } else if (arg.startsWith("--speed=")) {
+                speed = Double.parseDouble(arg.substring("--speed=".length()));
+            } else if (arg.startsWith("--response=")) {
+                response = ResponseMode.parse(arg.substring("--response=".length()));
+            } else if (arg.startsWith("--target=")) {
+                String hostPort = arg.substring("--target=".length());
+                int colon = hostPort.lastIndexOf(':');
+                if (colon < 0) throw new IllegalArgumentException("--target must be <host>:<port>, got [" + hostPort + "]");
+                target = new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        if (capture == null) throw new IllegalArgumentException("replay needs --capture=<file>");
+        if (!strategy.equals("single") && !strategy.equals("multi")) {
+            throw new IllegalArgumentException("--strategy either 'single' or 'multi' for patterns, got [" + strategy + "]");
+        }
+        if (workers <= 0 || clients <= 0 || speed < 0) {
+            throw new IllegalArgumentException("--workers and --clients must be positive and --speed non-negative");
+        }
+        return new ReplayArgs(capture, strategy, workers, clients, speed, response, target);
+    }
+}
@@ -0,0 +1,120 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the cost per ready key of a select loop with the JDK's selected-key set and with {@link FlatSelectedKeys},
+ * {@code selected-keys --keys=256 --iterations=200000 --rounds=5}.
+ * <p>
+ * Every key is a pipe with one unread byte, so each {@code selectNow} reports all of them and the loop walks and clears
+ * them the way the worker reactors do. The flat set only installs when this JVM runs with
+ * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}, without it only the standard set is measured.
+ */
+public class SelectedKeysBench {
+
+    record BenchArgs(int keys, int iterations, int rounds) {
+    }
+
+    public static int run(String[] args) throws IOException {
+        BenchArgs benchArgs = parseArgs(args);
+        List<Pipe> pipes = new ArrayList<>(benchArgs.keys());
+        try (Selector standard = Selector.open(); Selector flatSelector = Selector.open()) {
+            FlatSelectedKeys flat = FlatSelectedKeys.install(flatSelector);
+            for (int i = 0; i < benchArgs.keys(); i++) {
+                Pipe pipe = Pipe.open();
+                pipes.add(pipe);
+                pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+                pipe.source().configureBlocking(false);
+                // Registered with both selectors, so both loops walk the same keys
+                pipe.source().register(standard, SelectionKey.OP_READ);
+                pipe.source().register(flatSelector, SelectionKey.OP_READ);
+            }
+
+            System.out.printf("%d ready keys, %d selects per round%n", benchArgs.keys(), benchArgs.iterations());
+            if (flat == null) {
+                System.out.println("Flat selected-key set unavailable, run with --add-opens java.base/sun.nio.ch=ALL-UNNAMED");
+            }
+            // The first round warms both loops up and is not reported
+            for (int round = 0; round <= benchArgs.rounds(); round++) {
+                double standardNanos = standard(standard, benchArgs);
+                String line = "round %d standard %.1f ns/key".formatted(round, standardNanos);
+                if (flat != null) {
+                    line += ", flat %.1f ns/key".formatted(flat(flatSelector, flat, benchArgs));
+                }
+                if (round > 0) System.out.println(line);
+            }
+        } finally {
+            for (Pipe pipe : pipes) {
+                pipe.sink().close();
+                pipe.source().close();
+            }
+        }
+        return 0;
+    }
+
+    private static double standard(Selector selector, BenchArgs benchArgs) throws IOException {
+        long ops = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < benchArgs.iterations(); i++) {
+            selector.selectNow();
+            Set<SelectionKey> selected = selector.selectedKeys();
+            Iterator<SelectionKey> it = selected.iterator();
+            while (it.hasNext()) {
+                ops += it.next().readyOps();
+                it.remove();
+            }
+        }
+        return perKey(start, ops, benchArgs);
+    }
+
+    private static double flat(Selector selector, FlatSelectedKeys selected, BenchArgs benchArgs) throws IOException {
+        long ops = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < benchArgs.iterations(); i++) {
+            selector.selectNow();
+            for (int k = 0; k < selected.size(); k++) {
+                ops += selected.get(k).readyOps();
+            }
+            selected.reset();
+        }
+        return perKey(start, ops, benchArgs);
+    }
+
+    private static double perKey(long start, long ops, BenchArgs benchArgs) {
+        long elapsed = System.nanoTime() - start;
+        // Every key is ready in every select, anything else means the two loops did different work
+        if (ops != (long) benchArgs.iterations() * benchArgs.keys() * SelectionKey.OP_READ) {
+            throw new IllegalStateException("Expected every key ready in every select, got " + ops + " ready ops");
+        }
+        return (double) elapsed / benchArgs.iterations() / benchArgs.keys();
+    }
+
+    static BenchArgs parseArgs(String[] args) {
+        int keys = 256;
+        int iterations = 200_000;
+        int rounds = 5;
+        for (String arg : args) {
+            if (arg.startsWith("--keys=")) {
+                keys = Integer.parseInt(arg.substring("--keys=".length()));
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (keys <= 0 || iterations <= 0 || rounds <= 0) {
+            throw new IllegalArgumentException("--keys, --iterations and --rounds must be positive integers");
+        }
+        return new BenchArgs(keys, iterations, rounds);
+    }
+}
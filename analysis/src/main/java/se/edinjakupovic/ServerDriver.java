@@ -0,0 +1,94 @@
+package se.edinjakupovic;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code --role=server}, runs only the simulation server and is stepped through warm-up, start and stop by a
+ * {@link ClientDriver} in another JVM, so the load generator's heap, GC and threads stay out of the server's numbers.
+ */
+public class ServerDriver implements Sim {
+
+    /**
+     * Process wide counters at one point in time.
+     */
+    record Snapshot(long nanos, long responses, long writeFallbacks, long gcCount, long gcTimeMs, long cpuTimeNanos) {
+
+        static Snapshot take(ReactorStats stats) {
+            long gcCount = 0, gcTimeMs = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcTimeMs += Math.max(0, gc.getCollectionTime());
+            }
+            return new Snapshot(System.nanoTime(), stats.responses, stats.writeFallbacks, gcCount, gcTimeMs, processCpuTime());
+        }
+
+        Map<String, Object> since(Snapshot start) {
+            long wallNanos = nanos - start.nanos;
+            long cpuNanos = cpuTimeNanos - start.cpuTimeNanos;
+            long responseCount = responses - start.responses;
+            Map<String, Object> server = new LinkedHashMap<>();
+            server.put("durationMs", TimeUnit.NANOSECONDS.toMillis(wallNanos));
+            server.put("responses", responseCount);
+            server.put("writeFallbacks", writeFallbacks - start.writeFallbacks);
+            server.put("cpuTimeMs", TimeUnit.NANOSECONDS.toMillis(cpuNanos));
+            // Cores kept busy on average, user and system time of the whole process
+            server.put("cpuCores", wallNanos == 0 ? 0 : (double) cpuNanos / wallNanos);
+            server.put("cpuNanosPerResponse", responseCount == 0 ? 0 : cpuNanos / responseCount);
+            server.put("gcCount", gcCount - start.gcCount);
+            server.put("gcTimeMs", gcTimeMs - start.gcTimeMs);
+            server.put("heapUsedBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+            server.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+            server.put("jvm", BenchmarkResult.jvmInfo());
+            return server;
+        }
+
+        private static long processCpuTime() {
+            if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+                return Math.max(0, os.getProcessCpuTime());
+            }
+            return 0;
+        }
+    }
+
+    @Override
+    public void run(Common.CommandLineArgs simArgs) throws Exception {
+        int workers = simArgs.strategy().equals("single") ? 1 : simArgs.workers();
+        ServerConfig config = Common.serverConfig(workers, simArgs.workload().handlers(),
+                simArgs.workload().maxBodySize(), simArgs.capture());
+
+        try (Common.SimServer server = Common.startServer(simArgs.strategy(), config);
+             ServerSocket serverSocket = ControlChannel.listen(simArgs.control())) {
+            System.out.printf("Running %s server: %d workers, waiting for the client on control port %d%n",
+                    simArgs.strategy(), workers, simArgs.control());
+            try (ControlChannel control = ControlChannel.accept(serverSocket)) {
+                Snapshot start = Snapshot.take(server.stats().get());
+                ControlChannel.Command command;
+                while ((command = control.receive()) != null) {
+                    System.out.println("Client: " + command);
+                    switch (command) {
+                        case WARMUP -> control.acknowledge();
+                        case START -> {
+                            start = Snapshot.take(server.stats().get());
+                            control.acknowledge();
+                        }
+                        case STOP -> {
+                            Map<String, Object> measured = Snapshot.take(server.stats().get()).since(start);
+                            System.out.println("Measured: " + measured);
+                            control.reply(measured);
+                        }
+                        case SHUTDOWN -> {
+                            control.acknowledge();
+                            return;
+                        }
+                    }
+                }
+                System.out.println("Client closed the control channel without SHUTDOWN");
+            }
+        }
+    }
+}
@@ -1,17 +1,15 @@
 package se.edinjakupovic;
 
 import se.edinjakupovic.single_reactor.SingleReactorServer;
-import se.edinjakupovic.utils.PayloadUtils;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static se.edinjakupovic.Common.measureNioClientReuse;
+import static se.edinjakupovic.Common.printServerStats;
 import static se.edinjakupovic.Common.printStats;
 import static se.edinjakupovic.Common.runWarmup;
 
@@ -22,7 +20,7 @@ public class Single implements Sim {
     public void run(Common.CommandLineArgs simArgs) throws Exception {
         System.out.printf("Running SingleReactor simulation: %d warmups, %d workers, %d payloads per id%n", simArgs.warmups(), simArgs.workers(), simArgs.payloads());
 
-        SingleReactorServer server = createServer();
+        SingleReactorServer server = createServer(simArgs);
 
         CountDownLatch latch = new CountDownLatch(1);
         try (ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "server"))) {
@@ -32,30 +30,18 @@ public class Single implements Sim {
             runWarmup(simArgs);
 
             System.out.println("\nStarting test...\n");
-            Common.Stats stats = measureNioClientReuse(true, simArgs.clients(), simArgs.simulationName(), simArgs.payloads());
+            Common.Stats stats = measureNioClientReuse(true, simArgs);
             printStats(simArgs, stats);
+            printServerStats(server.stats());
 
             serverExecutor.shutdownNow();
         }
     }
 
 
-    private static SingleReactorServer createServer() {
-        return new SingleReactorServer(new ServerConfig(
-                new InetSocketAddress(8080),
-                new TLVConfig(
-                        5, 1000
-                ),
-                1000L,
-                1000L,
-                0,
-                1000,
-                1,
-                Map.of(
-                        (byte) 0, _ -> PayloadUtils.payload((byte) 0, "Some result", true)
-                ),
-                _ -> ServerConstants.ERROR_TYPE_BASE
-        ));
+    private static SingleReactorServer createServer(Common.CommandLineArgs args) {
+        return new SingleReactorServer(Common.serverConfig(1, args.workload().handlers(),
+                args.workload().maxBodySize(), args.capture()));
     }
 
 
@@ -0,0 +1,267 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs every cell of a workers × clients × payload size × strategy × keep alive matrix in a freshly forked JVM
+ * and aggregates the result records into one report.
+ * <p>
+ * Values are comma separated, {@code from..to} expands to every integer in between:
+ * {@code sweep --strategies=multi --workers=4 --clients=1..8,16,32 --payload-sizes=16,1024 --payloads=100000}
+ */
+public class Sweep {
+
+    record Cell(String strategy, int workers, int clients, int payloadSize, boolean keepAlive) {
+
+        String name() {
+            return "%s_w%d_c%d_p%d_%s".formatted(strategy, workers, clients, payloadSize, keepAlive ? "ka" : "close");
+        }
+
+        /**
+         * Cells whose results are compared to find where throughput peaks, they differ only in clients.
+         */
+        String series() {
+            return "%s workers=%d payload=%d keepAlive=%b".formatted(strategy, workers, payloadSize, keepAlive);
+        }
+    }
+
+    record SweepArgs(List<String> strategies,
+                     List<Integer> workers,
+                     List<Integer> clients,
+                     List<Integer> payloadSizes,
+                     List<Boolean> keepAlive,
+                     int payloads,
+                     int warmups,
+                     String name,
+                     List<String> jvmFlags,
+                     Path output,
+                     long cellTimeoutSeconds,
+                     List<String> workloadArgs) {
+
+        List<Cell> cells() {
+            // The single reactor ignores workers, one cell is enough
+            Set<Cell> cells = new LinkedHashSet<>();
+            for (String strategy : strategies) {
+                for (int w : strategy.equals("single") ? List.of(1) : workers) {
+                    for (int payloadSize : payloadSizes) {
+                        for (boolean ka : keepAlive) {
+                            for (int c : clients) {
+                                cells.add(new Cell(strategy, w, c, payloadSize, ka));
+                            }
+                        }
+                    }
+                }
+            }
+            return List.copyOf(cells);
+        }
+    }
+
+    /**
+     * @return the process exit code, 1 if any cell failed
+     */
+    public static int run(String[] args) throws IOException, InterruptedException {
+        SweepArgs sweepArgs = parseArgs(args);
+        List<Cell> cells = sweepArgs.cells();
+        Files.createDirectories(sweepArgs.output());
+        System.out.printf("Sweeping %d cells into %s%n", cells.size(), sweepArgs.output());
+
+        List<BenchmarkResult> results = new ArrayList<>(cells.size());
+        List<Cell> failed = new ArrayList<>();
+        for (int i = 0; i < cells.size(); i++) {
+            Cell cell = cells.get(i);
+            System.out.printf("[%d/%d] %s%n", i + 1, cells.size(), cell.name());
+            BenchmarkResult result = runCell(sweepArgs, cell);
+            if (result == null) {
+                failed.add(cell);
+            } else {
+                results.add(result);
+                System.out.printf("      %.2f calls/s, p99 %.1f us%n", result.throughput(), result.latency().p99());
+            }
+        }
+
+        writeReport(sweepArgs.output(), results);
+        failed.forEach(cell -> System.out.println("FAILED " + cell.name() + ", see " + sweepArgs.output().resolve(cell.name() + ".log")));
+        return failed.isEmpty() ? 0 : 1;
+    }
+
+    private static BenchmarkResult runCell(SweepArgs sweepArgs, Cell cell) throws IOException, InterruptedException {
+        Path result = sweepArgs.output().resolve(cell.name() + ".json");
+        Path log = sweepArgs.output().resolve(cell.name() + ".log");
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(sweepArgs.jvmFlags());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add("--strategy=" + cell.strategy());
+        command.add("--workers=" + cell.workers());
+        command.add("--clients=" + cell.clients());
+        command.add("--payloads=" + sweepArgs.payloads());
+        command.add("--warmups=" + sweepArgs.warmups());
+        command.add("--payload-size=" + cell.payloadSize());
+        command.add("--keep-alive=" + cell.keepAlive());
+        command.add("--name=" + sweepArgs.name() + "_" + cell.name());
+        command.add("--output=" + result);
+        command.addAll(sweepArgs.workloadArgs());
+
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        if (!process.waitFor(sweepArgs.cellTimeoutSeconds(), TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+            System.out.println("      timed out");
+            return null;
+        }
+        if (process.exitValue() != 0 || !Files.exists(result)) {
+            System.out.println("      exited with " + process.exitValue());
+            return null;
+        }
+        return BenchmarkResult.read(result);
+    }
+
+    static void writeReport(Path output, List<BenchmarkResult> results) throws IOException {
+        Map<String, Integer> peakClients = peakClients(results);
+
+        StringBuilder csv = new StringBuilder("strategy,workers,clients,payloadSize,keepAlive,throughput,p50Us,p99Us,p999Us,success,failed,timeouts,peak\n");
+        StringBuilder table = new StringBuilder("%-8s %7s %7s %7s %5s %12s %10s %10s%n".formatted(
+                "strategy", "workers", "clients", "payload", "ka", "calls/s", "p50 us", "p99 us"));
+        for (BenchmarkResult r : results) {
+            boolean peak = peakClients.get(series(r)) == r.clients();
+            csv.append(String.join(",",
+                    r.strategy(), String.valueOf(r.workers()), String.valueOf(r.clients()), String.valueOf(r.payloadSize()),
+                    String.valueOf(r.keepAlive()), String.valueOf(r.throughput()), String.valueOf(r.latency().p50()),
+                    String.valueOf(r.latency().p99()), String.valueOf(r.latency().p999()), String.valueOf(r.success()),
+                    String.valueOf(r.failed()), String.valueOf(r.timeouts()), String.valueOf(peak))).append('\n');
+            table.append("%-8s %7d %7d %7d %5s %12.2f %10.1f %10.1f%s%n".formatted(
+                    r.strategy(), r.workers(), r.clients(), r.payloadSize(), r.keepAlive() ? "yes" : "no",
+                    r.throughput(), r.latency().p50(), r.latency().p99(), peak ? "  <- peak" : ""));
+        }
+
+        Files.writeString(output.resolve("report.csv"), csv.toString());
+        Files.writeString(output.resolve("report.json"), Json.write(results.stream()
+                .map(r -> Json.parse(r.toJson()))
+                .toList()));
+
+        System.out.println();
+        System.out.print(table);
+        System.out.println();
+        peakClients.forEach((series, clients) -> System.out.printf("%s peaks at %d clients%n", series, clients));
+        System.out.println("Report written to " + output.resolve("report.csv"));
+    }
+
+    /**
+     * Number of clients with the highest throughput per series, the point where adding clients stops helping.
+     */
+    static Map<String, Integer> peakClients(List<BenchmarkResult> results) {
+        return results.stream().collect(Collectors.groupingBy(
+                Sweep::series,
+                LinkedHashMap::new,
+                Collectors.collectingAndThen(
+                        Collectors.maxBy(Comparator.comparingDouble(BenchmarkResult::throughput)),
+                        best -> best.orElseThrow().clients())));
+    }
+
+    private static String series(BenchmarkResult r) {
+        return new Cell(r.strategy(), r.workers(), r.clients(), r.payloadSize(), r.keepAlive()).series();
+    }
+
+    static SweepArgs parseArgs(String[] args) {
+        List<String> strategies = List.of("single", "multi");
+        List<Integer> workers = List.of(1);
+        List<Integer> clients = List.of(1);
+        List<Integer> payloadSizes = List.of(5);
+        List<Boolean> keepAlive = List.of(true);
+        int payloads = 0;
+        int warmups = 1;
+        String name = "sweep";
+        // Same flags as this JVM unless told otherwise, so every cell runs identically
+        List<String> jvmFlags = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        Path output = null;
+        long cellTimeoutSeconds = 600;
+        // Passed unchanged to every cell
+        List<String> workloadArgs = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.startsWith("--strategies=")) {
+                strategies = List.of(arg.substring("--strategies=".length()).split(","));
+            } else if (arg.startsWith("--workers=")) {
+                workers = parseRange(arg, "--workers=");
+            } else if (arg.startsWith("--clients=")) {
+                clients = parseRange(arg, "--clients=");
+            } else if (arg.startsWith("--payload-sizes=")) {
+                payloadSizes = parseRange(arg, "--payload-sizes=");
+            } else if (arg.startsWith("--keep-alive=")) {
+                keepAlive = Arrays.stream(arg.substring("--keep-alive=".length()).split(","))
+                        .map(Boolean::parseBoolean)
+                        .distinct()
+                        .toList();
+            } else if (arg.startsWith("--payloads=")) {
+                payloads = Integer.parseInt(arg.substring("--payloads=".length()));
+            } else if (arg.startsWith("--warmups=")) {
+                warmups = Integer.parseInt(arg.substring("--warmups=".length()));
+            } else if (arg.startsWith("--name=")) {
+                name = arg.substring("--name=".length()).replaceAll("\\s+", "_");
+            } else if (arg.startsWith("--jvm-flags=")) {
+                String flags = arg.substring("--jvm-flags=".length()).trim();
+                jvmFlags = flags.isEmpty() ? List.of() : List.of(flags.split("\\s+"));
+            } else if (arg.startsWith("--output=")) {
+                output = Path.of(arg.substring("--output=".length()));
+            } else if (arg.startsWith("--cell-timeout=")) {
+                cellTimeoutSeconds = Long.parseLong(arg.substring("--cell-timeout=".length()));
+            } else if (arg.startsWith("--types=") || arg.startsWith("--response=") || arg.startsWith("--seed=")) {
+                workloadArgs.add(arg);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        if (payloads <= 0) {
+            throw new IllegalArgumentException("--payloads must be a positive integer");
+        }
+        for (String strategy : strategies) {
+            if (!strategy.equals("single") && !strategy.equals("multi")) {
+                throw new IllegalArgumentException("--strategies either 'single' or 'multi', got [" + strategy + "]");
+            }
+        }
+        if (output == null) {
+            output = Path.of("results", name + "_" + LocalDateTime.now().toString().replace(':', '-'));
+        }
+        return new SweepArgs(strategies, workers, clients, payloadSizes, keepAlive, payloads, warmups, name,
+                jvmFlags, output, cellTimeoutSeconds, workloadArgs);
+    }
+
+    static List<Integer> parseRange(String arg, String prefix) {
+        List<Integer> values = new ArrayList<>();
+        for (String part : arg.substring(prefix.length()).split(",")) {
+            int dots = part.indexOf("..");
+            if (dots < 0) {
+                values.add(Integer.parseInt(part.trim()));
+                continue;
+            }
+            int from = Integer.parseInt(part.substring(0, dots).trim());
+            int to = Integer.parseInt(part.substring(dots + 2).trim());
+            if (from > to) throw new IllegalArgumentException(prefix + " range " + part + " is empty");
+            for (int v = from; v <= to; v++) values.add(v);
+        }
+        if (values.stream().anyMatch(v -> v <= 0)) {
+            throw new IllegalArgumentException(prefix + " values must be positive");
+        }
+        return values.stream().distinct().toList();
+    }
+}
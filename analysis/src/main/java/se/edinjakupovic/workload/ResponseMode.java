@@ -0,0 +1,103 @@
+package se.edinjakupovic.workload;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.MessageHandler;
+import se.edinjakupovic.utils.PayloadUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What the simulation server answers, parsed from {@code fixed}, {@code echo} or {@code synth:<size>}.
+ */
+public sealed interface ResponseMode {
+
+    MessageHandler handler(byte type);
+
+    /**
+     * Largest response body, 0 when it follows the request.
+     */
+    int maxBodySize();
+
+    /**
+     * The original "Some result" answer, built for every request.
+     */
+    record Fixed() implements ResponseMode {
+        @Override
+        public MessageHandler handler(byte type) {
+            return _ -> PayloadUtils.payload(type, "Some result", true);
+        }
+
+        @Override
+        public int maxBodySize() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "fixed";
+        }
+    }
+
+    /**
+     * Sends the request body back, response sizes then follow the request distribution.
+     */
+    record Echo() implements ResponseMode {
+        @Override
+        public MessageHandler handler(byte type) {
+            return request -> {
+                int length = request.remaining();
+                ByteBuffer response = ByteBuffer.allocate(FrameCodec.DEFAULT.headerSize(length) + length);
+                int headerSize = FrameCodec.DEFAULT.encodeHeader(response, 0, type, true, length, (byte) 0);
+                return response.put(headerSize, request, request.position(), length);
+            };
+        }
+
+        @Override
+        public int maxBodySize() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "echo";
+        }
+    }
+
+    /**
+     * Answers with a prebuilt body of {@code size} bytes, so the server only pays for writing it.
+     */
+    record Synthesize(int size) implements ResponseMode {
+        public Synthesize {
+            if (size < 0) throw new IllegalArgumentException("Response size can not be negative, got " + size);
+        }
+
+        @Override
+        public MessageHandler handler(byte type) {
+            ByteBuffer response = PayloadUtils.payload(FrameCodec.DEFAULT, type, new byte[size], true).asReadOnlyBuffer();
+            return _ -> response.duplicate();
+        }
+
+        @Override
+        public int maxBodySize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "synth:" + size;
+        }
+    }
+
+    static ResponseMode parse(String spec) {
+        if (spec.equals("fixed")) return new Fixed();
+        if (spec.equals("echo")) return new Echo();
+        if (spec.startsWith("synth:")) {
+            try {
+                return new Synthesize(Integer.parseInt(spec.substring("synth:".length())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid response size: " + spec, e);
+            }
+        }
+        throw new IllegalArgumentException("--response either 'fixed', 'echo' or 'synth:<size>', got [" + spec + "]");
+    }
+}
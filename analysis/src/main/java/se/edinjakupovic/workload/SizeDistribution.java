@@ -0,0 +1,203 @@
+package se.edinjakupovic.workload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Request body sizes in bytes, parsed from {@code fixed:<size>}, {@code uniform:<min>:<max>},
+ * {@code lognormal:<median>:<sigma>[:<max>]} or {@code histogram:<file>}.
+ */
+public sealed interface SizeDistribution {
+    int DEFAULT_LOG_NORMAL_MAX = 1 << 20;
+
+    int sample(Random random);
+
+    int max();
+
+    double mean();
+
+    record Fixed(int size) implements SizeDistribution {
+        public Fixed {
+            if (size < 0) throw new IllegalArgumentException("Size can not be negative, got " + size);
+        }
+
+        @Override
+        public int sample(Random random) {
+            return size;
+        }
+
+        @Override
+        public int max() {
+            return size;
+        }
+
+        @Override
+        public double mean() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "fixed:" + size;
+        }
+    }
+
+    record Uniform(int min, int max) implements SizeDistribution {
+        public Uniform {
+            if (min < 0 || max < min) throw new IllegalArgumentException("Need 0 <= min <= max, got " + min + ":" + max);
+        }
+
+        @Override
+        public int sample(Random random) {
+            return random.nextInt(min, max + 1);
+        }
+
+        @Override
+        public double mean() {
+            return (min + (double) max) / 2;
+        }
+
+        @Override
+        public String toString() {
+            return "uniform:" + min + ":" + max;
+        }
+    }
+
+    /**
+     * Long tailed sizes, most bodies near the median and a few much larger, capped at {@code max}.
+     */
+    record LogNormal(double median, double sigma, int max) implements SizeDistribution {
+        public LogNormal {
+            if (median <= 0 || sigma < 0 || max < 1) {
+                throw new IllegalArgumentException("Need median > 0, sigma >= 0 and max >= 1");
+            }
+        }
+
+        @Override
+        public int sample(Random random) {
+            double size = median * Math.exp(sigma * random.nextGaussian());
+            return (int) Math.min(max, Math.round(size));
+        }
+
+        @Override
+        public double mean() {
+            return Math.min(max, median * Math.exp(sigma * sigma / 2));
+        }
+
+        @Override
+        public String toString() {
+            return "lognormal:" + median + ":" + sigma + ":" + max;
+        }
+    }
+
+    /**
+     * Sizes drawn with the given weights, for replaying a size profile measured elsewhere.
+     */
+    record Histogram(String source, int[] sizes, double[] cumulative) implements SizeDistribution {
+        public Histogram {
+            if (sizes.length == 0 || sizes.length != cumulative.length) {
+                throw new IllegalArgumentException("Histogram needs at least one bucket");
+            }
+        }
+
+        /**
+         * Reads lines of {@code <size> <weight>}, separated by whitespace or a comma, {@code #} starts a comment.
+         */
+        static Histogram read(Path file) {
+            List<Integer> buckets = new ArrayList<>();
+            List<Double> weights = new ArrayList<>();
+            try {
+                for (String line : Files.readAllLines(file)) {
+                    int comment = line.indexOf('#');
+                    String content = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                    if (content.isEmpty()) continue;
+                    String[] parts = content.split("[\\s,]+");
+                    if (parts.length != 2) throw new IllegalArgumentException("Expected '<size> <weight>', got: " + line);
+                    buckets.add(Integer.parseInt(parts[0]));
+                    weights.add(Double.parseDouble(parts[1]));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read histogram " + file, e);
+            }
+            int[] sizes = buckets.stream().mapToInt(Integer::intValue).toArray();
+            double[] cumulative = SizeDistribution.cumulative(weights.stream().mapToDouble(Double::doubleValue).toArray());
+            if (Arrays.stream(sizes).anyMatch(s -> s < 0)) throw new IllegalArgumentException("Sizes can not be negative");
+            return new Histogram(file.toString(), sizes, cumulative);
+        }
+
+        @Override
+        public int sample(Random random) {
+            return sizes[pick(cumulative, random)];
+        }
+
+        @Override
+        public int max() {
+            return Arrays.stream(sizes).max().orElse(0);
+        }
+
+        @Override
+        public double mean() {
+            double mean = 0, previous = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                mean += sizes[i] * (cumulative[i] - previous);
+                previous = cumulative[i];
+            }
+            return mean;
+        }
+
+        @Override
+        public String toString() {
+            return "histogram:" + source;
+        }
+    }
+
+    static SizeDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            return switch (parts[0]) {
+                case "fixed" -> new Fixed(Integer.parseInt(parts[1]));
+                case "uniform" -> new Uniform(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                case "lognormal" -> new LogNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                        parts.length > 3 ? Integer.parseInt(parts[3]) : DEFAULT_LOG_NORMAL_MAX);
+                case "histogram" -> Histogram.read(Path.of(spec.substring("histogram:".length())));
+                default -> throw new IllegalArgumentException("Unknown size distribution: " + spec);
+            };
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size distribution: " + spec, e);
+        }
+    }
+
+    /**
+     * Normalized running sum of the weights, the last entry is 1.
+     */
+    static double[] cumulative(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0) throw new IllegalArgumentException("Weights can not be negative");
+            total += weight;
+        }
+        if (total <= 0) throw new IllegalArgumentException("Weights must add up to more than 0");
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum / total;
+        }
+        cumulative[weights.length - 1] = 1;
+        return cumulative;
+    }
+
+    /**
+     * Index of the bucket a uniform draw falls in, bucket i covers {@code [cumulative[i - 1], cumulative[i])}.
+     */
+    static int pick(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
@@ -0,0 +1,58 @@
+package se.edinjakupovic.workload;
+
+import se.edinjakupovic.ServerConstants;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Weighted message types, parsed from {@code <type>:<weight>,...}, a type without weight counts as 1.
+ */
+public record TypeMix(byte[] types, double[] weights, double[] cumulative) {
+
+    public static final TypeMix SINGLE = parse("0");
+
+    public static TypeMix parse(String spec) {
+        String[] entries = spec.split(",");
+        byte[] types = new byte[entries.length];
+        double[] weights = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            int type;
+            try {
+                type = Integer.parseInt(parts[0]);
+                weights[i] = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid type mix: " + spec, e);
+            }
+            if (type < 0 || type >= ServerConstants.ERROR_TYPE) {
+                throw new IllegalArgumentException("Types must be between 0 and " + (ServerConstants.ERROR_TYPE - 1) + ", got " + type);
+            }
+            types[i] = (byte) type;
+        }
+        return new TypeMix(types, weights, SizeDistribution.cumulative(weights));
+    }
+
+    public byte sample(Random random) {
+        return types[SizeDistribution.pick(cumulative, random)];
+    }
+
+    @Override
+    public String toString() {
+        return IntStream.range(0, types.length)
+                .mapToObj(i -> types[i] + ":" + weights[i])
+                .collect(Collectors.joining(","));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TypeMix other && Arrays.equals(types, other.types) && Arrays.equals(weights, other.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(types) + Arrays.hashCode(weights);
+    }
+}
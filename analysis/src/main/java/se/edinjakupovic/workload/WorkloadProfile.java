@@ -0,0 +1,86 @@
+package se.edinjakupovic.workload;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.MessageHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Traffic sent by the load generator and the answers of the simulation server.
+ *
+ * @param keepAliveRatio share of requests sent on the kept alive channel, the rest open a new connection
+ * @param seed           requests of a client are sampled from {@code seed + client id}, so runs are repeatable
+ */
+public record WorkloadProfile(SizeDistribution sizes,
+                              TypeMix types,
+                              double keepAliveRatio,
+                              ResponseMode response,
+                              long seed) {
+
+    /**
+     * Distinct requests sampled per client, sent round robin so the measured loop does not build frames.
+     */
+    public static final int REQUESTS_PER_CLIENT = 1024;
+    private static final byte[] FILLER = "Hello".getBytes(StandardCharsets.UTF_8);
+
+    public static final WorkloadProfile DEFAULT = new WorkloadProfile(
+            new SizeDistribution.Fixed(FILLER.length), TypeMix.SINGLE, 1, new ResponseMode.Fixed(), 42);
+
+    public WorkloadProfile {
+        if (keepAliveRatio < 0 || keepAliveRatio > 1) {
+            throw new IllegalArgumentException("Keep alive ratio must be between 0 and 1, got " + keepAliveRatio);
+        }
+        if (sizes.max() > FrameCodec.DEFAULT.maxBodyLength()) {
+            throw new IllegalArgumentException("Body sizes up to " + sizes.max() + " do not fit the header");
+        }
+    }
+
+    /**
+     * Frames are shared between identical samples, each buffer is only read from.
+     */
+    public ByteBuffer[] requests(int client) {
+        Random random = new Random(seed + client);
+        Map<Long, ByteBuffer> frames = new HashMap<>();
+        ByteBuffer[] requests = new ByteBuffer[REQUESTS_PER_CLIENT];
+        for (int i = 0; i < requests.length; i++) {
+            byte type = types.sample(random);
+            int size = sizes.sample(random);
+            boolean keepAlive = random.nextDouble() < keepAliveRatio;
+            long key = ((long) size << 9) | ((type & 0xff) << 1) | (keepAlive ? 1 : 0);
+            requests[i] = frames.computeIfAbsent(key, _ -> FrameCodec.DEFAULT.frame(type, body(size), keepAlive));
+        }
+        return requests;
+    }
+
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = FILLER[i % FILLER.length];
+        }
+        return body;
+    }
+
+    public Map<Byte, MessageHandler> handlers() {
+        Map<Byte, MessageHandler> handlers = new HashMap<>();
+        for (byte type : types.types()) {
+            handlers.put(type, response.handler(type));
+        }
+        return handlers;
+    }
+
+    /**
+     * Max body size the simulation server must accept.
+     */
+    public int maxBodySize() {
+        return Math.max(1000, Math.max(sizes.max(), response.maxBodySize()));
+    }
+
+    @Override
+    public String toString() {
+        return "sizes=" + sizes + " types=" + types + " keepAlive=" + keepAliveRatio + " response=" + response + " seed=" + seed;
+    }
+}
@@ -0,0 +1,79 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BenchmarkResultTest {
+
+    @Test
+    void histogramPercentilesShouldBeWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertThat(histogram.count()).isEqualTo(10_000L);
+        assertThat(histogram.valueAtPercentile(50)).isBetween(5_000_000L, 5_080_000L);
+        assertThat(histogram.valueAtPercentile(99)).isBetween(9_900_000L, 10_000_000L);
+        assertThat(histogram.valueAtPercentile(100)).isEqualTo(10_000_000L);
+    }
+
+    @Test
+    void shouldRoundTripThroughJson() {
+        BenchmarkResult result = result(65_000, 120);
+
+        BenchmarkResult read = BenchmarkResult.fromJson(result.toJson());
+
+        assertThat(read).isEqualTo(result);
+    }
+
+    @Test
+    void shouldReadRecordsWrittenBeforeSweepFields() {
+        BenchmarkResult result = result(65_000, 120);
+        // Shape of a record from before payload size, keep alive and workload were recorded
+        // Json.parse gives JSON objects as maps of String keys
+        @SuppressWarnings("unchecked")
+        Map<String, Object> root = (Map<String, Object>) Json.parse(result.toJson());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> config = new LinkedHashMap<>((Map<String, Object>) root.get("config"));
+        config.keySet().removeAll(List.of("payloadSize", "keepAlive", "workload"));
+        root.put("config", config);
+        String json = Json.write(root);
+
+        BenchmarkResult read = BenchmarkResult.fromJson(json);
+
+        assertThat(read.payloadSize()).isEqualTo(5);
+        assertThat(read.keepAlive()).isTrue();
+        assertThat(read.workload()).isNull();
+        assertThat(read.throughput()).isEqualTo(65_000.0);
+    }
+
+    @Test
+    void shouldFlagThroughputAndP99RegressionsBeyondTolerance() {
+        Compare.Tolerance tolerance = new Compare.Tolerance(5, 10);
+        BenchmarkResult baseline = result(60_000, 100);
+
+        assertThat(Compare.compare(baseline, result(58_000, 109), tolerance).regressed()).isFalse();
+
+        Compare.Comparison slower = Compare.compare(baseline, result(50_000, 100), tolerance);
+        assertThat(slower.throughputRegressed()).isTrue();
+        assertThat(slower.p99Regressed()).isFalse();
+
+        Compare.Comparison tail = Compare.compare(baseline, result(70_000, 150), tolerance);
+        assertThat(tail.throughputRegressed()).isFalse();
+        assertThat(tail.p99Regressed()).isTrue();
+    }
+
+    private static BenchmarkResult result(double throughput, double p99) {
+        BenchmarkResult.Latency latency = new BenchmarkResult.Latency(40.5, 35, 60, p99, 400, 2_000);
+        return new BenchmarkResult("run \"quoted\"", "multi", 4, 4, 250_000, 1, 5, true, "sizes=fixed:5", "2025-01-01T00:00",
+                Map.of("flags", List.of("-Xmx1G")), Map.of("cpu", "test"),
+                10_000, 1_000_000, 0, 0, throughput, latency,
+                List.of(new BenchmarkResult.WorkerResult(0, 250_000, 0, 0, latency, Map.of("channelsOpened", 1.0))),
+                Map.of("cpuTimeMs", 1_200.0, "gcCount", 3.0));
+    }
+}
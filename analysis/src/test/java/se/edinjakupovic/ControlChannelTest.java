@@ -0,0 +1,87 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ControlChannelTest {
+
+    @Test
+    void shouldStepTheServerThroughARunAndReturnItsStats() throws Exception {
+        try (ServerSocket listener = ControlChannel.listen(0)) {
+            CompletableFuture<List<ControlChannel.Command>> served = CompletableFuture.supplyAsync(() -> serve(listener));
+
+            try (ControlChannel client = ControlChannel.connect(listener.getLocalPort(), 1000)) {
+                client.send(ControlChannel.Command.WARMUP);
+                client.send(ControlChannel.Command.START);
+                Map<String, Object> stats = client.stop();
+                client.send(ControlChannel.Command.SHUTDOWN);
+
+                assertThat(stats.get("cpuCores")).isEqualTo(1.5);
+                // Sent on one line, the newline inside the string survives
+                assertThat(stats.get("gc")).isEqualTo("G1 Young\nG1 Old");
+            }
+
+            assertThat(served.get(1, TimeUnit.SECONDS)).isEqualTo(List.of(ControlChannel.Command.WARMUP,
+                    ControlChannel.Command.START, ControlChannel.Command.STOP, ControlChannel.Command.SHUTDOWN));
+        }
+    }
+
+    @Test
+    void clientShouldFailWhenTheServerGoesAway() throws Exception {
+        try (ServerSocket listener = ControlChannel.listen(0)) {
+            CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+                try {
+                    ControlChannel.accept(listener).close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            try (ControlChannel client = ControlChannel.connect(listener.getLocalPort(), 1000)) {
+                closed.get(1, TimeUnit.SECONDS);
+                assertThatThrownBy(() -> client.send(ControlChannel.Command.WARMUP))
+                        .isInstanceOf(IOException.class)
+                        .hasMessageContaining("WARMUP");
+            }
+        }
+    }
+
+    @Test
+    void connectShouldGiveUpAfterItsTimeout() throws Exception {
+        int port;
+        try (ServerSocket unused = ControlChannel.listen(0)) {
+            port = unused.getLocalPort();
+        }
+
+        assertThatThrownBy(() -> ControlChannel.connect(port, 200)).isInstanceOf(IOException.class);
+    }
+
+    private static List<ControlChannel.Command> serve(ServerSocket listener) {
+        List<ControlChannel.Command> received = new ArrayList<>();
+        try (ControlChannel server = ControlChannel.accept(listener)) {
+            ControlChannel.Command command;
+            while ((command = server.receive()) != null) {
+                received.add(command);
+                if (command == ControlChannel.Command.STOP) {
+                    server.reply(Map.of("cpuCores", 1.5, "gc", "G1 Young\nG1 Old"));
+                } else {
+                    server.acknowledge();
+                }
+                if (command == ControlChannel.Command.SHUTDOWN) break;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return received;
+    }
+}
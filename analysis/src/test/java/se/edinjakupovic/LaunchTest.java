@@ -0,0 +1,47 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LaunchTest {
+
+    @Test
+    void shouldSplitLaunchFlagsFromSimulationArgs() throws Exception {
+        Launch.LaunchArgs args = Launch.parseArgs(new String[]{
+                "--strategy=multi", "--workers=4", "--payloads=100", "--control=9999",
+                "--server-jvm-flags= -Xmx1G  -XX:+UseZGC ", "--client-jvm-flags=", "--server-cpus=0-3",
+                "--timeout=60", "--output=results/run.json"});
+
+        assertThat(args.simArgs()).isEqualTo(List.of("--strategy=multi", "--workers=4", "--payloads=100",
+                "--control=9999", "--output=results/run.json"));
+        assertThat(args.serverJvmFlags()).isEqualTo(List.of("-Xmx1G", "-XX:+UseZGC"));
+        assertThat(args.clientJvmFlags()).isEqualTo(List.of());
+        assertThat(args.serverCpus()).isEqualTo("0-3");
+        assertThat(args.clientCpus()).isNull();
+        assertThat(args.output()).isEqualTo(Path.of("results/run.json"));
+        assertThat(args.timeoutSeconds()).isEqualTo(60L);
+    }
+
+    @Test
+    void shouldPickAControlPortAndOutputWhenMissing() throws Exception {
+        Launch.LaunchArgs args = Launch.parseArgs(new String[]{"--workers=2", "--payloads=10", "--name=my run"});
+
+        assertThat(args.simArgs().stream().filter(a -> a.startsWith("--control=")).count()).isEqualTo(1L);
+        assertThat(args.output().getFileName().toString()).startsWith("my_run_launch_");
+        assertThat(args.simArgs().getLast()).isEqualTo("--output=" + args.output());
+    }
+
+    @Test
+    void shouldRejectRolesAndInvalidSimulationArgs() {
+        assertThatThrownBy(() -> Launch.parseArgs(new String[]{"--workers=2", "--payloads=10", "--role=server"}))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("--role=server");
+        assertThatThrownBy(() -> Launch.parseArgs(new String[]{"--workers=2"}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,75 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SweepTest {
+
+    @Test
+    void parseRangeShouldExpandRangesAndDropDuplicates() {
+        assertThat(Sweep.parseRange("--clients=1..4,8, 16,2..3", "--clients="))
+                .isEqualTo(List.of(1, 2, 3, 4, 8, 16));
+        assertThat(Sweep.parseRange("--workers=4", "--workers=")).isEqualTo(List.of(4));
+    }
+
+    @Test
+    void parseRangeShouldRejectEmptyRangesAndNonPositiveValues() {
+        assertThatThrownBy(() -> Sweep.parseRange("--clients=8..4", "--clients="))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Sweep.parseRange("--clients=0..2", "--clients="))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void cellsShouldCoverTheMatrixWithOneWorkerCountForSingle() {
+        Sweep.SweepArgs args = Sweep.parseArgs(new String[]{
+                "--strategies=single,multi", "--workers=2,4", "--clients=1..2", "--payload-sizes=16",
+                "--keep-alive=true,false", "--payloads=10", "--jvm-flags=", "--output=out"});
+
+        List<Sweep.Cell> cells = args.cells();
+
+        // single: 1 worker × 2 keep alive × 2 clients, multi: 2 workers × 2 keep alive × 2 clients
+        assertThat(cells).hasSize(4 + 8);
+        assertThat(cells.getFirst()).isEqualTo(new Sweep.Cell("single", 1, 1, 16, true));
+        assertThat(cells.getLast()).isEqualTo(new Sweep.Cell("multi", 4, 2, 16, false));
+        assertThat(cells.stream().filter(c -> c.strategy().equals("single")).allMatch(c -> c.workers() == 1)).isTrue();
+        assertThat(cells.stream().map(Sweep.Cell::name).distinct().count()).isEqualTo(cells.size());
+    }
+
+    @Test
+    void parseArgsShouldRejectUnknownStrategiesAndMissingPayloads() {
+        assertThatThrownBy(() -> Sweep.parseArgs(new String[]{"--strategies=pool", "--payloads=10"}))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Sweep.parseArgs(new String[]{"--clients=1..4"}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void peakClientsShouldPickTheBestThroughputPerSeries() {
+        List<BenchmarkResult> results = List.of(
+                result(4, 1, true, 10_000),
+                result(4, 2, true, 18_000),
+                result(4, 4, true, 17_000),
+                result(4, 1, false, 5_000),
+                result(4, 8, false, 9_000),
+                result(8, 2, true, 30_000));
+
+        Map<String, Integer> peaks = Sweep.peakClients(results);
+
+        assertThat(peaks).hasSize(3);
+        assertThat(peaks.get(new Sweep.Cell("multi", 4, 0, 16, true).series())).isEqualTo(2);
+        assertThat(peaks.get(new Sweep.Cell("multi", 4, 0, 16, false).series())).isEqualTo(8);
+        assertThat(peaks.get(new Sweep.Cell("multi", 8, 0, 16, true).series())).isEqualTo(2);
+    }
+
+    private static BenchmarkResult result(int workers, int clients, boolean keepAlive, double throughput) {
+        BenchmarkResult.Latency latency = new BenchmarkResult.Latency(40.5, 35, 60, 100, 400, 2_000);
+        return new BenchmarkResult("sweep", "multi", workers, clients, 1_000, 1, 16, keepAlive, null, "2025-01-01T00:00",
+                Map.of(), Map.of(), 1_000, 1_000, 0, 0, throughput, latency, List.of(), null);
+    }
+}
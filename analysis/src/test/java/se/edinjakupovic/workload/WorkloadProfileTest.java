@@ -0,0 +1,62 @@
+package se.edinjakupovic.workload;
+
+import org.junit.jupiter.api.Test;
+import se.edinjakupovic.FrameCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkloadProfileTest {
+
+    @Test
+    void shouldSampleSizesWithinTheDistribution() {
+        Random random = new Random(1);
+        SizeDistribution uniform = SizeDistribution.parse("uniform:100:200");
+        SizeDistribution logNormal = SizeDistribution.parse("lognormal:512:1.5:4096");
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(uniform.sample(random)).isBetween(100, 200);
+            assertThat(logNormal.sample(random)).isBetween(0, 4096);
+        }
+        assertThat(SizeDistribution.parse("fixed:300").sample(random)).isEqualTo(300);
+        assertThatThrownBy(() -> SizeDistribution.parse("gaussian:1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldPickTypesByWeight() {
+        Random random = new Random(1);
+        TypeMix mix = TypeMix.parse("1:90,2:10");
+        int ones = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (mix.sample(random) == 1) ones++;
+        }
+        assertThat(ones).isBetween(8_800, 9_200);
+        assertThatThrownBy(() -> TypeMix.parse("127")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void requestsShouldBeFramesMatchingTheProfile() throws Exception {
+        WorkloadProfile profile = new WorkloadProfile(SizeDistribution.parse("uniform:0:300"), TypeMix.parse("3,4"),
+                0.5, new ResponseMode.Echo(), 7);
+        ByteBuffer[] requests = profile.requests(0);
+        FrameCodec.Header header = new FrameCodec.Header();
+        int keepAlive = 0;
+        for (ByteBuffer request : requests) {
+            FrameCodec.DEFAULT.decodeHeader(request, 0, header);
+            assertThat(header.type == 3 || header.type == 4).isTrue();
+            assertThat(request.remaining()).isEqualTo(5 + header.length);
+            if (header.keepAlive) keepAlive++;
+        }
+        assertThat(keepAlive).isBetween(400, 624);
+        assertThat(profile.requests(0)[10]).isEqualTo(requests[10]);
+    }
+
+    @Test
+    void echoShouldAnswerWithTheRequestBody() {
+        ByteBuffer response = new ResponseMode.Echo().handler((byte) 3).processMessage(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+        assertThat(response).isEqualTo(FrameCodec.DEFAULT.frame(3, new byte[]{1, 2, 3}, true));
+    }
+}
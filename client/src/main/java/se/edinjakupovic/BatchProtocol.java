@@ -0,0 +1,102 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames of the reserved type 117 that carry many requests in one frame.
+ * <pre>
+ * BATCH [frame][frame]... -> [frame][frame]...
+ * </pre>
+ * Inner frames use the connection's codec, their keep alive bits and flags are ignored and their bodies are never
+ * compressed on their own. The server answers with one inner frame per request in the same order, the frame the
+ * request's handler returned as it is, or the error handler's frame, of type {@link #ERROR_TYPE}.
+ */
+public final class BatchProtocol {
+    public static final byte BATCH = 117;
+    public static final byte ERROR_TYPE = Byte.MAX_VALUE;
+
+    private BatchProtocol() {
+    }
+
+    /**
+     * One inner frame, the body is a view of the batch's buffer.
+     */
+    public record Entry(int type, ByteBuffer body) {
+    }
+
+    /**
+     * Splits a batch body into its frames, without moving the body's position.
+     *
+     * @param codec of the connection the batch came over
+     * @return null if the last frame is cut off
+     */
+    public static List<Entry> entries(ByteBuffer body, FrameCodec codec) {
+        FrameCodec.Header header = new FrameCodec.Header();
+        List<Entry> entries = new ArrayList<>();
+        int position = body.position();
+        try {
+            while (position < body.limit()) {
+                int headerSize = codec.headerLength(body, position, body.limit());
+                if (headerSize < 0) return null;
+                codec.decodeHeader(body, position, header);
+                position += headerSize;
+                if (header.length > body.limit() - position) return null;
+                entries.add(new Entry(header.type, body.slice(position, header.length)));
+                position += header.length;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return entries;
+    }
+
+    /**
+     * Collects requests for one batch frame.
+     */
+    public static final class Builder {
+        private final List<Entry> requests = new ArrayList<>();
+
+        public Builder add(int type, byte[] body) {
+            return add(type, ByteBuffer.wrap(body));
+        }
+
+        /**
+         * @param body its remaining bytes are read when the batch is built
+         */
+        public Builder add(int type, ByteBuffer body) {
+            if (type < 0 || type > FrameCodec.DEFAULT.maxType()) throw new IllegalArgumentException("Type " + type + " does not fit a byte");
+            requests.add(new Entry(type, body));
+            return this;
+        }
+
+        public int size() {
+            return requests.size();
+        }
+
+        public ByteBuffer build(boolean keepAlive) {
+            return build(FrameCodec.DEFAULT, keepAlive);
+        }
+
+        /**
+         * @param codec of the connection, used for the batch frame and the inner frames
+         */
+        public ByteBuffer build(FrameCodec codec, boolean keepAlive) {
+            int bodyLength = 0;
+            for (Entry request : requests) {
+                bodyLength += codec.headerSize(request.body().remaining()) + request.body().remaining();
+            }
+            ByteBuffer frame = ByteBuffer.allocate(codec.headerSize(bodyLength) + bodyLength);
+            int position = codec.encodeHeader(frame, 0, BATCH, keepAlive, bodyLength, (byte) 0);
+            for (Entry request : requests) {
+                ByteBuffer body = request.body();
+                position += codec.encodeHeader(frame, position, request.type(), false, body.remaining(), (byte) 0);
+                frame.put(position, body, body.position(), body.remaining());
+                position += body.remaining();
+            }
+            return frame;
+        }
+    }
+}
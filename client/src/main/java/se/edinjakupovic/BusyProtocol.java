@@ -0,0 +1,28 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame of the reserved type 116 an overloaded server answers instead of handling the request.
+ * <pre>
+ * BUSY [retry after millis 4]
+ * </pre>
+ * The request was not handled, so it is safe to send again once the hint has passed.
+ */
+public final class BusyProtocol {
+    public static final byte BUSY = 116;
+
+    private BusyProtocol() {
+    }
+
+    public static ByteBuffer frame(FrameCodec codec, int retryAfterMillis) {
+        return codec.frame(BUSY, ByteBuffer.allocate(Integer.BYTES).putInt(0, retryAfterMillis).array(), true);
+    }
+
+    /**
+     * @return the hint of a BUSY body, 0 if it has none
+     */
+    public static int retryAfterMillis(ByteBuffer body) {
+        return body.remaining() < Integer.BYTES ? 0 : Math.max(0, body.getInt(body.position()));
+    }
+}
@@ -0,0 +1,100 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Client for several servers that each own a part of the key space. Requests are routed by a caller supplied key over
+ * a {@link HashRing}, each node has its own {@link NioClient} with its own connection.
+ * <p>
+ * Nodes can be added and removed while requests are sent, a request sees the ring before or after the change.
+ * A removed node's client keeps running so requests already sent to it complete, it is stopped by {@link #stop()}
+ * or reused if the node comes back.
+ */
+public class ClusterClient {
+    private static final Logger log = Logger.getLogger("ClusterClient");
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final FrameCodec codec;
+    private final Compression compression;
+    private final Map<InetSocketAddress, NioClient> clients = new ConcurrentHashMap<>();
+    private volatile HashRing<InetSocketAddress> ring;
+
+    public ClusterClient(Collection<InetSocketAddress> nodes) throws IOException {
+        this(nodes, DEFAULT_VIRTUAL_NODES, FrameCodec.DEFAULT, null);
+    }
+
+    /**
+     * @param virtualNodes points per node on the ring, more spread the keys more evenly
+     * @param codec        header layout of the servers' responses, see {@link NioClient}
+     * @param compression  null to send and expect uncompressed bodies
+     */
+    public ClusterClient(Collection<InetSocketAddress> nodes, int virtualNodes, FrameCodec codec, Compression compression) throws IOException {
+        this.codec = codec;
+        this.compression = compression;
+        for (InetSocketAddress node : nodes) {
+            clients.put(node, newClient(node));
+        }
+        this.ring = HashRing.of(nodes, virtualNodes, ClusterClient::name);
+    }
+
+    private static String name(InetSocketAddress node) {
+        return node.getHostString() + ":" + node.getPort();
+    }
+
+    private NioClient newClient(InetSocketAddress node) throws IOException {
+        return new NioClient(node, codec, compression);
+    }
+
+    /**
+     * Routes the keys between the node's points and their predecessors to the node from now on.
+     */
+    public synchronized void addNode(InetSocketAddress node) throws IOException {
+        if (!clients.containsKey(node)) clients.put(node, newClient(node));
+        ring = ring.withNode(node);
+        log.info("Added node " + name(node) + ", " + ring.nodes().size() + " nodes");
+    }
+
+    /**
+     * Routes the node's keys to the remaining nodes from now on.
+     */
+    public synchronized void removeNode(InetSocketAddress node) {
+        ring = ring.withoutNode(node);
+        log.info("Removed node " + name(node) + ", " + ring.nodes().size() + " nodes");
+    }
+
+    /**
+     * @throws IllegalStateException if there are no nodes
+     */
+    public InetSocketAddress nodeFor(ByteBuffer key) {
+        return ring.route(key);
+    }
+
+    /**
+     * @param key bytes that pick the node, only read
+     * @see NioClient#sendRPC(ByteBuffer)
+     */
+    public CompletableFuture<Long> sendRPC(ByteBuffer key, ByteBuffer request) {
+        return clients.get(nodeFor(key)).sendRPC(request);
+    }
+
+    /**
+     * @param key bytes that pick the node, only read
+     * @see NioClient#sendRPC(ByteBuffer, ResponseCallback)
+     */
+    public boolean sendRPC(ByteBuffer key, ByteBuffer request, ResponseCallback callback) {
+        return clients.get(nodeFor(key)).sendRPC(request, callback);
+    }
+
+    public void stop() {
+        for (NioClient client : clients.values()) {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate support for frames with a flags byte, see {@link FrameCodec#flags()}.
+ * <pre>
+ * [type][length][flags][body]
+ * </pre>
+ * A body with {@link #COMPRESSED_FLAG} set is the original body length as an int
+ * followed by the deflated bytes. {@code length} is always the number of body bytes on the wire.
+ * <p>
+ * Not thread safe, create one per reactor / selector thread. Deflaters and inflaters are pooled
+ * and reset between frames instead of being created per frame.
+ */
+public final class Compression {
+    public static final int FLAGS_HEADER_SIZE = 6;
+    public static final byte COMPRESSED_FLAG = 0x01;
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 16 << 20;
+
+    private static final int ORIGINAL_LENGTH_BYTES = 4;
+
+    private final FrameCodec codec;
+    private final int threshold;
+    private final int level;
+    private final int maxInflatedSize;
+    private final FrameCodec.Header header = new FrameCodec.Header();
+    private final ArrayDeque<Deflater> deflaters = new ArrayDeque<>();
+    private final ArrayDeque<Inflater> inflaters = new ArrayDeque<>();
+
+    /**
+     * @param maxInflatedSize largest body a peer's compressed frame may inflate to, the peer's stated length is
+     *                        allocated up front so it must not be trusted beyond that
+     */
+    public Compression(FrameCodec codec, int threshold, int level, int maxInflatedSize) {
+        if (!codec.flags()) throw new IllegalArgumentException("Compression needs a codec with a flags byte");
+        this.codec = codec;
+        this.threshold = threshold;
+        this.level = level;
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    public Compression(FrameCodec codec, int threshold, int level) {
+        this(codec, threshold, level, DEFAULT_MAX_INFLATED_SIZE);
+    }
+
+    public Compression(FrameCodec codec, int threshold) {
+        this(codec, threshold, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Uses the 6 byte header, {@link FrameCodec#DEFAULT} with a flags byte.
+     */
+    public Compression(int threshold) {
+        this(FrameCodec.DEFAULT.withFlags(), threshold);
+    }
+
+    public FrameCodec codec() {
+        return codec;
+    }
+
+    public int maxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    public static boolean isCompressed(byte flags) {
+        return (flags & COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Compresses the body of a frame if it is above the threshold and deflating actually
+     * makes it smaller. Returns the frame untouched otherwise.
+     *
+     * @param reuse buffer to write the compressed frame into if it is large enough, may be null
+     */
+    public ByteBuffer compressFrame(ByteBuffer frame, ByteBuffer reuse) {
+        int start = frame.position();
+        int headerLength;
+        try {
+            headerLength = codec.headerLength(frame, start, frame.limit());
+            if (headerLength <= 0) return frame;
+            codec.decodeHeader(frame, start, header);
+        } catch (IOException e) {
+            return frame; // Not a frame, leave it to the receiver
+        }
+        int bodyLength = header.length;
+        if (bodyLength < threshold
+                || bodyLength != frame.remaining() - headerLength
+                || isCompressed(header.flags)) {
+            return frame;
+        }
+
+        // Body goes after room for the largest header, the header is written right in front of it
+        int bodyStart = codec.maxHeaderSize();
+        int capacity = bodyStart + ORIGINAL_LENGTH_BYTES + bodyLength;
+        ByteBuffer out = reuse != null && reuse.capacity() >= capacity ? reuse.clear() : ByteBuffer.allocate(capacity);
+        out.limit(capacity);
+        out.position(bodyStart + ORIGINAL_LENGTH_BYTES);
+
+        Deflater deflater = borrowDeflater();
+        try {
+            deflater.setInput(frame.slice(start + headerLength, bodyLength));
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!out.hasRemaining()) return frame; // Not worth it, send raw
+                deflater.deflate(out);
+            }
+        } finally {
+            release(deflater);
+        }
+
+        int compressedLength = out.position() - bodyStart;
+        if (compressedLength >= bodyLength) return frame;
+
+        out.putInt(bodyStart, bodyLength);
+        int headerStart = bodyStart - codec.headerSize(compressedLength);
+        codec.encodeHeader(out, headerStart, header.type, header.keepAlive, compressedLength, (byte) (header.flags | COMPRESSED_FLAG));
+        out.limit(out.position());
+        out.position(headerStart);
+        return out;
+    }
+
+    /**
+     * Inflates a compressed body.
+     *
+     * @param reuse buffer to inflate into if it is large enough, may be null
+     * @throws IOException if the body is corrupt or inflates to more than {@code maxBodySize}
+     */
+    public ByteBuffer inflate(ByteBuffer body, ByteBuffer reuse, int maxBodySize) throws IOException {
+        if (body.remaining() < ORIGINAL_LENGTH_BYTES) throw new IOException("Compressed body too short");
+        int originalLength = body.getInt(body.position());
+        if (originalLength < 0 || originalLength > maxBodySize) {
+            throw new IOException("Compressed body inflates to " + originalLength + " bytes, max is " + maxBodySize);
+        }
+
+        ByteBuffer out = reuse != null && reuse.capacity() >= originalLength ? reuse.clear() : ByteBuffer.allocate(originalLength);
+        out.limit(originalLength);
+
+        Inflater inflater = borrowInflater();
+        try {
+            inflater.setInput(body.slice(body.position() + ORIGINAL_LENGTH_BYTES, body.remaining() - ORIGINAL_LENGTH_BYTES));
+            while (out.hasRemaining()) {
+                if (inflater.inflate(out) == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+            if (out.hasRemaining() || !inflater.finished()) {
+                throw new IOException("Compressed body does not match its length " + originalLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed body", e);
+        } finally {
+            release(inflater);
+        }
+        return out.flip();
+    }
+
+    private Deflater borrowDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level);
+    }
+
+    private Inflater borrowInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+        deflaters.push(deflater);
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+        inflaters.push(inflater);
+    }
+
+    public void close() {
+        deflaters.forEach(Deflater::end);
+        inflaters.forEach(Inflater::end);
+        deflaters.clear();
+        inflaters.clear();
+    }
+}
@@ -0,0 +1,32 @@
+package se.edinjakupovic;
+
+/**
+ * Events the reactors and the client record through {@link EventLog}. A record holds two numbers and an optional
+ * detail, the format below is applied to them later on the event log's thread, {@code %1$d} and {@code %2$d} are the
+ * numbers and {@code %3$s} the detail.
+ */
+public enum Event {
+    // Server
+    CONNECTION_REGISTERED(EventLog.Level.INFO, "connection %1$d registered on reactor %2$d"),
+    CONNECTION_ADOPTED(EventLog.Level.INFO, "connection %1$d moved to reactor %2$d"),
+    CONNECTION_FAILED(EventLog.Level.DEBUG, "connection %1$d failed: %3$s"),
+    PEER_CLOSED(EventLog.Level.DEBUG, "connection %1$d closed by the peer while reading"),
+    INVALID_KEY(EventLog.Level.DEBUG, "closing the invalid key of connection %1$d"),
+    SERVER_STOPPED(EventLog.Level.DEBUG, "server stopped"),
+    // Client
+    REQUEST_CONNECTING(EventLog.Level.DEBUG, "request %1$d connecting"),
+    REQUEST_WRITING(EventLog.Level.DEBUG, "request %1$d writing"),
+    REQUEST_READING(EventLog.Level.DEBUG, "request %1$d reading"),
+    REQUEST_FAILED(EventLog.Level.DEBUG, "request %1$d failed: %3$s"),
+    REQUEST_KEY_CANCELLED(EventLog.Level.DEBUG, "request %1$d lost its key"),
+    CONNECT_FAILED(EventLog.Level.DEBUG, "request %1$d could not connect: %3$s"),
+    CLIENT_INVALID_KEY(EventLog.Level.DEBUG, "closing an invalid key");
+
+    final EventLog.Level level;
+    final String format;
+
+    Event(EventLog.Level level, String format) {
+        this.level = level;
+        this.format = format;
+    }
+}
@@ -0,0 +1,78 @@
+package se.edinjakupovic;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the reactor and client threads. A thread records an {@link Event} as a few longs in its own
+ * {@link EventRing}, the daemon "event-log" thread formats and writes them later, so the recording thread never builds
+ * a string or does I/O.
+ * <p>
+ * The level comes from the {@code tlv.events} system property, {@code off}, {@code info} (default) or {@code debug}.
+ * Call sites check {@link #INFO} or {@link #DEBUG} first, both are constants so a disabled level compiles away.
+ */
+public final class EventLog {
+    public enum Level {OFF, INFO, DEBUG}
+
+    public static final Level LEVEL = Level.valueOf(System.getProperty("tlv.events", "info").toUpperCase(Locale.ROOT));
+    public static final boolean INFO = LEVEL.compareTo(Level.INFO) >= 0;
+    public static final boolean DEBUG = LEVEL == Level.DEBUG;
+
+    private static final Logger log = Logger.getLogger("events");
+    private static final int RING_CAPACITY = 4096;
+    private static final long IDLE_PARK_NANOS = 10_000_000;
+    // Maps System.nanoTime of a record to wall clock time
+    private static final long EPOCH_NANOS = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+
+    private static final List<EventRing> rings = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<EventRing> ring = ThreadLocal.withInitial(EventLog::register);
+    private static Thread writer;
+
+    private EventLog() {
+    }
+
+    /**
+     * The calling thread's ring, threads on a hot path look it up once and keep it.
+     */
+    public static EventRing ring() {
+        return ring.get();
+    }
+
+    private static EventRing register() {
+        EventRing created = new EventRing(Thread.currentThread(), RING_CAPACITY);
+        rings.add(created);
+        synchronized (EventLog.class) {
+            if (writer == null) {
+                writer = new Thread(EventLog::runWriter, "event-log");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+        return created;
+    }
+
+    private static void runWriter() {
+        EventRing.Sink sink = EventLog::write;
+        while (true) {
+            int drained = 0;
+            for (EventRing r : rings) {
+                drained += r.drain(sink);
+                long dropped = r.unreportedDrops();
+                if (dropped > 0) log.warning(r.owner.getName() + " dropped " + dropped + " events, its ring was full");
+                // Drained after the owner died, nothing more can arrive
+                if (!r.owner.isAlive() && r.drain(sink) == 0) rings.remove(r);
+            }
+            if (drained == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private static void write(Thread owner, long nanos, Event event, long a, long b, Object detail) {
+        if (event.level.compareTo(LEVEL) > 0) return;
+        Instant at = Instant.ofEpochSecond(0, EPOCH_NANOS + nanos);
+        log.info(at + " " + owner.getName() + " " + String.format(event.format, a, b, detail));
+    }
+}
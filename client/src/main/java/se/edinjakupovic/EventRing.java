@@ -0,0 +1,104 @@
+package se.edinjakupovic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer, single consumer ring of fixed size event records. The owning thread appends, the event log's
+ * thread drains. A full ring drops the event and counts it, the owner never waits.
+ */
+public final class EventRing {
+    // Time, event, first and second number
+    private static final int RECORD_LONGS = 4;
+    private static final Event[] EVENTS = Event.values();
+
+    final Thread owner;
+    private final long[] records;
+    // Usually empty, set for events that carry an exception or similar
+    private final Object[] details;
+    private final int mask;
+    // Next slot to write, published with release semantics once the record is complete
+    private final AtomicLong tail = new AtomicLong();
+    // Next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Owner's last view of head, saves reading it on every record
+    private long cachedHead;
+    private volatile long dropped;
+    // Drops already logged, only touched by the consumer
+    private long reportedDrops;
+
+    public interface Sink {
+        void accept(Thread owner, long nanos, Event event, long a, long b, Object detail);
+    }
+
+    /**
+     * @param capacity records, a power of two
+     */
+    EventRing(Thread owner, int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two, got " + capacity);
+        this.owner = owner;
+        this.records = new long[capacity * RECORD_LONGS];
+        this.details = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public void record(Event event, long a, long b) {
+        record(event, a, b, null);
+    }
+
+    /**
+     * Only called by the owning thread.
+     *
+     * @param detail formatted with {@code toString} on the event log's thread, so it must not change afterward
+     */
+    public void record(Event event, long a, long b, Object detail) {
+        long next = tail.getPlain();
+        if (next - cachedHead > mask) {
+            cachedHead = head.getAcquire();
+            if (next - cachedHead > mask) {
+                dropped++;
+                return;
+            }
+        }
+        int slot = (int) (next & mask);
+        int base = slot * RECORD_LONGS;
+        records[base] = System.nanoTime();
+        records[base + 1] = event.ordinal();
+        records[base + 2] = a;
+        records[base + 3] = b;
+        details[slot] = detail;
+        tail.setRelease(next + 1);
+    }
+
+    /**
+     * Hands every published record to {@code sink}, only called by the consumer.
+     *
+     * @return records drained
+     */
+    int drain(Sink sink) {
+        long from = head.getPlain();
+        long to = tail.getAcquire();
+        for (long i = from; i < to; i++) {
+            int slot = (int) (i & mask);
+            int base = slot * RECORD_LONGS;
+            Object detail = details[slot];
+            details[slot] = null;
+            sink.accept(owner, records[base], EVENTS[(int) records[base + 1]], records[base + 2], records[base + 3], detail);
+        }
+        head.setRelease(to);
+        return (int) (to - from);
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Drops since the last call, only called by the consumer.
+     */
+    long unreportedDrops() {
+        long total = dropped;
+        long unreported = total - reportedDrops;
+        reportedDrops = total;
+        return unreported;
+    }
+}
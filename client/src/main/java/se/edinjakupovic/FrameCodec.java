@@ -0,0 +1,210 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Header layout shared by server and client.
+ * <pre>
+ * [type 1-2 bytes][length 1, 2, 4 bytes or varint][flags 0-1 byte][body]
+ * </pre>
+ * The highest bit of the first type byte is the keep alive bit. A varint length is the usual
+ * little endian base 128 encoding, so bodies under 128 bytes get a 2 byte header.
+ * <p>
+ * Decoding reads the buffer with absolute gets into a reused {@link Header} and never allocates.
+ */
+public record FrameCodec(
+        int typeBytes,
+        LengthEncoding lengthEncoding,
+        boolean flags
+) {
+    /**
+     * The original 5 byte header, 1 byte type and 4 byte length.
+     */
+    public static final FrameCodec DEFAULT = new FrameCodec(1, LengthEncoding.FIXED_4, false);
+    public static final FrameCodec VARINT = new FrameCodec(1, LengthEncoding.VARINT, false);
+
+    private static final int KEEP_ALIVE_BIT = 0x80;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    public enum LengthEncoding {
+        FIXED_1(1, 0xFF),
+        FIXED_2(2, 0xFFFF),
+        FIXED_4(4, Integer.MAX_VALUE),
+        VARINT(MAX_VARINT_BYTES, Integer.MAX_VALUE);
+
+        final int maxBytes;
+        final int maxLength;
+
+        LengthEncoding(int maxBytes, int maxLength) {
+            this.maxBytes = maxBytes;
+            this.maxLength = maxLength;
+        }
+    }
+
+    /**
+     * Decoded header, reuse one per connection.
+     */
+    public static final class Header {
+        public int type;
+        public boolean keepAlive;
+        public int length;
+        public byte flags;
+    }
+
+    public FrameCodec {
+        if (typeBytes != 1 && typeBytes != 2) {
+            throw new IllegalArgumentException("Type is 1 or 2 bytes, got " + typeBytes);
+        }
+    }
+
+    public FrameCodec withFlags() {
+        return new FrameCodec(typeBytes, lengthEncoding, true);
+    }
+
+    public int maxType() {
+        return typeBytes == 1 ? 0x7F : 0x7FFF;
+    }
+
+    public int maxBodyLength() {
+        return lengthEncoding.maxLength;
+    }
+
+    public int minHeaderSize() {
+        return typeBytes + (lengthEncoding == LengthEncoding.VARINT ? 1 : lengthEncoding.maxBytes) + (flags ? 1 : 0);
+    }
+
+    public int maxHeaderSize() {
+        return typeBytes + lengthEncoding.maxBytes + (flags ? 1 : 0);
+    }
+
+    public int headerSize(int bodyLength) {
+        return typeBytes + lengthBytes(bodyLength) + (flags ? 1 : 0);
+    }
+
+    private int lengthBytes(int bodyLength) {
+        if (lengthEncoding != LengthEncoding.VARINT) return lengthEncoding.maxBytes;
+        int bytes = 1;
+        while ((bodyLength >>>= 7) != 0) bytes++;
+        return bytes;
+    }
+
+    /**
+     * Checks how much of the header in {@code buffer[offset, end)} is there.
+     *
+     * @return the header size if it is complete, otherwise minus the number of bytes that are at least missing
+     * @throws IOException if the length is not a valid varint
+     */
+    public int headerLength(ByteBuffer buffer, int offset, int end) throws IOException {
+        int available = end - offset;
+        if (lengthEncoding != LengthEncoding.VARINT) {
+            int size = minHeaderSize();
+            return available >= size ? size : available - size;
+        }
+        int lengthStart = offset + typeBytes;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            if (lengthStart + i >= end) return -(typeBytes + i + 1 + (flags ? 1 : 0) - available);
+            if ((buffer.get(lengthStart + i) & 0x80) == 0) {
+                int size = typeBytes + i + 1 + (flags ? 1 : 0);
+                return available >= size ? size : available - size;
+            }
+        }
+        throw new IOException("Varint length longer than " + MAX_VARINT_BYTES + " bytes");
+    }
+
+    /**
+     * Decodes a complete header, see {@link #headerLength}.
+     */
+    public void decodeHeader(ByteBuffer buffer, int offset, Header out) throws IOException {
+        int first = buffer.get(offset) & 0xFF;
+        out.keepAlive = (first & KEEP_ALIVE_BIT) != 0;
+        out.type = typeBytes == 1
+                ? first & 0x7F
+                : ((first & 0x7F) << 8) | (buffer.get(offset + 1) & 0xFF);
+
+        int position = offset + typeBytes;
+        long length;
+        switch (lengthEncoding) {
+            case FIXED_1 -> length = buffer.get(position++) & 0xFF;
+            case FIXED_2 -> {
+                length = buffer.getShort(position) & 0xFFFF;
+                position += 2;
+            }
+            case FIXED_4 -> {
+                length = buffer.getInt(position);
+                position += 4;
+            }
+            default -> {
+                length = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(position++);
+                    length |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+            }
+        }
+        if (length < 0 || length > Integer.MAX_VALUE) throw new IOException("Invalid body length " + length);
+        out.length = (int) length;
+        out.flags = flags ? buffer.get(position) : 0;
+    }
+
+    /**
+     * Writes a header at {@code offset} without moving the buffer's position.
+     *
+     * @return the header size
+     */
+    public int encodeHeader(ByteBuffer buffer, int offset, int type, boolean keepAlive, int bodyLength, byte flagsValue) {
+        if (type < 0 || type > maxType()) throw new IllegalArgumentException("Type " + type + " does not fit " + typeBytes + " byte(s)");
+        if (bodyLength < 0 || bodyLength > maxBodyLength()) throw new IllegalArgumentException("Body length " + bodyLength + " does not fit " + lengthEncoding);
+
+        int position = offset;
+        int keepAliveBit = keepAlive ? KEEP_ALIVE_BIT : 0;
+        if (typeBytes == 1) {
+            buffer.put(position++, (byte) (type | keepAliveBit));
+        } else {
+            buffer.put(position++, (byte) ((type >>> 8) | keepAliveBit));
+            buffer.put(position++, (byte) type);
+        }
+        switch (lengthEncoding) {
+            case FIXED_1 -> buffer.put(position++, (byte) bodyLength);
+            case FIXED_2 -> {
+                buffer.putShort(position, (short) bodyLength);
+                position += 2;
+            }
+            case FIXED_4 -> {
+                buffer.putInt(position, bodyLength);
+                position += 4;
+            }
+            default -> {
+                int value = bodyLength;
+                while ((value & ~0x7F) != 0) {
+                    buffer.put(position++, (byte) ((value & 0x7F) | 0x80));
+                    value >>>= 7;
+                }
+                buffer.put(position++, (byte) value);
+            }
+        }
+        if (flags) buffer.put(position++, flagsValue);
+        return position - offset;
+    }
+
+    /**
+     * Sets the keep alive bit of the header at {@code offset} in place.
+     */
+    public static void setKeepAlive(ByteBuffer buffer, int offset) {
+        buffer.put(offset, (byte) (buffer.get(offset) | KEEP_ALIVE_BIT));
+    }
+
+    /**
+     * Allocates a complete frame, flipped and ready to write.
+     */
+    public ByteBuffer frame(int type, byte[] body, boolean keepAlive) {
+        int headerSize = headerSize(body.length);
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + body.length);
+        encodeHeader(buffer, 0, type, keepAlive, body.length, (byte) 0);
+        buffer.put(headerSize, body);
+        return buffer;
+    }
+}
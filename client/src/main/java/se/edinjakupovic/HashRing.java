@@ -0,0 +1,113 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Immutable consistent hash ring. Every node is placed at {@code virtualNodes} points derived from its name, a key
+ * belongs to the node of the first point at or after the key's hash. Adding or removing a node only moves the keys
+ * between its points and their predecessors, about {@code 1 / nodes} of them.
+ * <p>
+ * Lookups are a binary search over a sorted array, changes return a new ring, so a ring can be shared between threads.
+ */
+public final class HashRing<N> {
+    private final Set<N> nodes;
+    private final int virtualNodes;
+    private final Function<N, String> name;
+    private final long[] points;
+    private final Object[] owners;
+
+    private record Point(long hash, String name, Object node) {
+    }
+
+    private HashRing(Set<N> nodes, int virtualNodes, Function<N, String> name) {
+        this.nodes = nodes;
+        this.virtualNodes = virtualNodes;
+        this.name = name;
+        List<Point> all = new ArrayList<>(nodes.size() * virtualNodes);
+        for (N node : nodes) {
+            String nodeName = name.apply(node);
+            for (int i = 0; i < virtualNodes; i++) {
+                byte[] point = (nodeName + "#" + i).getBytes(StandardCharsets.UTF_8);
+                all.add(new Point(hash(ByteBuffer.wrap(point)), nodeName, node));
+            }
+        }
+        // Ties are broken by name so every client builds the same ring from the same nodes
+        all.sort(Comparator.comparingLong(Point::hash).thenComparing(Point::name));
+        points = new long[all.size()];
+        owners = new Object[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            points[i] = all.get(i).hash();
+            owners[i] = all.get(i).node();
+        }
+    }
+
+    /**
+     * @param name identifies a node, clients that name nodes alike route keys alike
+     */
+    public static <N> HashRing<N> of(Iterable<N> nodes, int virtualNodes, Function<N, String> name) {
+        if (virtualNodes <= 0) throw new IllegalArgumentException("Virtual nodes must be positive, got " + virtualNodes);
+        Set<N> set = new LinkedHashSet<>();
+        for (N node : nodes) set.add(node);
+        return new HashRing<>(set, virtualNodes, name);
+    }
+
+    public HashRing<N> withNode(N node) {
+        if (nodes.contains(node)) return this;
+        Set<N> set = new LinkedHashSet<>(nodes);
+        set.add(node);
+        return new HashRing<>(set, virtualNodes, name);
+    }
+
+    public HashRing<N> withoutNode(N node) {
+        if (!nodes.contains(node)) return this;
+        Set<N> set = new LinkedHashSet<>(nodes);
+        set.remove(node);
+        return new HashRing<>(set, virtualNodes, name);
+    }
+
+    public Set<N> nodes() {
+        return nodes;
+    }
+
+    /**
+     * Node owning the remaining bytes of {@code key}, without moving its position.
+     *
+     * @throws IllegalStateException if the ring has no nodes
+     */
+    @SuppressWarnings("unchecked")
+    public N route(ByteBuffer key) {
+        if (points.length == 0) throw new IllegalStateException("Hash ring has no nodes");
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) index = -index - 1;
+        return (N) owners[index == points.length ? 0 : index];
+    }
+
+    public N route(byte[] key) {
+        return route(ByteBuffer.wrap(key));
+    }
+
+    /**
+     * 64 bit FNV-1a of the remaining bytes with the murmur3 finalizer, FNV alone spreads short similar keys poorly.
+     */
+    static long hash(ByteBuffer key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = key.position(); i < key.limit(); i++) {
+            hash ^= key.get(i) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
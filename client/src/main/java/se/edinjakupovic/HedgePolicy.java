@@ -0,0 +1,55 @@
+package se.edinjakupovic;
+
+import java.util.Set;
+
+/**
+ * Opt-in hedging and adaptive timeouts for {@link NioClient}. A request of an idempotent type that has not completed
+ * by the observed p95 latency is sent once more on a new connection, the first response wins and the other connection
+ * is closed. Every hedgeable request adds {@code budgetRatio} to a hedge budget and every hedge takes one from it, so
+ * a server that is slow as a whole gets at most that share of extra requests instead of twice the load.
+ * <p>
+ * With a policy every request also fails on its own once it runs past its timeout, {@code timeoutMultiplier} times
+ * the observed p99 or at least the minimum hedge delay, never later than {@code maxTimeoutNanos}.
+ *
+ * @param types              idempotent request types, only these are hedged
+ * @param budgetRatio        hedges per hedgeable request, 0.05 sends at most 5% of them twice
+ * @param minHedgeDelayNanos never hedge sooner, keeps a fast p95 from hedging on scheduling noise
+ * @param timeoutMultiplier  timeout as a multiple of the observed p99
+ * @param maxTimeoutNanos    timeout cap, also the timeout until enough latencies were observed
+ */
+public record HedgePolicy(
+        Set<Integer> types,
+        double budgetRatio,
+        long minHedgeDelayNanos,
+        double timeoutMultiplier,
+        long maxTimeoutNanos
+) {
+    // Latencies to observe before the percentiles are trusted
+    static final int MIN_SAMPLES = 32;
+    // Hedges that may be saved up for a burst of slow requests
+    static final double MAX_BUDGET = 10;
+
+    public HedgePolicy {
+        if (budgetRatio < 0 || budgetRatio > 1) {
+            throw new IllegalArgumentException("Hedge budget ratio must be between 0 and 1, got " + budgetRatio);
+        }
+        if (minHedgeDelayNanos < 0 || timeoutMultiplier < 1 || maxTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("Invalid hedge delays " + minHedgeDelayNanos + ", " + timeoutMultiplier + ", " + maxTimeoutNanos);
+        }
+        types = Set.copyOf(types);
+    }
+
+    long timeoutNanos(LatencyEstimator latency) {
+        if (latency.count() < MIN_SAMPLES) return maxTimeoutNanos;
+        long adaptive = (long) (Math.max(latency.percentile(0.99), minHedgeDelayNanos) * timeoutMultiplier);
+        return Math.min(adaptive, maxTimeoutNanos);
+    }
+
+    /**
+     * @return -1 while too few latencies were observed to hedge
+     */
+    long hedgeDelayNanos(LatencyEstimator latency) {
+        if (latency.count() < MIN_SAMPLES) return -1;
+        return Math.max(latency.percentile(0.95), minHedgeDelayNanos);
+    }
+}
@@ -0,0 +1,38 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of the server's built-in durable log on the reserved types 122 and 123.
+ * <pre>
+ * APPEND [record]    -> [status][offset 8]
+ * READ   [offset 8]  -> [status][record]
+ * </pre>
+ * Offsets number the records from 0. An APPEND is answered once the record is on disk,
+ * a READ only finds records that are.
+ */
+public final class JournalProtocol {
+    public static final byte APPEND = 122;
+    public static final byte READ = 123;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    // The record does not fit into a segment
+    public static final byte TOO_LARGE = 2;
+    public static final byte MALFORMED = 3;
+
+    private JournalProtocol() {
+    }
+
+    public static boolean isJournalType(int type) {
+        return type == APPEND || type == READ;
+    }
+
+    public static ByteBuffer append(byte[] record, boolean keepAlive) {
+        return FrameCodec.DEFAULT.frame(APPEND, record, keepAlive);
+    }
+
+    public static ByteBuffer read(long offset, boolean keepAlive) {
+        return FrameCodec.DEFAULT.frame(READ, ByteBuffer.allocate(Long.BYTES).putLong(0, offset).array(), keepAlive);
+    }
+}
@@ -0,0 +1,73 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of the server's built-in key-value service on the reserved types 124 to 126.
+ * <pre>
+ * GET    [key]                     -> [status][value]
+ * PUT    [key length 2][key][value] -> [status]
+ * DELETE [key]                     -> [status]
+ * </pre>
+ * Responses carry the request's type, a GET miss answers {@link #NOT_FOUND} without a value.
+ */
+public final class KvProtocol {
+    public static final byte GET = 124;
+    public static final byte PUT = 125;
+    public static final byte DELETE = 126;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    // The owning shard is out of memory
+    public static final byte FULL = 2;
+    public static final byte MALFORMED = 3;
+
+    public static final int MAX_KEY_LENGTH = 0xffff;
+
+    private KvProtocol() {
+    }
+
+    public static boolean isKvType(int type) {
+        return type >= GET && type <= DELETE;
+    }
+
+    public static ByteBuffer get(byte[] key, boolean keepAlive) {
+        return FrameCodec.DEFAULT.frame(GET, key, keepAlive);
+    }
+
+    public static ByteBuffer put(byte[] key, byte[] value, boolean keepAlive) {
+        if (key.length > MAX_KEY_LENGTH) throw new IllegalArgumentException("Key of " + key.length + " bytes is too long");
+        byte[] body = new byte[2 + key.length + value.length];
+        body[0] = (byte) (key.length >>> 8);
+        body[1] = (byte) key.length;
+        System.arraycopy(key, 0, body, 2, key.length);
+        System.arraycopy(value, 0, body, 2 + key.length, value.length);
+        return FrameCodec.DEFAULT.frame(PUT, body, keepAlive);
+    }
+
+    public static ByteBuffer delete(byte[] key, boolean keepAlive) {
+        return FrameCodec.DEFAULT.frame(DELETE, key, keepAlive);
+    }
+
+    /**
+     * Key of a request body as a view, without moving the body's position.
+     *
+     * @return null if a PUT body is too short for its key length
+     */
+    public static ByteBuffer key(int type, ByteBuffer body) {
+        if (type != PUT) return body.slice();
+        if (body.remaining() < 2) return null;
+        int keyLength = Short.toUnsignedInt(body.getShort(body.position()));
+        if (body.remaining() < 2 + keyLength) return null;
+        return body.slice(body.position() + 2, keyLength);
+    }
+
+    /**
+     * Value of a PUT body as a view, see {@link #key(int, ByteBuffer)}.
+     */
+    public static ByteBuffer value(ByteBuffer body) {
+        int keyLength = Short.toUnsignedInt(body.getShort(body.position()));
+        int at = body.position() + 2 + keyLength;
+        return body.slice(at, body.limit() - at);
+    }
+}
@@ -0,0 +1,81 @@
+package se.edinjakupovic;
+
+import java.util.Arrays;
+
+/**
+ * Recent latency percentiles from a log scale histogram, four buckets per power of two so a percentile is off by at
+ * most a quarter. Counts are halved every {@code window} samples, so old samples fade and the estimate follows the
+ * server when it slows down or recovers.
+ * <p>
+ * Not thread safe, {@link NioClient} only uses it from its selector thread.
+ */
+public final class LatencyEstimator {
+    private static final int BUCKETS = 252;
+
+    private final long[] counts = new long[BUCKETS];
+    private final int window;
+    private long total;
+    private int sinceDecay;
+
+    /**
+     * @param window samples between halving all counts
+     */
+    public LatencyEstimator(int window) {
+        if (window <= 0) throw new IllegalArgumentException("Window must be positive, got " + window);
+        this.window = window;
+    }
+
+    public void record(long nanos) {
+        counts[bucket(nanos)]++;
+        total++;
+        if (++sinceDecay == window) {
+            sinceDecay = 0;
+            total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] >>= 1;
+                total += counts[i];
+            }
+        }
+    }
+
+    /**
+     * Samples the percentiles are currently based on.
+     */
+    public long count() {
+        return total;
+    }
+
+    /**
+     * @param quantile between 0 and 1, 0.95 for p95
+     * @return upper bound of the bucket holding the quantile, 0 before any sample
+     */
+    public long percentile(double quantile) {
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sinceDecay = 0;
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < 4) return (int) Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return exponent * 4 + (int) ((nanos >>> (exponent - 2)) & 3) - 4;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 4) return bucket;
+        int exponent = (bucket + 4) / 4;
+        int sub = (bucket + 4) % 4;
+        return ((4L + sub + 1) << (exponent - 2)) - 1;
+    }
+}
@@ -8,11 +8,14 @@ import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import static se.edinjakupovic.NioClientContext.Status.*;
@@ -22,15 +25,81 @@ public class NioClient {
     private final InetSocketAddress address;
     private final Selector selector;
     private final Thread selectorThread;
+    // Only used from the selector thread, null when frames have no flags byte
+    private final Compression compression;
+    private final FrameCodec codec;
     // For keep-alive
     private SocketChannel sharedChannel;
     private SelectionKey sharedKey;
     // requests queue to avoid synchronization on selector
     private final BlockingQueue<NioClientContext> queue = new ArrayBlockingQueue<>(1024);
+    // Finished contexts waiting to be reused by sendRPC, array backed so recycling does not allocate
+    private final BlockingQueue<NioClientContext> contextPool = new ArrayBlockingQueue<>(1024);
+    // Cached since a capturing lambda passed to selectNow would be allocated on every loop
+    private final Consumer<SelectionKey> keyHandler = this::handleKey;
+    private final ByteBuffer idleReadBuffer = ByteBuffer.allocate(1);
+    // Selector thread's event ring, null when events are off
+    private EventRing events;
     public final ClientState state = new ClientState();
+    // Null without hedging, the rest is only used from the selector thread
+    private final HedgePolicy hedging;
+    private final boolean[] hedgeable;
+    private final LatencyEstimator latency = new LatencyEstimator(1024);
+    // Requests sent and not yet answered, without their hedges
+    private final List<NioClientContext> inFlight = new ArrayList<>();
+    private final FrameCodec.Header requestHeader = new FrameCodec.Header();
+    private double hedgeBudget;
+    // Null without write coalescing, the pipeline is only used from the selector thread and opened on first use
+    private final WriteCoalescing coalescing;
+    private Pipeline pipeline;
+    // Set by a BUSY response, queued requests wait until then
+    private boolean backingOff;
+    private long backOffUntil;
 
     public NioClient(InetSocketAddress address) throws IOException {
+        this(address, FrameCodec.DEFAULT, null);
+    }
+
+    /**
+     * @param compression enables compression using its codec, requests must then be built with a flags byte
+     */
+    public NioClient(InetSocketAddress address, Compression compression) throws IOException {
+        this(address, compression.codec(), compression);
+    }
+
+    /**
+     * @param codec       header layout of the server's responses, requests are sent as given
+     * @param compression null to send and expect uncompressed bodies
+     */
+    public NioClient(InetSocketAddress address, FrameCodec codec, Compression compression) throws IOException {
+        this(address, codec, compression, null);
+    }
+
+    /**
+     * @param hedging null to send every request once and wait for it as long as it takes
+     */
+    public NioClient(InetSocketAddress address, FrameCodec codec, Compression compression, HedgePolicy hedging) throws IOException {
+        this(address, codec, compression, hedging, null);
+    }
+
+    /**
+     * @param coalescing null to write every request as soon as its connection is writable
+     */
+    public NioClient(InetSocketAddress address, FrameCodec codec, Compression compression, HedgePolicy hedging,
+                     WriteCoalescing coalescing) throws IOException {
+        if (hedging != null && coalescing != null) {
+            // A hedge's loser is cancelled by closing its connection, which would take the pipeline with it
+            throw new IllegalArgumentException("Hedging and write coalescing can not be combined");
+        }
         this.address = address;
+        this.codec = codec;
+        this.compression = compression;
+        this.hedging = hedging;
+        this.coalescing = coalescing;
+        this.hedgeable = new boolean[codec.maxType() + 1];
+        if (hedging != null) {
+            for (int type : hedging.types()) hedgeable[type] = true;
+        }
         this.selector = Selector.open();
         this.selectorThread = new Thread(this::runSelectorLoop, "NIO-Client-Thread");
         selectorThread.start();
@@ -43,17 +112,196 @@ public class NioClient {
     AtomicInteger count = new AtomicInteger(0);
 
     public CompletableFuture<Long> sendRPC(ByteBuffer request) {
-        boolean keepAlive = (request.get(0) & 0x80) != 0;
         CompletableFuture<Long> response = new CompletableFuture<>();
-        return queue.add(new NioClientContext(request, response, keepAlive, count.incrementAndGet()))
-                ? response
-                : null;
+        return enqueue(request, response, null) ? response : null;
+    }
+
+    /**
+     * Allocation free variant of {@link #sendRPC(ByteBuffer)} once the context pool has warmed up. The request's
+     * remaining bytes are copied, so the caller may reuse its buffer as soon as this returns.
+     *
+     * @return false if too many requests are queued, the callback is then never called
+     */
+    public boolean sendRPC(ByteBuffer request, ResponseCallback callback) {
+        return enqueue(request, null, callback);
+    }
+
+    /**
+     * Sends the batch's requests in one frame, see {@link BatchProtocol}. The responses come in the order the requests
+     * were added, their bodies are views of one copy of the response.
+     *
+     * @return null if too many requests are queued
+     */
+    public CompletableFuture<List<BatchProtocol.Entry>> sendBatch(BatchProtocol.Builder batch, boolean keepAlive) {
+        CompletableFuture<List<BatchProtocol.Entry>> responses = new CompletableFuture<>();
+        ResponseCallback callback = new ResponseCallback() {
+            @Override
+            public void onResponse(int type, ByteBuffer body, long elapsedNanos) {
+                List<BatchProtocol.Entry> entries = type == BatchProtocol.BATCH
+                        ? BatchProtocol.entries(ByteBuffer.allocate(body.remaining()).put(body).flip(), codec)
+                        : null;
+                if (entries == null) {
+                    responses.completeExceptionally(new RuntimeException("Batch answered with a type " + type + " frame"));
+                } else {
+                    responses.complete(entries);
+                }
+            }
+
+            @Override
+            public void onError(String reason) {
+                responses.completeExceptionally(new RuntimeException(reason));
+            }
+        };
+        return enqueue(batch.build(codec, keepAlive), null, callback) ? responses : null;
+    }
+
+    private boolean enqueue(ByteBuffer request, CompletableFuture<Long> response, ResponseCallback callback) {
+        NioClientContext context = contextPool.poll();
+        if (context == null) context = new NioClientContext(codec);
+        context.prepare(request, response, callback, count.incrementAndGet());
+        if (queue.offer(context)) return true;
+        recycle(context);
+        return false;
+    }
+
+    private void recycle(NioClientContext context) {
+        context.release();
+        contextPool.offer(context);
+    }
+
+    private void complete(NioClientContext context) {
+        if (context.tlvType == BusyProtocol.BUSY) {
+            backOff(context);
+            return;
+        }
+        if (hedging != null) settle(context);
+        context.onSuccess();
+        recycle(context);
+    }
+
+    private void fail(NioClientContext context, String reason) {
+        NioClientContext twin = context.twin;
+        if (twin != null) {
+            // The other copy may still answer, it takes over the request
+            twin.twin = null;
+            if (!context.hedge) {
+                inFlight.set(inFlight.indexOf(context), twin);
+                twin.hedge = false;
+            }
+            recycle(context);
+            return;
+        }
+        if (hedging != null) inFlight.remove(context);
+        context.onError(reason);
+        recycle(context);
+    }
+
+    /**
+     * Fails a request the server was too busy to handle and holds back the queued ones for the server's hint.
+     */
+    private void backOff(NioClientContext context) {
+        int retryAfterMillis = BusyProtocol.retryAfterMillis(context.responseBody());
+        long until = System.nanoTime() + retryAfterMillis * 1_000_000L;
+        if (!backingOff || until - backOffUntil > 0) backOffUntil = until;
+        backingOff = true;
+        state.busy++;
+        fail(context, "Server busy, retry after " + retryAfterMillis + " ms");
+    }
+
+    /**
+     * The winner of a hedged request cancels the other copy by closing its connection, the server has no way to
+     * cancel a request.
+     */
+    private void settle(NioClientContext winner) {
+        NioClientContext twin = winner.twin;
+        NioClientContext primary = winner.hedge ? twin : winner;
+        latency.record(System.nanoTime() - winner.start);
+        inFlight.remove(primary);
+        if (twin == null) return;
+        if (winner.hedge) state.hedgeWins++;
+        twin.twin = null;
+        winner.twin = null;
+        closeChannel(twin.key);
+        recycle(twin);
+    }
+
+    /**
+     * Sets the request's hedge time and timeout from the latencies observed so far.
+     */
+    private void track(NioClientContext context) throws IOException {
+        codec.decodeHeader(context.request, 0, requestHeader);
+        long delay = -1;
+        if (hedgeable[requestHeader.type]) {
+            hedgeBudget = Math.min(HedgePolicy.MAX_BUDGET, hedgeBudget + hedging.budgetRatio());
+            delay = hedging.hedgeDelayNanos(latency);
+        }
+        context.hedgePending = delay >= 0;
+        context.hedgeAt = context.start + delay;
+        context.deadline = context.start + hedging.timeoutNanos(latency);
+        inFlight.add(context);
+    }
+
+    private void checkDeadlines() {
+        long now = System.nanoTime();
+        for (int i = inFlight.size() - 1; i >= 0; i--) {
+            NioClientContext context = inFlight.get(i);
+            if (now - context.deadline >= 0) {
+                timeout(context);
+            } else if (context.hedgePending && now - context.hedgeAt >= 0) {
+                context.hedgePending = false;
+                hedge(context);
+            }
+        }
+    }
+
+    private void hedge(NioClientContext primary) {
+        if (hedgeBudget < 1) {
+            state.hedgesDenied++;
+            return;
+        }
+        hedgeBudget -= 1;
+        NioClientContext hedge = contextPool.poll();
+        if (hedge == null) hedge = new NioClientContext(codec);
+        hedge.prepareHedge(primary);
+        try {
+            openChannel(hedge);
+            state.hedges++;
+        } catch (IOException e) {
+            log.warning("Could not open a connection for a hedge " + e);
+            primary.twin = null;
+            recycle(hedge);
+        }
+    }
+
+    private void timeout(NioClientContext context) {
+        inFlight.remove(context);
+        NioClientContext twin = context.twin;
+        if (twin != null) {
+            context.twin = null;
+            closeChannel(twin.key);
+            recycle(twin);
+        }
+        closeChannel(context.key);
+        state.timeouts++;
+        context.onError("Timed out after " + context.elapsed() + " ms");
+        recycle(context);
     }
 
     private void registerRPCRequests() throws IOException {
+        if (backingOff) {
+            if (System.nanoTime() - backOffUntil < 0) return;
+            backingOff = false;
+        }
         NioClientContext request = queue.poll();
         while (request != null) {
             state.requestsRegistered++;
+            if (hedging != null) track(request);
+            if (compression != null) request.compressRequest(compression);
+            if (coalescing != null && request.keepAlive) {
+                coalesce(request);
+                request = queue.poll();
+                continue;
+            }
             boolean shouldReuseChannel = request.keepAlive
                     && sharedChannel != null
                     && sharedKey != null
@@ -61,21 +309,13 @@ public class NioClient {
                     && sharedKey.isValid();
 
             if (shouldReuseChannel) {
-                //print("Reusing channel on request " + request.id + " channels opened" + state.channelsOpened);
                 sharedKey = sharedChannel.register(selector, SelectionKey.OP_WRITE, request);
+                request.key = sharedKey;
                 state.channelsReused++;
             } else {
-                state.channelsOpened++;
-                //print("Opening new channel " + request.id + " channels opened " + state.channelsOpened);
-                SocketChannel channel = SocketChannel.open();
-                channel.configureBlocking(false);
-
-                SelectionKey key = channel.connect(address)
-                        ? channel.register(selector, SelectionKey.OP_WRITE, request)
-                        : channel.register(selector, SelectionKey.OP_CONNECT, request);
-
+                SelectionKey key = openChannel(request);
                 if (request.keepAlive) {
-                    sharedChannel = channel;
+                    sharedChannel = (SocketChannel) key.channel();
                     sharedKey = key;
                 }
             }
@@ -83,38 +323,127 @@ public class NioClient {
         }
     }
 
+    private void coalesce(NioClientContext request) {
+        if (pipeline != null) {
+            state.channelsReused++;
+            pipeline.add(request);
+            return;
+        }
+        try {
+            state.channelsOpened++;
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(address);
+            SelectionKey key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+            pipeline = new Pipeline(key, coalescing);
+            key.attach(pipeline);
+            if (connected) {
+                pipeline.connected = true;
+                state.channelConnected++;
+            }
+            pipeline.add(request);
+        } catch (IOException e) {
+            state.channelConnectionErrors++;
+            fail(request, "Could not connect " + e.getMessage());
+        }
+    }
+
+    private void flushPipeline(Pipeline pipeline) {
+        try {
+            state.coalescedRequests += pipeline.flush();
+            state.coalescedWrites++;
+        } catch (IOException e) {
+            failPipeline(pipeline, "Write failed " + e.getMessage());
+        }
+    }
+
+    private void handlePipeline(SelectionKey key, Pipeline pipeline) {
+        try {
+            if (key.isConnectable()) {
+                if (!((SocketChannel) key.channel()).finishConnect()) return;
+                pipeline.connected = true;
+                state.channelConnected++;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            if (key.isValid() && key.isWritable()) flushPipeline(pipeline);
+            if (key.isValid() && key.isReadable()) readPipeline(key, pipeline);
+        } catch (SocketException e) {
+            state.channelConnectionErrors++;
+            failPipeline(pipeline, "Server rejected connection");
+        } catch (IOException | CancelledKeyException e) {
+            failPipeline(pipeline, "Pipeline failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the responses that are there, each belongs to the oldest unanswered request.
+     */
+    private void readPipeline(SelectionKey key, Pipeline pipeline) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        while (true) {
+            NioClientContext context = pipeline.unanswered.peek();
+            if (context == null) {
+                // Nothing is expected, so this is the server closing the connection or a stray frame
+                idleReadBuffer.clear();
+                if (channel.read(idleReadBuffer) != 0) failPipeline(pipeline, "Server closed the pipeline");
+                return;
+            }
+            if (context.status == READING_HEADER) {
+                if (context.readHeader(channel, key) < 0) {
+                    failPipeline(pipeline, "SERVER CLOSED - readPipeline");
+                    return;
+                }
+                if (context.status == READING_HEADER) return;
+            }
+            if (channel.read(context.bodyBuffer) < 0) {
+                failPipeline(pipeline, "SERVER CLOSED - readPipeline");
+                return;
+            }
+            if (context.bodyBuffer.hasRemaining()) return;
+            context.completeBody(compression);
+            state.requestDurationMs += context.elapsed();
+            state.requestCompleted++;
+            pipeline.unanswered.poll();
+            complete(context);
+        }
+    }
+
+    /**
+     * Fails every request of the pipeline, the next keep alive request opens a new one.
+     */
+    private void failPipeline(Pipeline pipeline, String reason) {
+        closeChannel(pipeline.key);
+        if (this.pipeline == pipeline) this.pipeline = null;
+        NioClientContext context;
+        while ((context = pipeline.unanswered.poll()) != null) fail(context, reason);
+        while ((context = pipeline.unsent.poll()) != null) fail(context, reason);
+    }
+
+    private SelectionKey openChannel(NioClientContext request) throws IOException {
+        state.channelsOpened++;
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+
+        SelectionKey key = channel.connect(address)
+                ? channel.register(selector, SelectionKey.OP_WRITE, request)
+                : channel.register(selector, SelectionKey.OP_CONNECT, request);
+        request.key = key;
+        return key;
+    }
+
     private void runSelectorLoop() {
+        if (EventLog.INFO) events = EventLog.ring();
         while (!Thread.currentThread().isInterrupted()) {
             try {
                 registerRPCRequests();
-                selector.selectNow(key -> {
-                    try {
-                        if (!key.isValid()) {
-                            print("Closing invalid key ");
-                            closeChannel(key);
-                            return;
-                        }
-                        if (key.isConnectable()) handleConnect(key);
-                        if (key.isWritable()) handleWrite(key);
-                        if (key.isReadable()) handleRead(key);
-                    } catch (IOException e) {
-                        if (key.attachment() instanceof NioClientContext nio) {
-                            print("EXCEPTION " + e.getMessage() + " on " + nio.id);
-                            nio.onError("Unknown caught " + e.getMessage() + " " + nio.elapsed());
-                        }
-                        closeChannel(key);
-                    } catch (CancelledKeyException ce) {
-                        if (key.attachment() instanceof NioClientContext nio) {
-                            print("CANCELLED KEY " + nio.id);
-                            nio.onError("Cancelled key " + nio.elapsed());
-                        }
-                        closeChannel(key);
-                    }
-                });
+                if (pipeline != null && pipeline.due(System.nanoTime())) flushPipeline(pipeline);
+                selector.selectNow(keyHandler);
+                if (hedging != null && !inFlight.isEmpty()) checkDeadlines();
             } catch (IOException e) {
                 log.severe("Got error " + e);
             }
         }
+        if (compression != null) compression.close();
         try {
             selector.close();
         } catch (IOException e) {
@@ -122,15 +451,62 @@ public class NioClient {
         }
     }
 
-    private void handleWrite(SelectionKey key) throws IOException {
+    private void handleKey(SelectionKey key) {
+        if (key.attachment() instanceof Pipeline pipeline) {
+            handlePipeline(key, pipeline);
+            return;
+        }
+        try {
+            if (!key.isValid()) {
+                if (EventLog.DEBUG) events.record(Event.CLIENT_INVALID_KEY, 0, 0);
+                closeChannel(key);
+                return;
+            }
+            if (!(key.attachment() instanceof NioClientContext context)) {
+                handleIdle(key);
+                return;
+            }
+            if (key.isConnectable()) handleConnect(key, context);
+            if (key.isValid() && key.isWritable()) handleWrite(key, context);
+            if (key.isValid() && key.isReadable()) handleRead(key, context);
+        } catch (IOException e) {
+            if (key.attachment() instanceof NioClientContext nio) {
+                if (EventLog.DEBUG) events.record(Event.REQUEST_FAILED, nio.id, 0, e);
+                closeChannel(key);
+                fail(nio, "Unknown caught " + e.getMessage() + " " + nio.elapsed());
+            } else {
+                closeChannel(key);
+            }
+        } catch (CancelledKeyException ce) {
+            if (key.attachment() instanceof NioClientContext nio) {
+                if (EventLog.DEBUG) events.record(Event.REQUEST_KEY_CANCELLED, nio.id, 0);
+                closeChannel(key);
+                fail(nio, "Cancelled key " + nio.elapsed());
+            } else {
+                closeChannel(key);
+            }
+        }
+    }
+
+    /**
+     * A kept alive channel between requests has nothing to read, so this is either the server closing it
+     * or a stray frame. Both leave the channel unusable.
+     */
+    private void handleIdle(SelectionKey key) throws IOException {
+        if (!key.isReadable()) return;
+        idleReadBuffer.clear();
+        int read = ((SocketChannel) key.channel()).read(idleReadBuffer);
+        if (read != 0) closeChannel(key);
+    }
+
+    private void handleWrite(SelectionKey key, NioClientContext clientContext) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
-        NioClientContext clientContext = (NioClientContext) key.attachment();
 
-        printD("Writing on " + clientContext.id);
+        if (EventLog.DEBUG) events.record(Event.REQUEST_WRITING, clientContext.id, 0);
         int wrote = channel.write(clientContext.request);
         if (wrote < 0) {
-            clientContext.onError("Wrote " + wrote);
             closeChannel(key);
+            fail(clientContext, "Wrote " + wrote);
             return;
         }
         if (!clientContext.request.hasRemaining()) {
@@ -139,10 +515,9 @@ public class NioClient {
         }
     }
 
-    private void handleConnect(SelectionKey key) throws IOException {
+    private void handleConnect(SelectionKey key, NioClientContext clientContext) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
-        NioClientContext clientContext = (NioClientContext) key.attachment();
-        printD("CONNECTING " + clientContext.id);
+        if (EventLog.DEBUG) events.record(Event.REQUEST_CONNECTING, clientContext.id, 0);
 
         try {
             if (!channel.finishConnect()) {
@@ -150,9 +525,9 @@ public class NioClient {
             }
         } catch (SocketException s) {
             state.channelConnectionErrors++;
-            print("Got exception while opening socket " + s.getMessage());
-            clientContext.onError("Server rejected connection");
+            if (EventLog.DEBUG) events.record(Event.CONNECT_FAILED, clientContext.id, 0, s);
             closeChannel(key);
+            fail(clientContext, "Server rejected connection");
             return;
         }
         state.connectDurationMs += clientContext.elapsed();
@@ -162,16 +537,15 @@ public class NioClient {
         clientContext.status = WRITING;
     }
 
-    private void handleRead(SelectionKey key) throws IOException {
+    private void handleRead(SelectionKey key, NioClientContext context) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
-        NioClientContext context = (NioClientContext) key.attachment();
 
-        printD("Reading on " + context.id);
+        if (EventLog.DEBUG) events.record(Event.REQUEST_READING, context.id, 0);
         if (context.status == NioClientContext.Status.READING_HEADER) {
             int read = context.readHeader(channel, key);
             if (read < 0) {
-                context.onError("Got " + read + " while reading");
                 closeChannel(key);
+                fail(context, "Got " + read + " while reading");
                 return;
             }
             if (read == 0) return;
@@ -179,22 +553,25 @@ public class NioClient {
         if (context.status == READING_BODY) {
             int read = channel.read(context.bodyBuffer);
             if (read < 0) {
-                context.onError("SERVER CLOSED - handleRead");
                 closeChannel(key);
+                fail(context, "SERVER CLOSED - handleRead");
                 return;
             }
-            if (read == 0) return;
             if (!context.bodyBuffer.hasRemaining()) {
-                context.onSuccess();
+                context.completeBody(compression);
                 state.requestDurationMs += context.elapsed();
                 state.requestCompleted++;
                 if (context.keepAlive) {
+                    // Detach so a close while idle cannot reach the context once it is reused
+                    key.attach(null);
+                    // A hedge that won brings a connection that is answering, it replaces the shared one
+                    sharedChannel = channel;
                     sharedKey = key;
                     key.interestOps(SelectionKey.OP_READ);
-                    selector.wakeup();
                 } else {
                     closeChannel(key);
                 }
+                complete(context);
             }
         }
     }
@@ -203,6 +580,7 @@ public class NioClient {
         if (key == null) return;
         SocketChannel channel = (SocketChannel) key.channel();
         try {
+            key.attach(null);
             key.cancel();
             channel.close();
             if (channel == sharedChannel) {
@@ -219,17 +597,6 @@ public class NioClient {
         selectorThread.interrupt();
     }
 
-    private static final boolean logEnabled = false;
-    private static final boolean dLogEnabled = false;
-
-    public void print(Object any) {
-        if (logEnabled) System.out.println("[" + this.state.clientId + "] - " + any);
-    }
-
-    public void printD(Object any) {
-        if (dLogEnabled) System.out.println("[" + this.state.clientId + "] - " + any);
-    }
-
     public static final class ClientState {
         String clientId = UUID.randomUUID().toString().split("-")[4];
         int channelsOpened = 0;
@@ -241,6 +608,17 @@ public class NioClient {
         int channelConnectionErrors = 0;
         long requestDurationMs = 0;
         long connectDurationMs = 0;
+        int hedges = 0;
+        // Hedges that answered before the request they copied
+        int hedgeWins = 0;
+        // Hedges not sent since the budget was used up
+        int hedgesDenied = 0;
+        int timeouts = 0;
+        // Gathering writes of the coalescing pipeline and the requests they sent
+        int coalescedWrites = 0;
+        int coalescedRequests = 0;
+        // Requests answered with BUSY
+        int busy = 0;
 
         @Override
         public String toString() {
@@ -254,7 +632,14 @@ public class NioClient {
                     ", chanConnected=" + channelConnected +
                     ", chanConnectionErrors=" + channelConnectionErrors +
                     ", clientId='" + clientId + '\'' +
-                    ", reqRegistered=" + requestsRegistered;
+                    ", reqRegistered=" + requestsRegistered +
+                    ", hedges=" + hedges +
+                    ", hedgeWins=" + hedgeWins +
+                    ", hedgesDenied=" + hedgesDenied +
+                    ", timeouts=" + timeouts +
+                    ", coalescedWrites=" + coalescedWrites +
+                    ", coalescedRequests=" + coalescedRequests +
+                    ", busy=" + busy;
         }
 
         private String formatDuration(double ms) {
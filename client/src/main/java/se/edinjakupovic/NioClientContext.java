@@ -6,62 +6,189 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.CompletableFuture;
 
+/**
+ * State of one request. Contexts are pooled by {@link NioClient} and reused for later requests together
+ * with their buffers, so a steady stream of similar requests allocates nothing.
+ */
 public class NioClientContext {
     Status status;
-    private final CompletableFuture<Long> response;
-    final ByteBuffer request;
+    private CompletableFuture<Long> response;
+    private ResponseCallback callback;
+    // Frame being written, either requestBuffer or its compressed form
+    ByteBuffer request;
+    // Index of the frame's first byte in request, a compressed frame starts after unused header bytes
+    private int requestStart;
+    private ByteBuffer requestBuffer;
+    private ByteBuffer compressedBuffer;
+    private final FrameCodec codec;
+    private final FrameCodec.Header header = new FrameCodec.Header();
     final ByteBuffer headerBuffer;
     ByteBuffer bodyBuffer;
+    private ByteBuffer inflatedBuffer;
+    // Finished response handed to the callback, either bodyBuffer or inflatedBuffer
+    private ByteBuffer responseBody;
+    byte flags;
     int requestLength;
-    final boolean keepAlive;
-    final int id;
+    boolean keepAlive;
+    int id;
     int tlvType;
     int responseLength;
     long start;
+    // Set by NioClient when it has a hedge policy
+    SelectionKey key;
+    // The other copy of a hedged request, both share the completion and the first to finish takes it
+    NioClientContext twin;
+    // This copy is the hedge rather than the request as sent
+    boolean hedge;
+    boolean hedgePending;
+    long hedgeAt;
+    long deadline;
+
+    public NioClientContext(FrameCodec codec) {
+        this.codec = codec;
+        this.headerBuffer = ByteBuffer.allocate(codec.maxHeaderSize());
+    }
 
     public NioClientContext(ByteBuffer request,
                             CompletableFuture<Long> response,
                             boolean keepAlive,
                             int id) {
-        this.request = request;
-        this.requestLength = request.remaining();
+        this(request, response, keepAlive, id, FrameCodec.DEFAULT);
+    }
+
+    public NioClientContext(ByteBuffer request,
+                            CompletableFuture<Long> response,
+                            boolean keepAlive,
+                            int id,
+                            FrameCodec codec) {
+        this(codec);
+        prepare(request, response, null, id);
         this.keepAlive = keepAlive;
-        this.id = id;
-        this.headerBuffer = ByteBuffer.allocate(5);
+    }
+
+    /**
+     * Resets the context for a new request, copying the request's remaining bytes so the caller can reuse its buffer.
+     * Exactly one of {@code response} and {@code callback} is completed.
+     */
+    final void prepare(ByteBuffer request, CompletableFuture<Long> response, ResponseCallback callback, int id) {
+        int length = request.remaining();
+        if (requestBuffer == null || requestBuffer.capacity() < length) {
+            requestBuffer = ByteBuffer.allocate(length);
+        }
+        requestBuffer.clear().put(0, request, request.position(), length).limit(length);
+        this.request = requestBuffer;
+        this.requestStart = 0;
+        this.requestLength = length;
+        this.keepAlive = (request.get(request.position()) & 0x80) != 0;
         this.response = response;
+        this.callback = callback;
+        this.id = id;
+        this.headerBuffer.clear().limit(codec.minHeaderSize());
+        this.flags = 0;
         this.status = Status.CONNECTING;
-        this.start = System.currentTimeMillis();
+        this.start = System.nanoTime();
     }
 
     public int readHeader(SocketChannel channel,
                           SelectionKey key) throws IOException {
-        int read = channel.read(headerBuffer);
-        if (read == -1) {
-            channel.close();
-            key.cancel();
-            return -1;
-        }
-        if (read == 0) return 0;
-        if (!headerBuffer.hasRemaining()) {
-            flipToReadingBody();
+        int total = 0;
+        while (true) {
+            int read = channel.read(headerBuffer);
+            if (read == -1) {
+                channel.close();
+                key.cancel();
+                return -1;
+            }
+            total += read;
+            if (headerBuffer.hasRemaining()) return total;
+
+            int headerLength = codec.headerLength(headerBuffer, 0, headerBuffer.position());
+            if (headerLength > 0) {
+                flipToReadingBody();
+                return total;
+            }
+            // Variable length header, read exactly the bytes known to be missing
+            headerBuffer.limit(headerBuffer.limit() - headerLength);
         }
-        return read;
     }
 
-    private void flipToReadingBody() {
-        headerBuffer.flip();
-        tlvType = headerBuffer.get();
-        responseLength = headerBuffer.getInt();
-        bodyBuffer = ByteBuffer.allocate(responseLength);
+    private void flipToReadingBody() throws IOException {
+        codec.decodeHeader(headerBuffer, 0, header);
+        tlvType = header.type;
+        responseLength = header.length;
+        flags = header.flags;
+        if (bodyBuffer == null || bodyBuffer.capacity() < responseLength) {
+            bodyBuffer = ByteBuffer.allocate(responseLength);
+        }
+        bodyBuffer.clear().limit(responseLength);
         status = Status.READING_BODY;
     }
 
+    void compressRequest(Compression compression) {
+        ByteBuffer compressed = compression.compressFrame(requestBuffer, compressedBuffer);
+        if (compressed != requestBuffer) compressedBuffer = compressed;
+        request = compressed;
+        requestStart = request.position();
+        requestLength = request.remaining();
+    }
+
+    /**
+     * Flips the finished body for reading, inflating it first if it came compressed.
+     *
+     * @param compression null when the client does not use compression
+     */
+    void completeBody(Compression compression) throws IOException {
+        bodyBuffer.flip();
+        responseBody = bodyBuffer;
+        if (compression != null && Compression.isCompressed(flags)) {
+            inflatedBuffer = compression.inflate(bodyBuffer, inflatedBuffer, compression.maxInflatedSize());
+            responseBody = inflatedBuffer;
+        }
+    }
+
+    ByteBuffer responseBody() {
+        return responseBody;
+    }
+
     public void onSuccess() {
-        response.complete(elapsed());
+        if (callback != null) {
+            callback.onResponse(tlvType, responseBody, System.nanoTime() - start);
+        } else {
+            response.complete(elapsed());
+        }
     }
 
     public void onError(String reason) {
-        response.completeExceptionally(new RuntimeException(reason));
+        if (callback != null) {
+            callback.onError(reason);
+        } else {
+            response.completeExceptionally(new RuntimeException(reason));
+        }
+    }
+
+    /**
+     * Makes this context a copy of {@code primary} to send on a connection of its own.
+     */
+    void prepareHedge(NioClientContext primary) {
+        prepare(primary.request.duplicate().position(primary.requestStart), primary.response, primary.callback, primary.id);
+        keepAlive = primary.keepAlive;
+        start = primary.start;
+        deadline = primary.deadline;
+        hedge = true;
+        twin = primary;
+        primary.twin = this;
+    }
+
+    /**
+     * Drops references to the caller's completion so a pooled context does not keep them alive.
+     */
+    void release() {
+        response = null;
+        callback = null;
+        key = null;
+        twin = null;
+        hedge = false;
+        hedgePending = false;
     }
 
     enum Status {
@@ -72,6 +199,6 @@ public class NioClientContext {
     }
 
     public long elapsed() {
-        return System.currentTimeMillis() - start;
+        return (System.nanoTime() - start) / 1_000_000;
     }
 }
@@ -0,0 +1,76 @@
+package se.edinjakupovic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The connection {@link NioClient} coalesces keep alive requests on, see {@link WriteCoalescing}. Requests wait in
+ * {@code unsent} until a flush writes them together, then in {@code unanswered} until their response is read.
+ * <p>
+ * Only used from the client's selector thread.
+ */
+final class Pipeline {
+    final SelectionKey key;
+    final ArrayDeque<NioClientContext> unsent = new ArrayDeque<>();
+    final ArrayDeque<NioClientContext> unanswered = new ArrayDeque<>();
+    private final WriteCoalescing coalescing;
+    // Request buffers of one gathering write, cleared after it
+    private ByteBuffer[] batch = new ByteBuffer[16];
+    private long unsentBytes;
+    private long flushAt;
+    boolean connected;
+    // The socket did not take the last write completely, the rest goes out once it is writable
+    private boolean backlogged;
+
+    Pipeline(SelectionKey key, WriteCoalescing coalescing) {
+        this.key = key;
+        this.coalescing = coalescing;
+    }
+
+    void add(NioClientContext context) {
+        if (unsent.isEmpty()) flushAt = System.nanoTime() + coalescing.lingerNanos();
+        context.key = key;
+        context.status = NioClientContext.Status.WRITING;
+        unsent.add(context);
+        unsentBytes += context.request.remaining();
+    }
+
+    /**
+     * @return true when the linger of the oldest unsent request is over or enough bytes wait
+     */
+    boolean due(long now) {
+        return connected && !backlogged && !unsent.isEmpty()
+                && (unsentBytes >= coalescing.maxBytes() || now - flushAt >= 0);
+    }
+
+    /**
+     * Writes the unsent requests in one gathering write.
+     *
+     * @return requests written completely
+     */
+    int flush() throws IOException {
+        int count = 0;
+        for (NioClientContext context : unsent) {
+            if (count == batch.length) batch = Arrays.copyOf(batch, count * 2);
+            batch[count++] = context.request;
+        }
+        long written = ((SocketChannel) key.channel()).write(batch, 0, count);
+        Arrays.fill(batch, 0, count, null);
+        unsentBytes -= written;
+
+        int sent = 0;
+        while (!unsent.isEmpty() && !unsent.peek().request.hasRemaining()) {
+            NioClientContext context = unsent.poll();
+            context.status = NioClientContext.Status.READING_HEADER;
+            unanswered.add(context);
+            sent++;
+        }
+        backlogged = !unsent.isEmpty();
+        key.interestOps(backlogged ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        return sent;
+    }
+}
@@ -0,0 +1,74 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the server's built-in publish/subscribe service on the reserved types 118 to 121.
+ * <pre>
+ * SUBSCRIBE   [topic]                          -> [status]
+ * UNSUBSCRIBE [topic]                          -> [status]
+ * PUBLISH     [topic length 2][topic][message] -> [status]
+ * MESSAGE     [topic length 2][topic][message]    pushed to subscribers
+ * </pre>
+ * A subscribed connection gets MESSAGE frames between its responses, never inside one,
+ * so it has to keep reading and tell the frames apart by type.
+ */
+public final class PubSubProtocol {
+    public static final byte MESSAGE = 118;
+    public static final byte SUBSCRIBE = 119;
+    public static final byte UNSUBSCRIBE = 120;
+    public static final byte PUBLISH = 121;
+
+    public static final byte OK = 0;
+    public static final byte MALFORMED = 1;
+
+    public static final int MAX_TOPIC_LENGTH = 0xffff;
+
+    private PubSubProtocol() {
+    }
+
+    public static boolean isPubSubType(int type) {
+        return type >= MESSAGE && type <= PUBLISH;
+    }
+
+    public static ByteBuffer subscribe(String topic, boolean keepAlive) {
+        return FrameCodec.DEFAULT.frame(SUBSCRIBE, topic.getBytes(StandardCharsets.UTF_8), keepAlive);
+    }
+
+    public static ByteBuffer unsubscribe(String topic, boolean keepAlive) {
+        return FrameCodec.DEFAULT.frame(UNSUBSCRIBE, topic.getBytes(StandardCharsets.UTF_8), keepAlive);
+    }
+
+    public static ByteBuffer publish(String topic, byte[] message, boolean keepAlive) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        if (topicBytes.length > MAX_TOPIC_LENGTH) throw new IllegalArgumentException("Topic of " + topicBytes.length + " bytes is too long");
+        byte[] body = new byte[2 + topicBytes.length + message.length];
+        body[0] = (byte) (topicBytes.length >>> 8);
+        body[1] = (byte) topicBytes.length;
+        System.arraycopy(topicBytes, 0, body, 2, topicBytes.length);
+        System.arraycopy(message, 0, body, 2 + topicBytes.length, message.length);
+        return FrameCodec.DEFAULT.frame(PUBLISH, body, keepAlive);
+    }
+
+    /**
+     * Topic of a PUBLISH or MESSAGE body, without moving the body's position.
+     *
+     * @return null if the body is too short for its topic length
+     */
+    public static String topic(ByteBuffer body) {
+        if (body.remaining() < 2) return null;
+        int topicLength = Short.toUnsignedInt(body.getShort(body.position()));
+        if (body.remaining() < 2 + topicLength) return null;
+        return StandardCharsets.UTF_8.decode(body.slice(body.position() + 2, topicLength)).toString();
+    }
+
+    /**
+     * Message of a PUBLISH or MESSAGE body as a view, see {@link #topic(ByteBuffer)}.
+     */
+    public static ByteBuffer message(ByteBuffer body) {
+        int topicLength = Short.toUnsignedInt(body.getShort(body.position()));
+        int at = body.position() + 2 + topicLength;
+        return body.slice(at, body.limit() - at);
+    }
+}
@@ -0,0 +1,18 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Completion of a request sent with {@link NioClient#sendRPC(ByteBuffer, ResponseCallback)}.
+ * Called on the client's selector thread, so implementations must not block.
+ */
+public interface ResponseCallback {
+
+    /**
+     * @param body        response body, only valid until this method returns since its buffer is recycled
+     * @param elapsedNanos time from {@code sendRPC} to the last byte of the response
+     */
+    void onResponse(int type, ByteBuffer body, long elapsedNanos);
+
+    void onError(String reason);
+}
@@ -0,0 +1,23 @@
+package se.edinjakupovic;
+
+/**
+ * Opt-in write coalescing for {@link NioClient}. Keep alive requests share one pipelined connection, a request waits
+ * up to {@code lingerMicros} for others to join it and the waiting requests go out in one gathering write once the
+ * linger ends or {@code maxBytes} are waiting. The server answers a connection's frames in order, so responses are
+ * matched to requests first in, first out.
+ *
+ * @param lingerMicros longest a request waits for company, 0 still sends everything queued in one loop together
+ * @param maxBytes     waiting bytes that end the linger early
+ */
+public record WriteCoalescing(long lingerMicros, int maxBytes) {
+
+    public WriteCoalescing {
+        if (lingerMicros < 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid write coalescing " + lingerMicros + " µs, " + maxBytes + " bytes");
+        }
+    }
+
+    long lingerNanos() {
+        return lingerMicros * 1_000;
+    }
+}
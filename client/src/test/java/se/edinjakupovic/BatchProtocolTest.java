@@ -0,0 +1,42 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchProtocolTest {
+
+    @Test
+    void builtBatchShouldSplitIntoItsRequests() throws Exception {
+        ByteBuffer frame = new BatchProtocol.Builder()
+                .add(1, "one".getBytes(StandardCharsets.UTF_8))
+                .add(2, new byte[0])
+                .add(3, "three".getBytes(StandardCharsets.UTF_8))
+                .build(true);
+
+        FrameCodec.Header header = new FrameCodec.Header();
+        FrameCodec.DEFAULT.decodeHeader(frame, 0, header);
+        assertThat(header.type).isEqualTo(BatchProtocol.BATCH);
+        assertThat(header.keepAlive).isTrue();
+        assertThat(header.length).isEqualTo(frame.remaining() - 5);
+
+        List<BatchProtocol.Entry> entries = BatchProtocol.entries(frame.slice(5, header.length), FrameCodec.DEFAULT);
+        assertThat(entries.stream().map(BatchProtocol.Entry::type).toList()).containsExactly(1, 2, 3);
+        assertThat(entries.stream().map(e -> StandardCharsets.UTF_8.decode(e.body()).toString()).toList())
+                .containsExactly("one", "", "three");
+    }
+
+    @Test
+    void cutOffBatchShouldBeRejected() {
+        ByteBuffer frame = new BatchProtocol.Builder().add(1, new byte[10]).build(false);
+        ByteBuffer body = frame.slice(5, frame.remaining() - 5);
+
+        assertThat(BatchProtocol.entries(body.slice(0, body.remaining() - 1), FrameCodec.DEFAULT)).isNull();
+        assertThat(BatchProtocol.entries(body.slice(0, 3), FrameCodec.DEFAULT)).isNull();
+        assertThat(BatchProtocol.entries(body.slice(0, 0), FrameCodec.DEFAULT)).isEmpty();
+    }
+}
@@ -0,0 +1,67 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventRingTest {
+
+    @Test
+    void drainShouldReturnRecordsInOrder() {
+        EventRing ring = new EventRing(Thread.currentThread(), 8);
+        IllegalStateException detail = new IllegalStateException("boom");
+        ring.record(Event.CONNECTION_REGISTERED, 7, 1);
+        ring.record(Event.CONNECTION_FAILED, 7, 0, detail);
+
+        List<Object> seen = new ArrayList<>();
+        int drained = ring.drain((owner, nanos, event, a, b, d) -> {
+            assertThat(owner).isEqualTo(Thread.currentThread());
+            seen.add(event + " " + a + " " + b + " " + d);
+        });
+        assertThat(drained).isEqualTo(2);
+        assertThat(seen).containsExactly("CONNECTION_REGISTERED 7 1 null", "CONNECTION_FAILED 7 0 " + detail);
+        assertThat(ring.drain((owner, nanos, event, a, b, d) -> seen.add(event))).isEqualTo(0);
+    }
+
+    @Test
+    void fullRingShouldDropAndCount() {
+        EventRing ring = new EventRing(Thread.currentThread(), 4);
+        for (int i = 0; i < 10; i++) ring.record(Event.REQUEST_WRITING, i, 0);
+
+        List<Long> seen = new ArrayList<>();
+        ring.drain((owner, nanos, event, a, b, d) -> seen.add(a));
+        assertThat(seen).containsExactly(0L, 1L, 2L, 3L);
+        assertThat(ring.unreportedDrops()).isEqualTo(6);
+        assertThat(ring.unreportedDrops()).isEqualTo(0);
+
+        ring.record(Event.REQUEST_WRITING, 10, 0);
+        ring.drain((owner, nanos, event, a, b, d) -> seen.add(a));
+        assertThat(seen).containsExactly(0L, 1L, 2L, 3L, 10L);
+    }
+
+    @Test
+    void consumerShouldSeeEveryRecordOfAConcurrentProducer() throws InterruptedException {
+        int total = 1_000_000;
+        EventRing[] ring = new EventRing[1];
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < total; i++) ring[0].record(Event.REQUEST_READING, i, -i);
+        });
+        ring[0] = new EventRing(producer, 1024);
+        producer.start();
+
+        long[] last = {-1};
+        long[] received = {0};
+        EventRing.Sink sink = (owner, nanos, event, a, b, d) -> {
+            assertThat(a).isGreaterThan(last[0]);
+            assertThat(b).isEqualTo(-a);
+            last[0] = a;
+            received[0]++;
+        };
+        while (producer.isAlive()) ring[0].drain(sink);
+        ring[0].drain(sink);
+        assertThat(received[0] + ring[0].dropped()).isEqualTo(total);
+    }
+}
@@ -0,0 +1,61 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FrameCodecTest {
+
+    @Test
+    void shouldRoundTripAllLayouts() throws IOException {
+        for (FrameCodec.LengthEncoding encoding : FrameCodec.LengthEncoding.values()) {
+            for (int typeBytes = 1; typeBytes <= 2; typeBytes++) {
+                FrameCodec codec = new FrameCodec(typeBytes, encoding, typeBytes == 2);
+                int type = codec.maxType();
+                for (int length : new int[]{0, 1, 127, 128, 255}) {
+                    ByteBuffer frame = codec.frame(type, new byte[length], true);
+                    int headerLength = codec.headerLength(frame, 0, frame.limit());
+                    assertThat(headerLength).isEqualTo(codec.headerSize(length));
+                    assertThat(frame.remaining()).isEqualTo(headerLength + length);
+
+                    FrameCodec.Header header = new FrameCodec.Header();
+                    codec.decodeHeader(frame, 0, header);
+                    assertThat(header.type).isEqualTo(type);
+                    assertThat(header.keepAlive).isTrue();
+                    assertThat(header.length).isEqualTo(length);
+                }
+            }
+        }
+    }
+
+    @Test
+    void varintHeaderShouldBeTwoBytesForSmallBodies() {
+        assertThat(FrameCodec.VARINT.headerSize(127)).isEqualTo(2);
+        assertThat(FrameCodec.VARINT.headerSize(128)).isEqualTo(3);
+        assertThat(FrameCodec.VARINT.headerSize(Integer.MAX_VALUE)).isEqualTo(6);
+        assertThat(FrameCodec.DEFAULT.headerSize(127)).isEqualTo(5);
+    }
+
+    @Test
+    void shouldReportMissingHeaderBytes() throws IOException {
+        ByteBuffer frame = FrameCodec.VARINT.withFlags().frame(1, new byte[300], false);
+
+        assertThat(FrameCodec.VARINT.withFlags().headerLength(frame, 0, 1)).isEqualTo(-2);
+        // First length byte has the continuation bit set, so at least one more length byte and the flags
+        assertThat(FrameCodec.VARINT.withFlags().headerLength(frame, 0, 2)).isEqualTo(-2);
+        assertThat(FrameCodec.VARINT.withFlags().headerLength(frame, 0, 3)).isEqualTo(-1);
+        assertThat(FrameCodec.VARINT.withFlags().headerLength(frame, 0, 4)).isEqualTo(4);
+    }
+
+    @Test
+    void shouldRejectBodiesThatDoNotFitTheLength() {
+        FrameCodec codec = new FrameCodec(1, FrameCodec.LengthEncoding.FIXED_1, false);
+        assertThatThrownBy(() -> codec.frame(1, new byte[256], false))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Body length 256");
+    }
+}
@@ -0,0 +1,68 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HashRingTest {
+    private static final int KEYS = 20_000;
+
+    @Test
+    void shouldSpreadKeysEvenly() {
+        HashRing<String> ring = HashRing.of(List.of("a", "b", "c", "d"), 160, Function.identity());
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.route(key(i)), 1, Integer::sum);
+        }
+        assertThat(counts).hasSize(4);
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(KEYS / 4 * 8 / 10, KEYS / 4 * 12 / 10));
+    }
+
+    @Test
+    void addingANodeShouldOnlyMoveKeysToIt() {
+        HashRing<String> before = HashRing.of(List.of("a", "b", "c"), 160, Function.identity());
+        HashRing<String> after = before.withNode("d");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String from = before.route(key(i));
+            String to = after.route(key(i));
+            if (!from.equals(to)) {
+                assertThat(to).isEqualTo("d");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(KEYS / 4 * 8 / 10, KEYS / 4 * 12 / 10);
+    }
+
+    @Test
+    void removingANodeShouldOnlyMoveItsKeys() {
+        HashRing<String> before = HashRing.of(List.of("a", "b", "c", "d"), 160, Function.identity());
+        HashRing<String> after = before.withoutNode("b");
+        for (int i = 0; i < KEYS; i++) {
+            String from = before.route(key(i));
+            String to = after.route(key(i));
+            if (from.equals("b")) {
+                assertThat(to).isNotEqualTo("b");
+            } else {
+                assertThat(to).isEqualTo(from);
+            }
+        }
+        assertThat(after.withNode("b").route(key(42))).isEqualTo(before.route(key(42)));
+    }
+
+    @Test
+    void emptyRingShouldNotRoute() {
+        HashRing<String> ring = HashRing.of(List.of("a"), 8, Function.identity()).withoutNode("a");
+        assertThatThrownBy(() -> ring.route(key(1))).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static byte[] key(int i) {
+        return ("user:" + i).getBytes();
+    }
+}
@@ -0,0 +1,39 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyEstimatorTest {
+
+    @Test
+    void percentilesShouldBeWithinABucketOfTheExactValue() {
+        LatencyEstimator latency = new LatencyEstimator(1 << 20);
+        for (int i = 1; i <= 10_000; i++) {
+            latency.record(i * 1_000L);
+        }
+        assertThat(latency.count()).isEqualTo(10_000);
+        assertThat(latency.percentile(0.5)).isBetween(5_000_000L, 6_250_000L);
+        assertThat(latency.percentile(0.95)).isBetween(9_500_000L, 11_875_000L);
+        assertThat(latency.percentile(1)).isGreaterThanOrEqualTo(10_000_000L);
+    }
+
+    @Test
+    void bucketsShouldCoverEveryLatencyInOrder() {
+        for (long nanos = 0; nanos < 100_000; nanos++) {
+            int bucket = LatencyEstimator.bucket(nanos);
+            assertThat(LatencyEstimator.upperBound(bucket)).isGreaterThanOrEqualTo(nanos);
+            if (bucket > 0) assertThat(LatencyEstimator.upperBound(bucket - 1)).isLessThan(nanos);
+        }
+        assertThat(LatencyEstimator.bucket(Long.MAX_VALUE)).isLessThan(252);
+    }
+
+    @Test
+    void oldSamplesShouldFade() {
+        LatencyEstimator latency = new LatencyEstimator(256);
+        for (int i = 0; i < 2_000; i++) latency.record(1_000_000);
+        for (int i = 0; i < 2_000; i++) latency.record(10_000_000);
+        assertThat(latency.percentile(0.5)).isGreaterThanOrEqualTo(10_000_000L);
+        assertThat(latency.count()).isLessThan(512);
+    }
+}
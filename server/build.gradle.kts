@@ -1,4 +1,8 @@
-
 dependencies {
     implementation(project(":client")) // Import moduleA
-}
\ No newline at end of file
+}
+
+tasks.test {
+    // Lets FlatSelectedKeys replace the selector's selected-key set, so the tests cover the path the reactors take
+    jvmArgs("--add-opens", "java.base/sun.nio.ch=ALL-UNNAMED")
+}
@@ -0,0 +1,106 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers {@link BatchProtocol#BATCH} frames. Each inner frame goes to the handler of its type and the frames the
+ * handlers return are copied into one batch frame as they are, so a client sends N requests with one header parse,
+ * one write and one wakeup.
+ * <p>
+ * Inner frames reach the configured handlers only, the built-in services answer them with the error handler since
+ * their requests may belong to another reactor or finish later. The inner frames of one {@link BatchMessageHandler}
+ * are handed to it in one call. A handler that fails or returns null answers with the error handler.
+ */
+public final class BatchHandler implements MessageHandler {
+    private final Map<Byte, MessageHandler> handlers;
+    private final MessageHandler errorHandler;
+    private final FrameCodec codec;
+
+    private BatchHandler(Map<Byte, MessageHandler> handlers, MessageHandler errorHandler, FrameCodec codec) {
+        this.handlers = handlers;
+        this.errorHandler = errorHandler;
+        this.codec = codec;
+    }
+
+    /**
+     * Adds the BATCH handler to {@code handlers}, its inner frames go to {@code handlers} as they are now.
+     *
+     * @param codec of the server, the batch frame uses its header layout
+     */
+    public static Map<Byte, MessageHandler> withHandlers(Map<Byte, MessageHandler> handlers, MessageHandler errorHandler,
+                                                         FrameCodec codec) {
+        Map<Byte, MessageHandler> inner = new HashMap<>(handlers);
+        inner.remove(BatchProtocol.BATCH);
+        Map<Byte, MessageHandler> all = new HashMap<>(handlers);
+        all.put(BatchProtocol.BATCH, new BatchHandler(inner, errorHandler, codec));
+        return all;
+    }
+
+    @Override
+    public ByteBuffer processMessage(ByteBuffer body) {
+        List<BatchProtocol.Entry> requests = BatchProtocol.entries(body, codec);
+        if (requests == null) return errorHandler.processMessage(body);
+
+        int count = requests.size();
+        ByteBuffer[] responses = new ByteBuffer[count];
+        boolean[] failed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            if (responses[i] != null || failed[i]) continue;
+            BatchProtocol.Entry request = requests.get(i);
+            MessageHandler handler = handlers.get((byte) request.type());
+            if (handler instanceof BatchMessageHandler batchHandler) {
+                processBatch(batchHandler, requests, i, responses, failed);
+            } else {
+                responses[i] = handler == null ? null : process(handler, request.body());
+                failed[i] = responses[i] == null;
+            }
+        }
+
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            if (failed[i]) responses[i] = errorHandler.processMessage(requests.get(i).body());
+            length += responses[i].remaining();
+        }
+        // The connection follows the request's keep alive bit, the response's is not read
+        ByteBuffer frame = ByteBuffer.allocate(codec.headerSize(length) + length);
+        int position = codec.encodeHeader(frame, 0, BatchProtocol.BATCH, false, length, (byte) 0);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer response = responses[i];
+            frame.put(position, response, response.position(), response.remaining());
+            position += response.remaining();
+        }
+        return frame;
+    }
+
+    /**
+     * Answers the request at {@code first} and every later one for the same handler in one call.
+     */
+    private void processBatch(BatchMessageHandler handler, List<BatchProtocol.Entry> requests, int first,
+                              ByteBuffer[] responses, boolean[] failed) {
+        List<Integer> indexes = new ArrayList<>();
+        List<ByteBuffer> bodies = new ArrayList<>();
+        for (int i = first; i < requests.size(); i++) {
+            if (handlers.get((byte) requests.get(i).type()) != handler) continue;
+            indexes.add(i);
+            bodies.add(requests.get(i).body());
+        }
+        List<ByteBuffer> batchResponses = FrameBatcher.process(handler, bodies);
+        for (int j = 0; j < indexes.size(); j++) {
+            int i = indexes.get(j);
+            responses[i] = batchResponses == null ? null : batchResponses.get(j);
+            failed[i] = responses[i] == null;
+        }
+    }
+
+    private static ByteBuffer process(MessageHandler handler, ByteBuffer body) {
+        try {
+            return handler.processMessage(body);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
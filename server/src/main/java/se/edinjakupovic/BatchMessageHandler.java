@@ -0,0 +1,23 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Handler that gets every complete frame of its type read in one reactor loop iteration at once.
+ * Useful when N lookups cost about the same as one, e.g. a batch friendly store.
+ * <p>
+ * Bodies are views of the connections' buffers and only valid during the call.
+ */
+public interface BatchMessageHandler extends MessageHandler {
+
+    /**
+     * @return one response per body, in the same order
+     */
+    List<ByteBuffer> processBatch(List<ByteBuffer> bodies);
+
+    @Override
+    default ByteBuffer processMessage(ByteBuffer byteBuffer) {
+        return processBatch(List.of(byteBuffer)).getFirst();
+    }
+}
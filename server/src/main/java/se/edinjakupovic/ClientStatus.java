@@ -3,5 +3,6 @@ package se.edinjakupovic;
 public enum ClientStatus {
     READING_HEADER,
     READING_BODY,
+    PROCESSING,
     WRITING_RESPONSE
 }
@@ -0,0 +1,61 @@
+package se.edinjakupovic;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single-flight wrapper for idempotent handlers. Concurrent calls with an equal body
+ * share one invocation of the delegate, each caller gets its own view of the result.
+ * <p>
+ * The same instance has to be shared by all reactors, so wrap the handler once when
+ * building the {@link ServerConfig} handlers map. A reactor that finds an equal call in
+ * flight parks the connection on it with {@link #follow} and answers it through its
+ * completion queue, it never waits for the leader. {@link #processMessage} does not wait
+ * either, if it loses the race to lead it calls the delegate itself.
+ */
+public class CoalescingMessageHandler implements MessageHandler {
+    private final MessageHandler delegate;
+    private final ConcurrentHashMap<ByteBuffer, CompletableFuture<ByteBuffer>> inFlight = new ConcurrentHashMap<>();
+
+    public CoalescingMessageHandler(MessageHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the call in flight for an equal body, completed with the leader's response or exceptionally if the
+     * delegate failed, or null if there is none and the request should go to {@link #processMessage}
+     */
+    public CompletableFuture<ByteBuffer> follow(ByteBuffer body) {
+        // Lookup with the live body, only the leader pays for a copy of the key
+        return inFlight.get(body);
+    }
+
+    @Override
+    public ByteBuffer processMessage(ByteBuffer body) {
+        CompletableFuture<ByteBuffer> own = new CompletableFuture<>();
+        ByteBuffer key = copyOf(body);
+        if (inFlight.putIfAbsent(key, own) != null) return delegate.processMessage(body);
+
+        try {
+            ByteBuffer response = delegate.processMessage(body);
+            own.complete(response);
+            return response.duplicate();
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer body) {
+        ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+        copy.put(body.duplicate());
+        return copy.flip();
+    }
+}
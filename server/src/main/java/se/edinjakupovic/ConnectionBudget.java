@@ -0,0 +1,21 @@
+package se.edinjakupovic;
+
+/**
+ * How much work a single connection may get in one reactor loop iteration before it is
+ * put last in the reactor's ready list and the other connections are served.
+ *
+ * @param bytesPerIteration  bytes read and written
+ * @param framesPerIteration requests read to completion
+ */
+public record ConnectionBudget(
+        int bytesPerIteration,
+        int framesPerIteration
+) {
+    public static final ConnectionBudget UNLIMITED = new ConnectionBudget(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    public ConnectionBudget {
+        if (bytesPerIteration <= 0 || framesPerIteration <= 0) {
+            throw new IllegalArgumentException("Budgets must be positive, got " + bytesPerIteration + " bytes and " + framesPerIteration + " frames");
+        }
+    }
+}
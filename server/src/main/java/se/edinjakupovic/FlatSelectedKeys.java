@@ -0,0 +1,115 @@
+package se.edinjakupovic;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+/**
+ * Array backed replacement for a selector's selected-key set. The JDK's set is a HashSet, every ready key is hashed
+ * into it and iterating it allocates an iterator whose {@code remove} hashes the key again. This one appends ready keys
+ * to an array the reactor walks by index and clears in one go.
+ * <p>
+ * Installing it means writing the selector implementation's private fields, which the JDK only allows with
+ * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}. Without it {@link #install} returns null and the reactor keeps
+ * the standard selected-key set.
+ * <p>
+ * Only touched by the selector's thread.
+ */
+public final class FlatSelectedKeys extends AbstractSet<SelectionKey> {
+    private static final Logger log = Logger.getLogger("FlatSelectedKeys");
+    private static volatile boolean warned;
+
+    private SelectionKey[] keys = new SelectionKey[1024];
+    private int size;
+
+    /**
+     * @return the installed set, or null if the JDK does not allow replacing the selected-key set
+     */
+    public static FlatSelectedKeys install(Selector selector) {
+        FlatSelectedKeys flat = new FlatSelectedKeys();
+        try {
+            Class<?> impl = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!impl.isInstance(selector)) return null;
+            Field selectedKeys = impl.getDeclaredField("selectedKeys");
+            Field publicSelectedKeys = impl.getDeclaredField("publicSelectedKeys");
+            selectedKeys.setAccessible(true);
+            publicSelectedKeys.setAccessible(true);
+            selectedKeys.set(selector, flat);
+            publicSelectedKeys.set(selector, flat);
+            return flat;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            if (!warned) {
+                warned = true;
+                log.info("Using the standard selected-key set, " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Called by the selector for every ready key, the selector asks {@link #contains} first and a key is reported
+     * once per select, so no duplicate check is needed.
+     */
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) return false;
+        if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+        keys[size++] = key;
+        return true;
+    }
+
+    public SelectionKey get(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Forgets the keys of the last select, call once they are handled.
+     */
+    public void reset() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        reset();
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (next == size) throw new NoSuchElementException();
+                return keys[next++];
+            }
+        };
+    }
+}
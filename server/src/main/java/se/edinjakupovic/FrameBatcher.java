@@ -0,0 +1,82 @@
+package se.edinjakupovic;
+
+import se.edinjakupovic.lanes.LaneDispatcher;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
+/**
+ * Collects the frames for {@link BatchMessageHandler}s during a reactor loop iteration and hands
+ * them over in one call when the iteration ends. Owned by one reactor thread.
+ */
+public final class FrameBatcher {
+    private final Batch[] batches = new Batch[TLV_TYPE_MASK + 1];
+    private final ArrayList<Batch> active = new ArrayList<>();
+
+    private static final class Batch {
+        final byte type;
+        final BatchMessageHandler handler;
+        final ArrayList<SelectionKey> keys = new ArrayList<>();
+        final ArrayList<ByteBuffer> bodies = new ArrayList<>();
+
+        Batch(byte type, BatchMessageHandler handler) {
+            this.type = type;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * @return false if the handler does not batch and the frame should be handled right away
+     */
+    public boolean add(SelectionKey key, byte type, MessageHandler handler, ByteBuffer body) {
+        if (!(handler instanceof BatchMessageHandler batchHandler)) return false;
+        Batch batch = batches[type];
+        if (batch == null || batch.handler != batchHandler) {
+            batch = new Batch(type, batchHandler);
+            batches[type] = batch;
+        }
+        if (batch.keys.isEmpty()) active.add(batch);
+        batch.keys.add(key);
+        batch.bodies.add(body);
+        key.interestOps(0);
+        return true;
+    }
+
+    /**
+     * Runs every batch collected since the last flush, on its lane if the type has one.
+     * Responses for batches run here go to {@code onResponse}, null when the handler failed.
+     */
+    public void flush(LaneDispatcher lanes, BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        for (int i = 0; i < active.size(); i++) {
+            Batch batch = active.get(i);
+            if (lanes.hasLane(batch.type)) {
+                lanes.dispatchBatch(batch.type, List.copyOf(batch.keys), batch.handler, List.copyOf(batch.bodies));
+            } else {
+                List<ByteBuffer> responses = process(batch.handler, batch.bodies);
+                for (int j = 0; j < batch.keys.size(); j++) {
+                    onResponse.accept(batch.keys.get(j), responses == null ? null : responses.get(j));
+                }
+            }
+            batch.keys.clear();
+            batch.bodies.clear();
+        }
+        active.clear();
+    }
+
+    /**
+     * @return the responses or null if the handler failed or did not answer every frame
+     */
+    public static List<ByteBuffer> process(BatchMessageHandler handler, List<ByteBuffer> bodies) {
+        try {
+            List<ByteBuffer> responses = handler.processBatch(bodies);
+            return responses != null && responses.size() == bodies.size() ? responses : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
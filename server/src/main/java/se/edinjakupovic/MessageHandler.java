@@ -4,4 +4,12 @@ import java.nio.ByteBuffer;
 
 public interface MessageHandler {
     ByteBuffer processMessage(ByteBuffer byteBuffer);
+
+    /**
+     * Marks a handler as idempotent so that concurrent requests with the same body
+     * are coalesced into one call, see {@link CoalescingMessageHandler}.
+     */
+    static MessageHandler idempotent(MessageHandler handler) {
+        return new CoalescingMessageHandler(handler);
+    }
 }
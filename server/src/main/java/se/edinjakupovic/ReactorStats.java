@@ -0,0 +1,61 @@
+package se.edinjakupovic;
+
+/**
+ * Counters updated by a single reactor thread, reads from other threads are approximate.
+ */
+public final class ReactorStats {
+    public long responses = 0;
+    // Responses that did not fit the socket buffer and had to wait for OP_WRITE
+    public long writeFallbacks = 0;
+    // Key-value requests sent to the reactor owning the key
+    public long kvHandoffs = 0;
+    // Published messages queued for a subscriber
+    public long pushes = 0;
+    // Messages a slow subscriber missed, or the subscribers disconnected for being slow
+    public long pushDrops = 0;
+    public long slowConsumerDisconnects = 0;
+    // Requests relayed to an upstream server
+    public long forwarded = 0;
+    // Connections handed to another reactor when this one was retired
+    public long migrated = 0;
+    // Requests answered with BUSY
+    public long shed = 0;
+    // Requests parked on an equal call of an idempotent handler instead of calling it
+    public long coalesced = 0;
+    // Times a connection ran out of its ConnectionBudget and was put last in the ready list
+    public long budgetDeferrals = 0;
+
+    public void add(ReactorStats other) {
+        responses += other.responses;
+        writeFallbacks += other.writeFallbacks;
+        kvHandoffs += other.kvHandoffs;
+        pushes += other.pushes;
+        pushDrops += other.pushDrops;
+        slowConsumerDisconnects += other.slowConsumerDisconnects;
+        forwarded += other.forwarded;
+        migrated += other.migrated;
+        shed += other.shed;
+        coalesced += other.coalesced;
+        budgetDeferrals += other.budgetDeferrals;
+    }
+
+    public double writeFallbackRatio() {
+        return responses == 0 ? 0 : (double) writeFallbacks / responses;
+    }
+
+    @Override
+    public String toString() {
+        return "responses=" + responses +
+                ", writeFallbacks=" + writeFallbacks +
+                ", writeFallbackRatio=" + String.format("%.4f", writeFallbackRatio()) +
+                ", kvHandoffs=" + kvHandoffs +
+                ", pushes=" + pushes +
+                ", pushDrops=" + pushDrops +
+                ", slowConsumerDisconnects=" + slowConsumerDisconnects +
+                ", forwarded=" + forwarded +
+                ", migrated=" + migrated +
+                ", shed=" + shed +
+                ", coalesced=" + coalesced +
+                ", budgetDeferrals=" + budgetDeferrals;
+    }
+}
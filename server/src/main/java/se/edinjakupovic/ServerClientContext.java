@@ -1,70 +1,162 @@
 package se.edinjakupovic;
 
+import se.edinjakupovic.pubsub.Outbox;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-
-import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
-import static se.edinjakupovic.utils.PayloadUtils.isKeepAlive;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServerClientContext {
+    private static final AtomicInteger CONNECTION_IDS = new AtomicInteger();
+
+    public final int connectionId = CONNECTION_IDS.incrementAndGet();
     public ClientStatus status;
 
+    private final FrameCodec codec;
+    private final FrameCodec.Header header = new FrameCodec.Header();
+    private final int maxBodySize;
     public final ByteBuffer headerBuffer;
-    public byte tlvType = -1;
+    public int tlvType = -1;
     public int requestLength = -1;
 
+    public byte flags;
+
     public ByteBuffer bodyBuffer;
+    private ByteBuffer inflatedBuffer;
     public ByteBuffer responseBuffer;
+    private ByteBuffer compressedBuffer;
     public int responseLength;
 
     public boolean keepAlive;
 
-    public ServerClientContext(int headerSize) {
-        headerBuffer = ByteBuffer.allocate(headerSize);
+    // Work done in the current reactor loop iteration, see ConnectionBudget
+    public long budgetIteration = -1;
+    public int iterationBytes;
+    public int iterationFrames;
+    public boolean deferred;
+
+    // Messages to push, set once the connection subscribes
+    public Outbox outbox;
+
+    // Queueing delay of the request being served, only measured with load shedding
+    public long queuedNanos;
+    public long responseReadyAt;
+
+    public ServerClientContext(FrameCodec codec, int maxBodySize) {
+        this.codec = codec;
+        this.maxBodySize = maxBodySize;
+        headerBuffer = ByteBuffer.allocate(codec.maxHeaderSize()).limit(codec.minHeaderSize());
         status = ClientStatus.READING_HEADER;
     }
 
+    /**
+     * Sets the response, compressing it first if compression is enabled and the body is large enough.
+     */
+    public void setResponse(ByteBuffer response, Compression compression) {
+        if (compression != null) {
+            ByteBuffer compressed = compression.compressFrame(response, compressedBuffer);
+            if (compressed != response) compressedBuffer = compressed;
+            response = compressed;
+        }
+        setResponse(response);
+    }
+
     public void setResponse(ByteBuffer response) {
         this.responseBuffer = response;
         status = ClientStatus.WRITING_RESPONSE;
         responseLength = responseBuffer.remaining();
     }
 
-    public int readHeader(SocketChannel clientChannel,
-                          SelectionKey key) throws IOException {
-        int read = clientChannel.read(headerBuffer);
-        if (read < 0) {
-            clientChannel.close();
-            key.cancel();
-            return -1;
-        }
-        if (read == 0) return 0;
-        if (!headerBuffer.hasRemaining()) {
-            flipToReadingBody();
+    /**
+     * Resets the per iteration counters the first time the connection is served in {@code iteration}.
+     */
+    public void startIteration(long iteration) {
+        if (budgetIteration != iteration) {
+            budgetIteration = iteration;
+            iterationBytes = 0;
+            iterationFrames = 0;
         }
-        return read;
     }
 
-    private void flipToReadingBody() {
-        headerBuffer.flip();
-        byte typeByte = headerBuffer.get();
+    public boolean budgetExhausted(ConnectionBudget budget) {
+        return iterationBytes >= budget.bytesPerIteration() || iterationFrames >= budget.framesPerIteration();
+    }
 
-        tlvType = (byte) (typeByte & TLV_TYPE_MASK);
-        keepAlive = isKeepAlive(typeByte);
+    /**
+     * Reads the header without reading past it, a variable length header is read as far
+     * as it is known to go and extended until it is complete.
+     *
+     * @throws IOException if the header is malformed or the body is larger than the max body size
+     */
+    public int readHeader(SocketChannel clientChannel,
+                          SelectionKey key) throws IOException {
+        int total = 0;
+        while (true) {
+            int read = clientChannel.read(headerBuffer);
+            if (read < 0) {
+                clientChannel.close();
+                key.cancel();
+                return -1;
+            }
+            total += read;
+            if (headerBuffer.hasRemaining()) return total;
 
-        requestLength = headerBuffer.getInt();
+            int headerLength = codec.headerLength(headerBuffer, 0, headerBuffer.position());
+            if (headerLength > 0) {
+                flipToReadingBody();
+                return total;
+            }
+            headerBuffer.limit(headerBuffer.limit() - headerLength);
+        }
+    }
+
+    private void flipToReadingBody() throws IOException {
+        codec.decodeHeader(headerBuffer, 0, header);
+        tlvType = header.type;
+        keepAlive = header.keepAlive;
+        requestLength = header.length;
+        flags = header.flags;
+        if (requestLength > maxBodySize) {
+            throw new IOException("Body of " + requestLength + " bytes is larger than max " + maxBodySize);
+        }
         if (bodyBuffer == null || bodyBuffer.capacity() < requestLength) {
             bodyBuffer = ByteBuffer.allocate(requestLength);
         }
+        bodyBuffer.limit(requestLength);
         status = ClientStatus.READING_BODY;
     }
 
+    /**
+     * The fully read request body, inflated if the frame was flagged as compressed.
+     */
+    public ByteBuffer requestBody(Compression compression) throws IOException {
+        bodyBuffer.flip();
+        if (compression == null || !Compression.isCompressed(flags)) return bodyBuffer;
+        inflatedBuffer = compression.inflate(bodyBuffer, inflatedBuffer, maxBodySize);
+        return inflatedBuffer;
+    }
+
+    /**
+     * Header of the request as read, a view of the header buffer.
+     */
+    public ByteBuffer requestHeader() {
+        return headerBuffer.duplicate().flip();
+    }
+
+    /**
+     * Body of the request as read, still compressed if it was, a view of the body buffer.
+     */
+    public ByteBuffer rawRequestBody() {
+        return bodyBuffer.duplicate().rewind();
+    }
+
     public void resetCtx() {
-        headerBuffer.clear();
+        headerBuffer.clear().limit(codec.minHeaderSize());
         tlvType = -1;
         requestLength = -1;
+        flags = 0;
         bodyBuffer.clear();
         responseBuffer = null;
         responseLength = 0;
@@ -1,8 +1,34 @@
 package se.edinjakupovic;
 
+import se.edinjakupovic.capture.CaptureConfig;
+import se.edinjakupovic.journal.JournalConfig;
+import se.edinjakupovic.kv.KvConfig;
+import se.edinjakupovic.lanes.LaneConfig;
+import se.edinjakupovic.multi_reactor.ElasticConfig;
+import se.edinjakupovic.proxy.UpstreamConfig;
+import se.edinjakupovic.pubsub.PubSubConfig;
+import se.edinjakupovic.shedding.SheddingConfig;
+
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * The short constructor leaves every optional service off, the {@code with} methods turn them on one at a time.
+ *
+ * @param errorHandler answers unknown types, null for {@link ServerConstants#errorHandler} in the config's codec
+ * @param capture records incoming frames when set, null to disable
+ * @param kv      serves GET, PUT and DELETE on the reserved types when set, null to disable
+ * @param journal serves APPEND and READ of a durable log on the reserved types when set, null to disable
+ * @param pubSub  serves SUBSCRIBE, UNSUBSCRIBE and PUBLISH on the reserved types when set, null to disable,
+ *                only the multi reactor server supports it
+ * @param upstreams types relayed to other servers instead of handled here, below the reserved types,
+ *                  only the multi reactor server supports them
+ * @param elastic   scales the reactor count with load when set, null for a fixed count of {@code workers},
+ *                  only the multi reactor server supports it and not together with kv or pubSub
+ * @param shedding  answers requests with BUSY once queueing delay stays above its target when set, null to queue
+ *                  every request, only the multi reactor server supports it
+ */
 public record ServerConfig(
         InetSocketAddress bindAddress,
         TLVConfig config,
@@ -12,6 +38,113 @@ public record ServerConfig(
         int maxConnections,
         int workers,
         Map<Byte, MessageHandler> handlers,
-        MessageHandler errorHandler
+        MessageHandler errorHandler,
+        ConnectionBudget connectionBudget,
+        List<LaneConfig> lanes,
+        CaptureConfig capture,
+        KvConfig kv,
+        JournalConfig journal,
+        PubSubConfig pubSub,
+        List<UpstreamConfig> upstreams,
+        ElasticConfig elastic,
+        SheddingConfig shedding
 ) {
+    public ServerConfig {
+        if (errorHandler == null) errorHandler = ServerConstants.errorHandler(config.codec());
+        // A shard is owned by its reactor thread, a lane would run its handlers elsewhere
+        if (kv != null) requireNoLane(lanes, KvProtocol.GET, KvProtocol.DELETE);
+        // Appends are answered by the commit, not by a handler
+        if (journal != null) requireNoLane(lanes, JournalProtocol.APPEND, JournalProtocol.READ);
+        // Subscriptions belong to the connection's reactor
+        if (pubSub != null) requireNoLane(lanes, PubSubProtocol.MESSAGE, PubSubProtocol.PUBLISH);
+        if (elastic != null) {
+            // Shards and subscriptions belong to a fixed set of reactors
+            if (kv != null || pubSub != null) {
+                throw new IllegalArgumentException("An elastic reactor count works without the key-value service and publish/subscribe");
+            }
+            if (workers < elastic.minWorkers() || workers > elastic.maxWorkers()) {
+                throw new IllegalArgumentException("Workers " + workers + " outside the elastic range " + elastic.minWorkers() + ".." + elastic.maxWorkers());
+            }
+        }
+        for (int i = 0; i < upstreams.size(); i++) {
+            UpstreamConfig upstream = upstreams.get(i);
+            requireNoLane(lanes, upstream.fromType(), upstream.toType());
+            // The types from BUSY up belong to the server's own services and frames, enabled or not
+            if (upstream.toType() >= BusyProtocol.BUSY) {
+                throw new IllegalArgumentException("Upstream " + upstream.name() + " covers the reserved types "
+                        + BusyProtocol.BUSY + ".." + BatchProtocol.ERROR_TYPE);
+            }
+            for (int j = i + 1; j < upstreams.size(); j++) {
+                if (upstream.overlaps(upstreams.get(j))) {
+                    throw new IllegalArgumentException("Upstreams " + upstream.name() + " and " + upstreams.get(j).name() + " overlap");
+                }
+            }
+        }
+    }
+
+    public ServerConfig(InetSocketAddress bindAddress,
+                        TLVConfig config,
+                        long requestTimeoutMillis,
+                        long responseTimeoutMillis,
+                        int connectionBacklog,
+                        int maxConnections,
+                        int workers,
+                        Map<Byte, MessageHandler> handlers,
+                        MessageHandler errorHandler) {
+        this(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, ConnectionBudget.UNLIMITED, List.of(), null, null, null, null, List.of(), null, null);
+    }
+
+    public ServerConfig withConnectionBudget(ConnectionBudget connectionBudget) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withLanes(List<LaneConfig> lanes) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withCapture(CaptureConfig capture) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withKv(KvConfig kv) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withJournal(JournalConfig journal) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withPubSub(PubSubConfig pubSub) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withUpstreams(List<UpstreamConfig> upstreams) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withElastic(ElasticConfig elastic) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    public ServerConfig withShedding(SheddingConfig shedding) {
+        return new ServerConfig(bindAddress, config, requestTimeoutMillis, responseTimeoutMillis, connectionBacklog, maxConnections,
+                workers, handlers, errorHandler, connectionBudget, lanes, capture, kv, journal, pubSub, upstreams, elastic, shedding);
+    }
+
+    private static void requireNoLane(List<LaneConfig> lanes, int fromType, int toType) {
+        for (LaneConfig lane : lanes) {
+            if (lane.fromType() <= toType && fromType <= lane.toType()) {
+                throw new IllegalArgumentException("Lane " + lane.name() + " covers the reserved types " + fromType + ".." + toType);
+            }
+        }
+    }
 }
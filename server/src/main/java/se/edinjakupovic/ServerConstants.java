@@ -6,7 +6,21 @@ import static java.lang.Byte.MAX_VALUE;
 
 public class ServerConstants {
     public static Byte ERROR_TYPE = MAX_VALUE;
-    public static ByteBuffer ERROR_TYPE_BASE = ByteBuffer.wrap(new byte[]{MAX_VALUE, 0, 0, 0, 0});
     public static final byte KEEP_ALIVE_BIT = (byte) 0x80;
     public static final byte TLV_TYPE_MASK = (byte) 0x7f;
+
+    /**
+     * Empty frame of {@link #ERROR_TYPE} in the header layout of {@code codec}.
+     */
+    public static ByteBuffer errorFrame(FrameCodec codec) {
+        return codec.frame(ERROR_TYPE, new byte[0], false);
+    }
+
+    /**
+     * Answers every request with {@link #errorFrame}, the default error handler of a {@link ServerConfig}.
+     */
+    public static MessageHandler errorHandler(FrameCodec codec) {
+        ByteBuffer frame = errorFrame(codec).asReadOnlyBuffer();
+        return _ -> frame.duplicate();
+    }
 }
@@ -1,7 +1,44 @@
 package se.edinjakupovic;
 
+/**
+ * @param headerSizeBytes      largest header, 5 for the plain header and 6 adds a flags byte used for compression.
+ *                             Picks the codec unless one is given, see {@link #of(FrameCodec, int, int)}
+ * @param compressionThreshold smallest body in bytes that gets compressed when the codec has a flags byte
+ */
 public record TLVConfig(
         int headerSizeBytes,
-        int maxBodySize
+        int maxBodySize,
+        int compressionThreshold,
+        FrameCodec codec
 ) {
+    public TLVConfig {
+        if (headerSizeBytes != codec.maxHeaderSize()) {
+            throw new IllegalArgumentException("Header size " + headerSizeBytes + " does not match codec " + codec);
+        }
+        if (maxBodySize > codec.maxBodyLength()) {
+            throw new IllegalArgumentException("Max body size " + maxBodySize + " does not fit " + codec.lengthEncoding());
+        }
+    }
+
+    public TLVConfig(int headerSizeBytes, int maxBodySize, int compressionThreshold) {
+        this(headerSizeBytes, maxBodySize, compressionThreshold, headerSizeBytes >= Compression.FLAGS_HEADER_SIZE
+                ? FrameCodec.DEFAULT.withFlags()
+                : FrameCodec.DEFAULT);
+    }
+
+    public TLVConfig(int headerSizeBytes, int maxBodySize) {
+        this(headerSizeBytes, maxBodySize, Compression.DEFAULT_THRESHOLD);
+    }
+
+    public static TLVConfig of(FrameCodec codec, int maxBodySize, int compressionThreshold) {
+        return new TLVConfig(codec.maxHeaderSize(), maxBodySize, compressionThreshold, codec);
+    }
+
+    public boolean hasFlags() {
+        return codec.flags();
+    }
+
+    public Compression compression() {
+        return hasFlags() ? new Compression(codec, compressionThreshold) : null;
+    }
 }
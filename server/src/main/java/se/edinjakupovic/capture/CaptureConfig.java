@@ -0,0 +1,26 @@
+package se.edinjakupovic.capture;
+
+import java.nio.file.Path;
+
+/**
+ * Records every request the server reads to {@code file}, see {@link TrafficCapture}.
+ *
+ * @param capacityBytes size of the mapped file, frames that no longer fit are dropped
+ */
+public record CaptureConfig(
+        Path file,
+        int capacityBytes
+) {
+    public static final int DEFAULT_CAPACITY = 256 << 20;
+
+    public CaptureConfig {
+        if (file == null) throw new IllegalArgumentException("Capture needs a file");
+        if (capacityBytes < TrafficCapture.FILE_HEADER_SIZE + TrafficCapture.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Capture capacity of " + capacityBytes + " bytes can not hold a single record");
+        }
+    }
+
+    public CaptureConfig(Path file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+}
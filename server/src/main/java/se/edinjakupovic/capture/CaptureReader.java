@@ -0,0 +1,72 @@
+package se.edinjakupovic.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static se.edinjakupovic.capture.TrafficCapture.FILE_HEADER_SIZE;
+import static se.edinjakupovic.capture.TrafficCapture.MAGIC;
+import static se.edinjakupovic.capture.TrafficCapture.RECORD_HEADER_SIZE;
+
+/**
+ * Reads a file written by {@link TrafficCapture}.
+ */
+public final class CaptureReader {
+
+    /**
+     * @param nanos time since the capture started
+     * @param body  read only view into the mapped file
+     */
+    public record CapturedFrame(long nanos, int connectionId, int type, boolean keepAlive, ByteBuffer body) {
+    }
+
+    private CaptureReader() {
+    }
+
+    /**
+     * @return the frames in the order they were recorded
+     */
+    public static List<CapturedFrame> read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < FILE_HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+            throw new IOException(file + " is not a capture file");
+        }
+
+        List<CapturedFrame> frames = new ArrayList<>();
+        int at = FILE_HEADER_SIZE;
+        while (at + RECORD_HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(at);
+            if (length == 0) break;
+            if (length < RECORD_HEADER_SIZE || at + length > buffer.limit()) {
+                throw new IOException("Corrupt record at " + at + " in " + file);
+            }
+            frames.add(new CapturedFrame(
+                    buffer.getLong(at + 4),
+                    buffer.getInt(at + 12),
+                    buffer.getInt(at + 16),
+                    buffer.get(at + 20) != 0,
+                    buffer.slice(at + RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE).asReadOnlyBuffer()
+            ));
+            at += length;
+        }
+        return frames;
+    }
+
+    /**
+     * Wall clock start of the capture in microseconds since the epoch.
+     */
+    public static long startEpochMicros(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            channel.read(header, 0);
+            return header.getLong(8);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package se.edinjakupovic.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Append only capture of incoming frames into a memory mapped file, shared by all reactors.
+ * <p>
+ * Recording reserves space with a single atomic add and copies the frame into the mapping, so a reactor never
+ * waits for a lock or a write syscall. The file is sized to the capacity up front, frames that do not fit are
+ * counted as dropped.
+ * <pre>
+ * file:   [magic 8][start epoch micros 8][reserved 8][record]...
+ * record: [record length 4][nanos since start 8][connection id 4][type 4][keep alive 1][body]
+ * </pre>
+ * The record length is written last, a reader stops at the first record with length 0.
+ */
+public final class TrafficCapture implements AutoCloseable {
+    private static final Logger log = Logger.getLogger("TrafficCapture");
+    static final long MAGIC = 0x544C5643_41503031L; // TLVCAP01
+    static final int FILE_HEADER_SIZE = 24;
+    static final int RECORD_HEADER_SIZE = 21;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long startNanos;
+    private final AtomicLong position = new AtomicLong(FILE_HEADER_SIZE);
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private TrafficCapture(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.startNanos = System.nanoTime();
+        buffer.putLong(0, MAGIC);
+        buffer.putLong(8, System.currentTimeMillis() * 1000);
+    }
+
+    /**
+     * @return null if {@code config} is null, so servers can pass their optional config straight through
+     */
+    public static TrafficCapture open(CaptureConfig config) throws IOException {
+        if (config == null) return null;
+        FileChannel channel = FileChannel.open(config.file(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, config.capacityBytes());
+            return new TrafficCapture(channel, buffer, config.capacityBytes());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of {@code body} without moving its position.
+     *
+     * @return false if the capture is full and the frame was dropped
+     */
+    public boolean record(int connectionId, int type, boolean keepAlive, ByteBuffer body) {
+        int length = RECORD_HEADER_SIZE + body.remaining();
+        long offset = position.getAndAdd(length);
+        if (offset + length > capacity) {
+            dropped.increment();
+            return false;
+        }
+        int at = (int) offset;
+        buffer.putLong(at + 4, System.nanoTime() - startNanos);
+        buffer.putInt(at + 12, connectionId);
+        buffer.putInt(at + 16, type);
+        buffer.put(at + 20, (byte) (keepAlive ? 1 : 0));
+        buffer.put(at + RECORD_HEADER_SIZE, body, body.position(), body.remaining());
+        buffer.putInt(at, length);
+        recorded.increment();
+        return true;
+    }
+
+    public long recorded() {
+        return recorded.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Flushes the mapping to disk. The mapping itself stays valid, a reactor still finishing a record is safe.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+        log.info("Captured " + recorded() + " frames, dropped " + dropped());
+    }
+}
@@ -0,0 +1,243 @@
+package se.edinjakupovic.journal;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.JournalProtocol;
+import se.edinjakupovic.MessageHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Append only log of records in memory mapped segments, shared by all reactors of a server.
+ * <p>
+ * Appends only copy into the mapping. Making them durable is the committer thread's job, it forces every segment
+ * written since its last force once for all commits waiting at that time, so concurrent appends share one force.
+ * Reads only see records that were forced.
+ * <p>
+ * A failed force fails the journal, what reached the disk is unknown and the failed records must never become readable
+ * through a later force. Every later append and commit fails, reopening the directory recovers what is on disk.
+ */
+public final class Journal implements AutoCloseable {
+    private static final Logger log = Logger.getLogger("Journal");
+    static final long TOO_LARGE = -1;
+
+    public interface CommitListener {
+        /**
+         * Called on the committer thread once every record appended before the commit is on disk.
+         *
+         * @param failure null if the force succeeded, otherwise the failure that failed the journal
+         */
+        void onCommit(IOException failure);
+    }
+
+    private final JournalConfig config;
+    // Guarded by this
+    private final List<Segment> segments = new ArrayList<>();
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+    private Segment active;
+    private long nextOffset;
+
+    private volatile long durableOffset;
+    private volatile long forces;
+    private volatile IOException failure;
+    private final LinkedBlockingQueue<CommitListener> commits = new LinkedBlockingQueue<>();
+    private final Thread committer;
+
+    private Journal(JournalConfig config, List<Segment> existing) throws IOException {
+        this.config = config;
+        segments.addAll(existing);
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(config.directory(), 0, config.segmentBytes(), config.indexInterval()));
+        }
+        active = segments.getLast();
+        nextOffset = active.baseOffset + active.records();
+        durableOffset = nextOffset;
+        committer = new Thread(this::commitLoop, "journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Opens the segments in the config's directory, or starts a new journal there.
+     *
+     * @return null if {@code config} is null
+     */
+    public static Journal open(JournalConfig config) throws IOException {
+        if (config == null) return null;
+        Files.createDirectories(config.directory());
+        List<Segment> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(config.directory())) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".log")).sorted().toList()) {
+                segments.add(Segment.open(file, config.indexInterval()));
+            }
+        }
+        Journal journal = new Journal(config, segments);
+        log.info("Opened journal in " + config.directory() + " at offset " + journal.durableOffset);
+        return journal;
+    }
+
+    /**
+     * Copies the remaining bytes of {@code body} into the active segment, rolling to a new one if it is full.
+     * The record is not durable before a {@link #commit} that was called after this returned.
+     *
+     * @return the record's offset or {@link #TOO_LARGE} if it would not fit into an empty segment
+     * @throws IOException if the journal failed
+     */
+    public synchronized long append(ByteBuffer body) throws IOException {
+        if (failure != null) throw new IOException("Journal failed", failure);
+        if ((long) Segment.RECORD_HEADER_SIZE + body.remaining() > config.segmentBytes()) return TOO_LARGE;
+        if (!active.fits(body.remaining())) {
+            active = Segment.create(config.directory(), nextOffset, config.segmentBytes(), config.indexInterval());
+            segments.add(active);
+        }
+        active.append(body);
+        dirty.add(active);
+        return nextOffset++;
+    }
+
+    /**
+     * Queues a commit, {@code listener} is called once the records appended so far are durable.
+     */
+    public void commit(CommitListener listener) {
+        commits.add(listener);
+    }
+
+    /**
+     * @return a copy of the record or null if there is no durable record at {@code offset}
+     */
+    public synchronized ByteBuffer read(long offset) {
+        if (offset < 0 || offset >= durableOffset) return null;
+        int low = 0, high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).baseOffset <= offset) low = mid;
+            else high = mid - 1;
+        }
+        ByteBuffer record = segments.get(low).read(offset);
+        return ByteBuffer.allocate(record.remaining()).put(record).flip();
+    }
+
+    /**
+     * Adds the READ handler to {@code handlers}, APPEND goes through a {@link JournalDispatcher}.
+     *
+     * @param codec of the server, responses use its header layout
+     */
+    public Map<Byte, MessageHandler> withHandlers(Map<Byte, MessageHandler> handlers, FrameCodec codec) {
+        Map<Byte, MessageHandler> all = new HashMap<>(handlers);
+        all.put(JournalProtocol.READ, body -> readResponse(body, codec));
+        return all;
+    }
+
+    private ByteBuffer readResponse(ByteBuffer body, FrameCodec codec) {
+        if (body.remaining() != Long.BYTES) return status(codec, JournalProtocol.READ, JournalProtocol.MALFORMED);
+        ByteBuffer record = read(body.getLong(body.position()));
+        if (record == null) return status(codec, JournalProtocol.READ, JournalProtocol.NOT_FOUND);
+        int length = 1 + record.remaining();
+        ByteBuffer response = ByteBuffer.allocate(codec.headerSize(length) + length);
+        int headerSize = codec.encodeHeader(response, 0, JournalProtocol.READ, true, length, (byte) 0);
+        return response.put(headerSize, JournalProtocol.OK).put(headerSize + 1, record, 0, record.remaining());
+    }
+
+    static ByteBuffer status(FrameCodec codec, byte type, byte status) {
+        return codec.frame(type, new byte[]{status}, true);
+    }
+
+    /**
+     * Offset the next durable record gets, every record below it is on disk.
+     */
+    public long durableOffset() {
+        return durableOffset;
+    }
+
+    /**
+     * Forces done so far, lower than the number of commits when commits share them.
+     */
+    public long forces() {
+        return forces;
+    }
+
+    private void commitLoop() {
+        List<CommitListener> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(commits.take());
+                if (config.commitWindowMicros() > 0) {
+                    TimeUnit.MICROSECONDS.sleep(config.commitWindowMicros());
+                }
+                commits.drainTo(batch);
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Closing, answer whatever is still waiting
+            commits.drainTo(batch);
+            commit(batch);
+        }
+    }
+
+    private void commit(List<CommitListener> batch) {
+        List<Segment> toForce;
+        long end;
+        synchronized (this) {
+            toForce = List.copyOf(dirty);
+            dirty.clear();
+            end = nextOffset;
+        }
+        if (failure == null) {
+            try {
+                for (Segment segment : toForce) {
+                    segment.force();
+                }
+                if (!toForce.isEmpty()) forces++;
+                durableOffset = end;
+            } catch (UncheckedIOException e) {
+                fail(e.getCause());
+            }
+        }
+        IOException failed = failure;
+        for (CommitListener listener : batch) {
+            listener.onCommit(failed);
+        }
+    }
+
+    /**
+     * Fails the journal, the durable offset stays where the last successful force left it.
+     */
+    synchronized void fail(IOException cause) {
+        if (failure != null) return;
+        failure = cause;
+        log.severe("Failed to force journal at offset " + durableOffset + ", failing it: " + cause.getMessage());
+    }
+
+    /**
+     * Commits what is pending and closes the segments, later appends fail.
+     */
+    @Override
+    public void close() throws IOException {
+        committer.interrupt();
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+        log.info("Closed journal at offset " + durableOffset + " after " + forces + " forces");
+    }
+}
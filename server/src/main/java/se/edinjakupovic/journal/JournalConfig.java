@@ -0,0 +1,28 @@
+package se.edinjakupovic.journal;
+
+import java.nio.file.Path;
+
+/**
+ * Turns on the durable log on the reserved types, see {@link se.edinjakupovic.JournalProtocol}.
+ *
+ * @param directory          segments are kept here and read back when the server starts again
+ * @param segmentBytes       size of each memory mapped segment, also the largest record
+ * @param commitWindowMicros time the committer waits after the first pending append for more, 0 commits right away
+ *                           and only shares a force between appends that are pending at the same time
+ * @param indexInterval      records between two entries of a segment's index, a read scans at most this many
+ */
+public record JournalConfig(Path directory, int segmentBytes, long commitWindowMicros, int indexInterval) {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL = 64;
+
+    public JournalConfig {
+        if (segmentBytes <= Segment.RECORD_HEADER_SIZE || commitWindowMicros < 0 || indexInterval <= 0) {
+            throw new IllegalArgumentException("Journal needs segments larger than a record header, "
+                    + "a non-negative commit window and a positive index interval");
+        }
+    }
+
+    public JournalConfig(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, 0, DEFAULT_INDEX_INTERVAL);
+    }
+}
@@ -0,0 +1,118 @@
+package se.edinjakupovic.journal;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.JournalProtocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Per reactor side of the journal. Appends read in a loop iteration are committed together when the iteration ends,
+ * their connections get the responses once the committer reports the commit, through a completion queue like lanes.
+ * <p>
+ * Everything except {@link Batch#onCommit} runs on the reactor thread.
+ */
+public final class JournalDispatcher {
+    private static final long FAILED = -2;
+
+    private final Journal journal;
+    private final Selector selector;
+    private final FrameCodec codec;
+    private final Queue<Batch> completions = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+    private Batch pending = new Batch();
+
+    private final class Batch implements Journal.CommitListener {
+        private SelectionKey[] keys = new SelectionKey[8];
+        private long[] offsets = new long[8];
+        private int size;
+        private volatile IOException failure;
+
+        void add(SelectionKey key, long offset) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            keys[size] = key;
+            offsets[size++] = offset;
+        }
+
+        @Override
+        public void onCommit(IOException failure) {
+            this.failure = failure;
+            completions.add(this);
+            if (wakeupRequested.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    public JournalDispatcher(Journal journal, Selector selector, FrameCodec codec) {
+        this.journal = journal;
+        this.selector = selector;
+        this.codec = codec;
+    }
+
+    /**
+     * Appends the record, the key stops being selected until the commit answered it.
+     *
+     * @return false if the type is not APPEND
+     */
+    public boolean append(SelectionKey key, byte type, ByteBuffer body) {
+        if (type != JournalProtocol.APPEND) return false;
+        long offset;
+        try {
+            offset = journal.append(body);
+        } catch (IOException e) {
+            offset = FAILED;
+        }
+        key.interestOps(0);
+        pending.add(key, offset);
+        return true;
+    }
+
+    /**
+     * Commits the appends of this iteration.
+     */
+    public void flush() {
+        if (pending.size == 0) return;
+        journal.commit(pending);
+        pending = new Batch();
+    }
+
+    /**
+     * @return true from the moment another thread posts work until the next drain
+     */
+    public boolean hasPending() {
+        return wakeupRequested.get();
+    }
+
+    /**
+     * Hands the responses of committed appends to the reactor, a null response means the append failed.
+     */
+    public void drainCompletions(BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        wakeupRequested.set(false);
+        Batch batch;
+        while ((batch = completions.poll()) != null) {
+            for (int i = 0; i < batch.size; i++) {
+                onResponse.accept(batch.keys[i], batch.failure == null ? response(batch.offsets[i]) : null);
+            }
+        }
+    }
+
+    private ByteBuffer response(long offset) {
+        if (offset == FAILED) return null;
+        if (offset == Journal.TOO_LARGE) return Journal.status(codec, JournalProtocol.APPEND, JournalProtocol.TOO_LARGE);
+        byte[] body = new byte[1 + Long.BYTES];
+        body[0] = JournalProtocol.OK;
+        ByteBuffer.wrap(body).putLong(1, offset);
+        return codec.frame(JournalProtocol.APPEND, body, true);
+    }
+}
@@ -0,0 +1,128 @@
+package se.edinjakupovic.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * One memory mapped file of the journal, named after the offset of its first record.
+ * <pre>
+ * record: [record length 4][body]
+ * </pre>
+ * The length includes its own 4 bytes and is written after the body, the zero filled rest of the file ends the segment.
+ * Every {@code indexInterval}-th record's position is kept in memory, rebuilt by scanning when the segment is opened.
+ * <p>
+ * Guarded by the {@link Journal}.
+ */
+final class Segment implements AutoCloseable {
+    static final int RECORD_HEADER_SIZE = 4;
+
+    final long baseOffset;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int indexInterval;
+    private int[] index = new int[16];
+    private int records;
+    private int position;
+
+    private Segment(long baseOffset, FileChannel channel, MappedByteBuffer buffer, int indexInterval) {
+        this.baseOffset = baseOffset;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.indexInterval = indexInterval;
+    }
+
+    static Path file(Path directory, long baseOffset) {
+        return directory.resolve("%020d.log".formatted(baseOffset));
+    }
+
+    static Segment create(Path directory, long baseOffset, int segmentBytes, int indexInterval) throws IOException {
+        return map(file(directory, baseOffset), baseOffset, segmentBytes, indexInterval);
+    }
+
+    /**
+     * Maps an existing segment and finds its end.
+     */
+    static Segment open(Path file, int indexInterval) throws IOException {
+        String name = file.getFileName().toString();
+        long baseOffset = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+        Segment segment = map(file, baseOffset, (int) Files.size(file), indexInterval);
+        ByteBuffer buffer = segment.buffer;
+        int at = 0;
+        while (at + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(at);
+            if (length < RECORD_HEADER_SIZE || at + length > buffer.capacity()) break;
+            segment.indexRecord(at);
+            at += length;
+        }
+        segment.position = at;
+        return segment;
+    }
+
+    private static Segment map(Path file, long baseOffset, int size, int indexInterval) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new Segment(baseOffset, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), indexInterval);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    boolean fits(int bodyLength) {
+        return (long) position + RECORD_HEADER_SIZE + bodyLength <= buffer.capacity();
+    }
+
+    /**
+     * Copies the remaining bytes of {@code body} without moving its position, see {@link #fits(int)}.
+     */
+    void append(ByteBuffer body) {
+        int at = position;
+        buffer.put(at + RECORD_HEADER_SIZE, body, body.position(), body.remaining());
+        buffer.putInt(at, RECORD_HEADER_SIZE + body.remaining());
+        position += RECORD_HEADER_SIZE + body.remaining();
+        indexRecord(at);
+    }
+
+    private void indexRecord(int at) {
+        if (records % indexInterval == 0) {
+            int slot = records / indexInterval;
+            if (slot == index.length) index = Arrays.copyOf(index, slot * 2);
+            index[slot] = at;
+        }
+        records++;
+    }
+
+    /**
+     * @return the body of record {@code offset}, which must be in this segment, as a view into the mapping
+     */
+    ByteBuffer read(long offset) {
+        int relative = (int) (offset - baseOffset);
+        int at = index[relative / indexInterval];
+        for (int i = relative % indexInterval; i > 0; i--) {
+            at += buffer.getInt(at);
+        }
+        return buffer.slice(at + RECORD_HEADER_SIZE, buffer.getInt(at) - RECORD_HEADER_SIZE);
+    }
+
+    int records() {
+        return records;
+    }
+
+    /**
+     * Writes the dirty pages of the mapping to the device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
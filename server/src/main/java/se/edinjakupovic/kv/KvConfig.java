@@ -0,0 +1,21 @@
+package se.edinjakupovic.kv;
+
+/**
+ * Turns on the key-value service on the reserved types, see {@link se.edinjakupovic.KvProtocol}.
+ *
+ * @param shardCapacityBytes direct memory for the keys and values of each shard, a multi reactor server
+ *                           has one shard per reactor
+ */
+public record KvConfig(int shardCapacityBytes) {
+    public static final int DEFAULT_SHARD_CAPACITY = 64 * 1024 * 1024;
+
+    public KvConfig {
+        if (shardCapacityBytes <= 0) {
+            throw new IllegalArgumentException("Shard capacity must be positive, got " + shardCapacityBytes);
+        }
+    }
+
+    public KvConfig() {
+        this(DEFAULT_SHARD_CAPACITY);
+    }
+}
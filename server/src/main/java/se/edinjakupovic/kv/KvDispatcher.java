@@ -0,0 +1,115 @@
+package se.edinjakupovic.kv;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.KvProtocol;
+import se.edinjakupovic.MessageHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Per reactor side of the key-value service. The reactor owns one shard and serves its keys itself,
+ * a request for another shard is handed to the owning reactor and its response handed back, both through
+ * the receiving reactor's inbox. Shards are never touched by two threads, so they need no locks.
+ * <p>
+ * Everything except {@link #post} runs on the reactor thread.
+ */
+public final class KvDispatcher {
+    private final KvStore store;
+    private final int index;
+    private final Selector selector;
+    private final KvShard shard;
+    private final Queue<Message> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+
+    private sealed interface Message {
+    }
+
+    /**
+     * @param body view of the origin connection's buffer, the connection reads nothing until it has its response
+     */
+    private record Request(KvDispatcher origin, SelectionKey key, byte type, ByteBuffer body) implements Message {
+    }
+
+    private record Response(SelectionKey key, ByteBuffer response) implements Message {
+    }
+
+    public KvDispatcher(KvStore store, int index, Selector selector, FrameCodec codec) {
+        this.store = store;
+        this.index = index;
+        this.selector = selector;
+        this.shard = new KvShard(store.config(), codec);
+        store.register(index, this);
+    }
+
+    KvShard shard() {
+        return shard;
+    }
+
+    /**
+     * Handlers for keys of this reactor's shard, requests for other shards never reach them.
+     */
+    public Map<Byte, MessageHandler> withHandlers(Map<Byte, MessageHandler> handlers) {
+        return shard.withHandlers(handlers);
+    }
+
+    /**
+     * Hands the request to the owning reactor, the key stops being selected until the response is back.
+     *
+     * @return false if the type is not a key-value type or this reactor owns the key
+     */
+    public boolean handOff(SelectionKey key, byte type, ByteBuffer body) {
+        if (!KvProtocol.isKvType(type)) return false;
+        ByteBuffer requestKey = KvProtocol.key(type, body);
+        // Malformed, answered by the local handler
+        if (requestKey == null) return false;
+        int owner = store.shardFor(OffHeapTable.hash(requestKey));
+        if (owner == index) return false;
+        key.interestOps(0);
+        store.reactor(owner).post(new Request(this, key, type, body));
+        return true;
+    }
+
+    private void post(Message message) {
+        inbox.add(message);
+        if (wakeupRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return true from the moment another thread posts work until the next drain
+     */
+    public boolean hasPending() {
+        return wakeupRequested.get();
+    }
+
+    /**
+     * Serves requests handed over by other reactors and passes responses to requests this reactor handed off
+     * to {@code onResponse}.
+     */
+    public void drain(BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        wakeupRequested.set(false);
+        Message message;
+        while ((message = inbox.poll()) != null) {
+            switch (message) {
+                case Request request -> {
+                    ByteBuffer response;
+                    try {
+                        response = shard.process(request.type(), request.body());
+                    } catch (RuntimeException e) {
+                        response = null;
+                    }
+                    request.origin().post(new Response(request.key(), response));
+                }
+                case Response response -> onResponse.accept(response.key(), response.response());
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package se.edinjakupovic.kv;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.KvProtocol;
+import se.edinjakupovic.MessageHandler;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One shard of the key-value service, only ever called from the reactor thread that owns it.
+ */
+public final class KvShard {
+    private final OffHeapTable table;
+    private final FrameCodec codec;
+    public long gets, hits, puts, deletes;
+
+    /**
+     * @param codec of the server, responses use its header layout
+     */
+    public KvShard(KvConfig config, FrameCodec codec) {
+        this.table = new OffHeapTable(config.shardCapacityBytes());
+        this.codec = codec;
+    }
+
+    /**
+     * Adds the GET, PUT and DELETE handlers of this shard to {@code handlers}.
+     */
+    public Map<Byte, MessageHandler> withHandlers(Map<Byte, MessageHandler> handlers) {
+        Map<Byte, MessageHandler> all = new HashMap<>(handlers);
+        all.put(KvProtocol.GET, body -> process(KvProtocol.GET, body));
+        all.put(KvProtocol.PUT, body -> process(KvProtocol.PUT, body));
+        all.put(KvProtocol.DELETE, body -> process(KvProtocol.DELETE, body));
+        return all;
+    }
+
+    /**
+     * @return the response frame
+     */
+    public ByteBuffer process(byte type, ByteBuffer body) {
+        ByteBuffer key = KvProtocol.key(type, body);
+        if (key == null) return status(type, KvProtocol.MALFORMED);
+        int hash = OffHeapTable.hash(key);
+        return switch (type) {
+            case KvProtocol.GET -> {
+                gets++;
+                ByteBuffer value = table.get(key, hash);
+                if (value == null) yield status(type, KvProtocol.NOT_FOUND);
+                hits++;
+                int length = 1 + value.remaining();
+                ByteBuffer response = ByteBuffer.allocate(codec.headerSize(length) + length);
+                int headerSize = codec.encodeHeader(response, 0, type, true, length, (byte) 0);
+                yield response.put(headerSize, KvProtocol.OK).put(headerSize + 1, value, 0, value.remaining());
+            }
+            case KvProtocol.PUT -> {
+                puts++;
+                yield status(type, table.put(key, KvProtocol.value(body), hash) ? KvProtocol.OK : KvProtocol.FULL);
+            }
+            case KvProtocol.DELETE -> {
+                deletes++;
+                yield status(type, table.remove(key, hash) ? KvProtocol.OK : KvProtocol.NOT_FOUND);
+            }
+            default -> throw new IllegalArgumentException("Type " + type + " is not a key-value type");
+        };
+    }
+
+    private ByteBuffer status(byte type, byte status) {
+        return codec.frame(type, new byte[]{status}, true);
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public int liveBytes() {
+        return table.liveBytes();
+    }
+}
@@ -0,0 +1,52 @@
+package se.edinjakupovic.kv;
+
+/**
+ * Key-value service of a multi reactor server, one {@link KvShard} per reactor, shared by all of them.
+ */
+public final class KvStore {
+    private final KvConfig config;
+    private final KvDispatcher[] reactors;
+
+    private KvStore(KvConfig config, int shards) {
+        this.config = config;
+        this.reactors = new KvDispatcher[shards];
+    }
+
+    /**
+     * @return null if {@code config} is null
+     */
+    public static KvStore open(KvConfig config, int shards) {
+        if (config == null) return null;
+        return new KvStore(config, shards);
+    }
+
+    KvConfig config() {
+        return config;
+    }
+
+    /**
+     * Called by each reactor while the server starts, before any request is routed.
+     */
+    void register(int shard, KvDispatcher reactor) {
+        reactors[shard] = reactor;
+    }
+
+    KvDispatcher reactor(int shard) {
+        return reactors[shard];
+    }
+
+    public int shards() {
+        return reactors.length;
+    }
+
+    /**
+     * Uses the high bits of the hash, the shard's table probes from the low ones.
+     */
+    int shardFor(int hash) {
+        return (int) (((hash & 0xffffffffL) * reactors.length) >>> 32);
+    }
+
+    public KvShard shard(int index) {
+        return reactors[index].shard();
+    }
+}
@@ -0,0 +1,231 @@
+package se.edinjakupovic.kv;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table with keys and values in direct memory, owned by one thread.
+ * <p>
+ * Slots are longs, the key's hash in the high half and the entry's arena offset + 1 in the low half,
+ * so a probe compares hashes without touching the arena. Entries are appended to the arena,
+ * overwritten and deleted ones stay behind as garbage until the arena is compacted.
+ * <pre>
+ * entry: [key length 4][value length 4][key][value]
+ * </pre>
+ * The arena grows up to {@code maxBytes}, then compacts in place. A put that does not fit after compacting fails.
+ */
+final class OffHeapTable {
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = 0xffffffffL << 32;
+    private static final int ENTRY_HEADER = 8;
+    private static final int MIN_SLOTS = 1024;
+    private static final int MIN_ARENA = 64 * 1024;
+
+    private final int maxBytes;
+    private ByteBuffer slots;
+    private int slotMask;
+    // Live entries and tombstones, the table grows when they fill 3/4 of it
+    private int usedSlots;
+    private int size;
+    private ByteBuffer arena;
+    private int arenaTop;
+    private int liveBytes;
+    private int compactions;
+
+    OffHeapTable(int maxBytes) {
+        this.maxBytes = maxBytes;
+        this.slots = ByteBuffer.allocateDirect(MIN_SLOTS * Long.BYTES);
+        this.slotMask = MIN_SLOTS - 1;
+        this.arena = ByteBuffer.allocateDirect(Math.min(MIN_ARENA, maxBytes));
+    }
+
+    static int hash(ByteBuffer key) {
+        int h = 0x811c9dc5;
+        int i = key.position();
+        for (; i + 4 <= key.limit(); i += 4) {
+            h = (h ^ key.getInt(i)) * 0x01000193;
+        }
+        for (; i < key.limit(); i++) {
+            h = (h ^ key.get(i)) * 0x01000193;
+        }
+        // murmur3 finalizer, both halves of the hash get used
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return a view of the value, valid until the next put or remove, or null if the key is absent
+     */
+    ByteBuffer get(ByteBuffer key, int hash) {
+        int slot = find(key, hash);
+        if (slot < 0) return null;
+        int entry = offset(slots.getLong(slot * Long.BYTES));
+        int keyLength = arena.getInt(entry);
+        return arena.slice(entry + ENTRY_HEADER + keyLength, arena.getInt(entry + 4));
+    }
+
+    /**
+     * @return false if the entry does not fit into {@code maxBytes}
+     */
+    boolean put(ByteBuffer key, ByteBuffer value, int hash) {
+        int entrySize = ENTRY_HEADER + key.remaining() + value.remaining();
+        if (!reserve(entrySize)) return false;
+
+        int entry = arenaTop;
+        arena.putInt(entry, key.remaining());
+        arena.putInt(entry + 4, value.remaining());
+        arena.put(entry + ENTRY_HEADER, key, key.position(), key.remaining());
+        arena.put(entry + ENTRY_HEADER + key.remaining(), value, value.position(), value.remaining());
+        arenaTop += entrySize;
+        liveBytes += entrySize;
+
+        int existing = find(key, hash);
+        if (existing >= 0) {
+            liveBytes -= entrySize(offset(slots.getLong(existing * Long.BYTES)));
+            slots.putLong(existing * Long.BYTES, slot(hash, entry));
+            return true;
+        }
+        insert(hash, entry);
+        size++;
+        int slotCount = slotMask + 1;
+        if (usedSlots * 4L > slotCount * 3L) {
+            // Mostly tombstones, rehashing at the same size is enough
+            rehash(size * 2 > slotCount ? slotCount * 2 : slotCount);
+        }
+        return true;
+    }
+
+    boolean remove(ByteBuffer key, int hash) {
+        int slot = find(key, hash);
+        if (slot < 0) return false;
+        liveBytes -= entrySize(offset(slots.getLong(slot * Long.BYTES)));
+        slots.putLong(slot * Long.BYTES, TOMBSTONE);
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Bytes of the live entries, the arena can hold more as garbage.
+     */
+    int liveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Times the arena was compacted, into a grown arena or in place.
+     */
+    int compactions() {
+        return compactions;
+    }
+
+    private int find(ByteBuffer key, int hash) {
+        for (int i = hash & slotMask; ; i = (i + 1) & slotMask) {
+            long slot = slots.getLong(i * Long.BYTES);
+            if (slot == EMPTY) return -1;
+            if (slot != TOMBSTONE && (int) (slot >>> 32) == hash && keyEquals(offset(slot), key)) return i;
+        }
+    }
+
+    private void insert(int hash, int entry) {
+        for (int i = hash & slotMask; ; i = (i + 1) & slotMask) {
+            long slot = slots.getLong(i * Long.BYTES);
+            if (slot == EMPTY || slot == TOMBSTONE) {
+                if (slot == EMPTY) usedSlots++;
+                slots.putLong(i * Long.BYTES, slot(hash, entry));
+                return;
+            }
+        }
+    }
+
+    private boolean keyEquals(int entry, ByteBuffer key) {
+        int length = arena.getInt(entry);
+        if (length != key.remaining()) return false;
+        int at = entry + ENTRY_HEADER;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if (arena.getLong(at + i) != key.getLong(key.position() + i)) return false;
+        }
+        for (; i < length; i++) {
+            if (arena.get(at + i) != key.get(key.position() + i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes room for {@code entrySize} bytes at the arena top. Below {@code maxBytes} the arena grows unless at least
+     * half of it is garbage, at {@code maxBytes} the garbage is compacted away in place.
+     *
+     * @return false if the live entries and this one do not fit into {@code maxBytes}, so there is not enough
+     * garbage to reclaim
+     */
+    private boolean reserve(int entrySize) {
+        if (arenaTop + entrySize <= arena.capacity()) return true;
+        if ((long) liveBytes + entrySize > maxBytes) return false;
+        int garbage = arenaTop - liveBytes;
+        int capacity = arena.capacity();
+        if (capacity < maxBytes && (garbage < capacity / 2 || liveBytes + entrySize > capacity)) {
+            long grown = Math.max((long) capacity * 2, (long) liveBytes + entrySize);
+            compact(ByteBuffer.allocateDirect((int) Math.min(grown, maxBytes)));
+        } else {
+            compact(arena);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the live entries to the start of {@code target}, which may be the arena itself. Entries move in arena
+     * order, so in place an entry only ever moves down over bytes already moved or garbage.
+     */
+    private void compact(ByteBuffer target) {
+        long[] entries = new long[size];
+        int count = 0;
+        for (int i = 0; i <= slotMask; i++) {
+            long slot = slots.getLong(i * Long.BYTES);
+            if (slot != EMPTY && slot != TOMBSTONE) entries[count++] = ((long) offset(slot) << 32) | i;
+        }
+        Arrays.sort(entries, 0, count);
+        int top = 0;
+        for (int j = 0; j < count; j++) {
+            int entry = (int) (entries[j] >>> 32);
+            int i = (int) entries[j];
+            int length = entrySize(entry);
+            if (target != arena || top != entry) target.put(top, arena, entry, length);
+            slots.putLong(i * Long.BYTES, slot((int) (slots.getLong(i * Long.BYTES) >>> 32), top));
+            top += length;
+        }
+        arena = target;
+        arenaTop = top;
+        compactions++;
+    }
+
+    private void rehash(int slotCount) {
+        ByteBuffer old = slots;
+        int oldCount = slotMask + 1;
+        slots = ByteBuffer.allocateDirect(slotCount * Long.BYTES);
+        slotMask = slotCount - 1;
+        usedSlots = 0;
+        for (int i = 0; i < oldCount; i++) {
+            long slot = old.getLong(i * Long.BYTES);
+            if (slot != EMPTY && slot != TOMBSTONE) insert((int) (slot >>> 32), offset(slot));
+        }
+    }
+
+    private int entrySize(int entry) {
+        return ENTRY_HEADER + arena.getInt(entry) + arena.getInt(entry + 4);
+    }
+
+    private static long slot(int hash, int entry) {
+        return ((long) hash << 32) | (entry + 1L);
+    }
+
+    private static int offset(long slot) {
+        return (int) slot - 1;
+    }
+}
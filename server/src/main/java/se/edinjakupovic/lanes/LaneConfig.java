@@ -0,0 +1,32 @@
+package se.edinjakupovic.lanes;
+
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
+/**
+ * Runs handlers for types {@code fromType..toType} (inclusive) on their own executor instead of the reactor thread.
+ *
+ * @param priority       lanes with a higher priority are dispatched first within a loop iteration
+ * @param maxConcurrency handlers of this lane running at the same time
+ * @param queueBound     requests waiting for a free slot before new ones are rejected with an error response
+ */
+public record LaneConfig(
+        String name,
+        int fromType,
+        int toType,
+        int priority,
+        int maxConcurrency,
+        int queueBound
+) {
+    public LaneConfig {
+        if (fromType < 0 || toType > TLV_TYPE_MASK || fromType > toType) {
+            throw new IllegalArgumentException("Lane " + name + " has invalid type range " + fromType + ".." + toType);
+        }
+        if (maxConcurrency <= 0 || queueBound < 0) {
+            throw new IllegalArgumentException("Lane " + name + " needs a positive concurrency and non-negative queue bound");
+        }
+    }
+
+    public boolean overlaps(LaneConfig other) {
+        return fromType <= other.toType && other.fromType <= toType;
+    }
+}
@@ -0,0 +1,176 @@
+package se.edinjakupovic.lanes;
+
+import se.edinjakupovic.BatchMessageHandler;
+import se.edinjakupovic.CoalescingMessageHandler;
+import se.edinjakupovic.FrameBatcher;
+import se.edinjakupovic.MessageHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Per reactor side of the lanes. Requests read in a loop iteration are collected per lane and
+ * submitted highest priority first when the iteration ends, responses are handed back to the
+ * reactor thread through a completion queue.
+ * <p>
+ * Everything except the lane tasks themselves runs on the reactor thread.
+ */
+public final class LaneDispatcher {
+    private final Lanes lanes;
+    private final Selector selector;
+    private final MessageHandler errorHandler;
+    // Requests dispatched since the last flush, one list per lane
+    private final List<ArrayList<Pending>> pending;
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+
+    private sealed interface Pending {
+        void run();
+
+        void reject();
+    }
+
+    private record Single(LaneDispatcher lanes, SelectionKey key, MessageHandler handler, ByteBuffer body) implements Pending {
+        @Override
+        public void run() {
+            ByteBuffer response;
+            try {
+                response = handler.processMessage(body);
+            } catch (RuntimeException e) {
+                response = null;
+            }
+            lanes.complete(key, response);
+        }
+
+        @Override
+        public void reject() {
+            lanes.complete(key, lanes.errorHandler.processMessage(body));
+        }
+    }
+
+    private record Batch(LaneDispatcher lanes, List<SelectionKey> keys, BatchMessageHandler handler, List<ByteBuffer> bodies) implements Pending {
+        @Override
+        public void run() {
+            List<ByteBuffer> responses = FrameBatcher.process(handler, bodies);
+            for (int i = 0; i < keys.size(); i++) {
+                lanes.complete(keys.get(i), responses == null ? null : responses.get(i));
+            }
+        }
+
+        @Override
+        public void reject() {
+            for (int i = 0; i < keys.size(); i++) {
+                lanes.complete(keys.get(i), lanes.errorHandler.processMessage(bodies.get(i)));
+            }
+        }
+    }
+
+    private record Completion(SelectionKey key, ByteBuffer response) {
+    }
+
+    public LaneDispatcher(Lanes lanes, Selector selector, MessageHandler errorHandler) {
+        this.lanes = lanes;
+        this.selector = selector;
+        this.errorHandler = errorHandler;
+        this.pending = new ArrayList<>(lanes.size());
+        for (int i = 0; i < lanes.size(); i++) {
+            pending.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Queues the request on its lane, the key stops being selected until the response is back.
+     *
+     * @return false if the type has no lane and should be handled on the reactor thread
+     */
+    public boolean dispatch(SelectionKey key, byte type, MessageHandler handler, ByteBuffer body) {
+        Lanes.Lane lane = lanes.laneFor(type);
+        if (lane == null) return false;
+        key.interestOps(0);
+        pending.get(lane.index()).add(new Single(this, key, handler, body));
+        return true;
+    }
+
+    /**
+     * Parks the connection on an equal call already in flight, its response comes back through the completion
+     * queue like a lane's.
+     *
+     * @return false if no equal call is in flight and the request should be handled as usual
+     */
+    public boolean follow(SelectionKey key, CoalescingMessageHandler handler, ByteBuffer body) {
+        CompletableFuture<ByteBuffer> call = handler.follow(body);
+        if (call == null) return false;
+        key.interestOps(0);
+        call.whenComplete((response, failure) -> complete(key, failure == null ? response.duplicate() : null));
+        return true;
+    }
+
+    public boolean hasLane(byte type) {
+        return lanes.laneFor(type) != null;
+    }
+
+    /**
+     * Queues a whole batch as one task on the type's lane, see {@link #hasLane(byte)}.
+     */
+    public void dispatchBatch(byte type, List<SelectionKey> keys, BatchMessageHandler handler, List<ByteBuffer> bodies) {
+        pending.get(lanes.laneFor(type).index()).add(new Batch(this, keys, handler, bodies));
+    }
+
+    /**
+     * Submits the requests dispatched since the last flush, highest priority lane first.
+     */
+    public void flush() {
+        for (int i = 0; i < pending.size(); i++) {
+            ArrayList<Pending> requests = pending.get(i);
+            if (requests.isEmpty()) continue;
+            Lanes.Lane lane = lanes.byPriority(i);
+            for (Pending request : requests) {
+                submit(lane, request);
+            }
+            requests.clear();
+        }
+    }
+
+    private void submit(Lanes.Lane lane, Pending request) {
+        try {
+            lane.executor().execute(request::run);
+        } catch (RejectedExecutionException e) {
+            // Lane is saturated, reject instead of growing the queue
+            request.reject();
+        }
+    }
+
+    private void complete(SelectionKey key, ByteBuffer response) {
+        completions.add(new Completion(key, response));
+        if (wakeupRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return true from the moment another thread posts work until the next drain
+     */
+    public boolean hasPending() {
+        return wakeupRequested.get();
+    }
+
+    /**
+     * Hands finished responses to the reactor, a null response means the handler failed.
+     */
+    public void drainCompletions(BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        wakeupRequested.set(false);
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            onResponse.accept(completion.key, completion.response);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package se.edinjakupovic.lanes;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
+/**
+ * Executors for all configured lanes, shared by every reactor of a server.
+ */
+public final class Lanes {
+    private final Lane[] byType = new Lane[TLV_TYPE_MASK + 1];
+    // Highest priority first
+    private final Lane[] byPriority;
+
+    public record Lane(LaneConfig config, int index, ExecutorService executor) {
+    }
+
+    public Lanes(List<LaneConfig> configs) {
+        for (int i = 0; i < configs.size(); i++) {
+            for (int j = i + 1; j < configs.size(); j++) {
+                if (configs.get(i).overlaps(configs.get(j))) {
+                    throw new IllegalArgumentException("Lanes " + configs.get(i).name() + " and " + configs.get(j).name() + " overlap");
+                }
+            }
+        }
+        List<LaneConfig> sorted = configs.stream()
+                .sorted(Comparator.comparingInt(LaneConfig::priority).reversed())
+                .toList();
+        byPriority = new Lane[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            LaneConfig config = sorted.get(i);
+            Lane lane = new Lane(config, i, executor(config));
+            byPriority[i] = lane;
+            for (int type = config.fromType(); type <= config.toType(); type++) {
+                byType[type] = lane;
+            }
+        }
+    }
+
+    public static Lanes none() {
+        return new Lanes(List.of());
+    }
+
+    /**
+     * @return the lane for the type or null if it is handled on the reactor thread
+     */
+    public Lane laneFor(byte type) {
+        return byType[type & TLV_TYPE_MASK];
+    }
+
+    public int size() {
+        return byPriority.length;
+    }
+
+    Lane byPriority(int index) {
+        return byPriority[index];
+    }
+
+    public void shutdown() {
+        for (Lane lane : byPriority) {
+            lane.executor().shutdownNow();
+        }
+    }
+
+    private static ExecutorService executor(LaneConfig config) {
+        AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                config.maxConcurrency(),
+                config.maxConcurrency(),
+                0L, TimeUnit.MILLISECONDS,
+                config.queueBound() == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(config.queueBound()),
+                r -> {
+                    Thread thread = new Thread(r, "lane-" + config.name() + "-" + threads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
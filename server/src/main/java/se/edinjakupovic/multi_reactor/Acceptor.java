@@ -11,7 +11,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class Acceptor implements Runnable {
     private final ServerSocketChannel serverSocket;
     private final Selector selector;
-    private final WorkerReactor[] workers;
+    // Replaced when the reactor count changes, guarded by this
+    private WorkerReactor[] workers;
     private final AtomicInteger index = new AtomicInteger(0);
 
     public Acceptor(ServerSocketChannel serverSocket, WorkerReactor[] workers, Runnable onStart) throws IOException {
@@ -40,6 +41,13 @@ public class Acceptor implements Runnable {
                 System.err.println("Acceptor error: " + e.getMessage());
             }
         }
+        // Frees the port once the server shuts down
+        try {
+            selector.close();
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close server socket: " + e.getMessage());
+        }
     }
 
     private void accept() {
@@ -48,14 +56,22 @@ public class Acceptor implements Runnable {
             if (client != null) {
                 client.configureBlocking(false);
                 client.setOption(StandardSocketOptions.TCP_NODELAY, true);
-                WorkerReactor worker = nextWorker();
-                worker.registerNewClient(client);
+                synchronized (this) {
+                    nextWorker().registerNewClient(client);
+                }
             }
         } catch (IOException e) {
             System.err.println("Failed to accept connection: " + e.getMessage());
         }
     }
 
+    /**
+     * Once this returns no connection goes to a reactor left out of {@code workers}.
+     */
+    synchronized void setWorkers(WorkerReactor[] workers) {
+        this.workers = workers;
+    }
+
     private WorkerReactor nextWorker() {
         return workers[index.getAndIncrement() % workers.length];
     }
@@ -0,0 +1,30 @@
+package se.edinjakupovic.multi_reactor;
+
+/**
+ * Lets the multi reactor server change its reactor count while running, starting from {@code workers}. Every interval
+ * the average share of time the reactors spent outside {@code select} is compared against the thresholds: above
+ * {@code scaleUpUtilization} a reactor is added, below {@code scaleDownUtilization} the newest one stops taking new
+ * connections and hands its connections to the others as each is between responses.
+ *
+ * @param scaleUpUtilization   average loop utilization, 0..1, above which a reactor is added
+ * @param scaleDownUtilization average loop utilization, 0..1, below which a reactor is removed
+ * @param intervalMillis       time between decisions, at most one reactor is added or removed per interval
+ */
+public record ElasticConfig(
+        int minWorkers,
+        int maxWorkers,
+        double scaleUpUtilization,
+        double scaleDownUtilization,
+        long intervalMillis
+) {
+    public ElasticConfig {
+        if (minWorkers <= 0 || maxWorkers < minWorkers) {
+            throw new IllegalArgumentException("Invalid reactor range " + minWorkers + ".." + maxWorkers);
+        }
+        if (scaleDownUtilization < 0 || scaleUpUtilization > 1 || scaleDownUtilization >= scaleUpUtilization) {
+            throw new IllegalArgumentException("Scale down utilization " + scaleDownUtilization
+                    + " must be below scale up utilization " + scaleUpUtilization);
+        }
+        if (intervalMillis <= 0) throw new IllegalArgumentException("Interval must be positive, got " + intervalMillis);
+    }
+}
@@ -1,15 +1,41 @@
 package se.edinjakupovic.multi_reactor;
 
+import se.edinjakupovic.ReactorStats;
 import se.edinjakupovic.ServerConfig;
+import se.edinjakupovic.capture.TrafficCapture;
+import se.edinjakupovic.journal.Journal;
+import se.edinjakupovic.kv.KvStore;
+import se.edinjakupovic.lanes.Lanes;
+import se.edinjakupovic.pubsub.PubSub;
 
 import java.io.IOException;
 import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
 
 public class MultiReactorServer {
+    private static final Logger log = Logger.getLogger("MultiReactorServer");
 
     private final ServerConfig config;
     private Thread acceptorThread;
-    private Thread[] reactors;
+    private Acceptor acceptor;
+    // Every reactor ever started, retired ones keep their counters
+    private final List<Thread> reactors = new CopyOnWriteArrayList<>();
+    private final List<WorkerReactor> allWorkers = new CopyOnWriteArrayList<>();
+    private Lanes lanes;
+    // Reactors taking new connections, only replaced by the scaler thread
+    private volatile WorkerReactor[] workers;
+    private TrafficCapture capture;
+    private KvStore kv;
+    private Journal journal;
+    private PubSub pubSub;
+    // Null without an elastic reactor count
+    private Thread scalerThread;
+    private Thread retiring;
 
     public MultiReactorServer(ServerConfig config) {
         this.config = config;
@@ -17,30 +43,153 @@ public class MultiReactorServer {
 
     public void startServer(Runnable onStart) throws IOException {
         int workerCount = config.workers();
-        WorkerReactor[] workers = new WorkerReactor[workerCount];
+        workers = new WorkerReactor[workerCount];
 
-        reactors = new Thread[workerCount];
+        lanes = new Lanes(config.lanes());
+        capture = TrafficCapture.open(config.capture());
+        kv = KvStore.open(config.kv(), workerCount);
+        journal = Journal.open(config.journal());
+        pubSub = PubSub.open(config.pubSub());
 
         for (int i = 0; i < workerCount; i++) {
-            WorkerReactor reactor = new WorkerReactor(config);
-            workers[i] = reactor;
-            reactors[i] =  new Thread(reactor, "reactor-" + i);
-            reactors[i].start();
+            workers[i] = startReactor();
         }
 
         ServerSocketChannel serverSocket = ServerSocketChannel.open();
         serverSocket.configureBlocking(false);
         serverSocket.socket().bind(config.bindAddress());
 
-        Acceptor acceptor = new Acceptor(serverSocket, workers, onStart);
+        acceptor = new Acceptor(serverSocket, workers, onStart);
         acceptorThread = new Thread(acceptor, "acceptor");
         acceptorThread.start();
+
+        if (config.elastic() != null) {
+            scalerThread = new Thread(this::runScaler, "reactor-scaler");
+            scalerThread.setDaemon(true);
+            scalerThread.start();
+        }
+    }
+
+    private WorkerReactor startReactor() throws IOException {
+        int index = allWorkers.size();
+        WorkerReactor reactor = new WorkerReactor(config, lanes, capture, kv, index, journal, pubSub);
+        Thread thread = new Thread(reactor, "reactor-" + index);
+        allWorkers.add(reactor);
+        reactors.add(thread);
+        thread.start();
+        return reactor;
+    }
+
+    /**
+     * Every interval compares the reactors' average loop utilization against the thresholds and adds or retires one
+     * reactor. A reactor is only retired after the previous one handed over all its connections.
+     */
+    private void runScaler() {
+        ElasticConfig elastic = config.elastic();
+        Map<WorkerReactor, Long> lastBusy = new IdentityHashMap<>();
+        long lastSample = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(elastic.intervalMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            long elapsed = Math.max(1, now - lastSample);
+            lastSample = now;
+            WorkerReactor[] active = workers;
+            double utilization = 0;
+            for (WorkerReactor worker : active) {
+                long busy = worker.busyNanos();
+                Long last = lastBusy.put(worker, busy);
+                utilization += (double) (busy - (last == null ? busy : last)) / elapsed;
+            }
+            utilization /= active.length;
+
+            try {
+                if (utilization > elastic.scaleUpUtilization() && active.length < elastic.maxWorkers()) {
+                    WorkerReactor[] grown = Arrays.copyOf(active, active.length + 1);
+                    grown[active.length] = startReactor();
+                    setWorkers(grown);
+                    log.info("Utilization " + String.format("%.2f", utilization) + ", scaled up to " + grown.length + " reactors");
+                } else if (utilization < elastic.scaleDownUtilization() && active.length > elastic.minWorkers()
+                        && (retiring == null || !retiring.isAlive())) {
+                    WorkerReactor last = active[active.length - 1];
+                    WorkerReactor[] shrunk = Arrays.copyOf(active, active.length - 1);
+                    setWorkers(shrunk);
+                    last.retire(shrunk);
+                    retiring = reactors.get(allWorkers.indexOf(last));
+                    lastBusy.remove(last);
+                    log.info("Utilization " + String.format("%.2f", utilization) + ", scaling down to " + shrunk.length + " reactors");
+                }
+            } catch (IOException e) {
+                log.warning("Failed to start a reactor: " + e.getMessage());
+            }
+        }
+    }
+
+    private void setWorkers(WorkerReactor[] active) {
+        workers = active;
+        acceptor.setWorkers(active);
+    }
+
+    /**
+     * Reactors currently taking new connections.
+     */
+    public int activeWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * Sum of all reactors' counters, retired ones included.
+     */
+    public ReactorStats stats() {
+        ReactorStats total = new ReactorStats();
+        for (WorkerReactor worker : allWorkers) {
+            total.add(worker.stats);
+        }
+        return total;
+    }
+
+    /**
+     * @return null if the key-value service is off
+     */
+    public KvStore kv() {
+        return kv;
     }
 
     public void shutdown() {
+        if (scalerThread != null) {
+            scalerThread.interrupt();
+            try {
+                scalerThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         acceptorThread.interrupt();
+        try {
+            acceptorThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         for (Thread reactor : reactors) {
             reactor.interrupt();
         }
+        lanes.shutdown();
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                log.warning("Failed to close capture: " + e.getMessage());
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warning("Failed to close journal: " + e.getMessage());
+            }
+        }
     }
 }
@@ -1,34 +1,124 @@
 package se.edinjakupovic.multi_reactor;
 
+import se.edinjakupovic.BatchHandler;
 import se.edinjakupovic.ClientStatus;
+import se.edinjakupovic.CoalescingMessageHandler;
+import se.edinjakupovic.Compression;
+import se.edinjakupovic.FrameBatcher;
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.ConnectionBudget;
+import se.edinjakupovic.Event;
+import se.edinjakupovic.EventLog;
+import se.edinjakupovic.EventRing;
+import se.edinjakupovic.FlatSelectedKeys;
 import se.edinjakupovic.MessageHandler;
+import se.edinjakupovic.ReactorStats;
 import se.edinjakupovic.ServerClientContext;
 import se.edinjakupovic.ServerConfig;
+import se.edinjakupovic.capture.TrafficCapture;
+import se.edinjakupovic.journal.Journal;
+import se.edinjakupovic.journal.JournalDispatcher;
+import se.edinjakupovic.kv.KvDispatcher;
+import se.edinjakupovic.kv.KvStore;
+import se.edinjakupovic.lanes.LaneDispatcher;
+import se.edinjakupovic.lanes.Lanes;
+import se.edinjakupovic.proxy.Forwarder;
+import se.edinjakupovic.proxy.UpstreamConnection;
+import se.edinjakupovic.pubsub.Outbox;
+import se.edinjakupovic.pubsub.PubSub;
+import se.edinjakupovic.pubsub.PubSubDispatcher;
+import se.edinjakupovic.shedding.LoadShedder;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
+import static se.edinjakupovic.ServerConstants.ERROR_TYPE;
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
 public class WorkerReactor implements Runnable {
     private static final Logger log = Logger.getLogger("WorkerReactor");
 
     private final Selector selector;
+    // Null when the JDK does not allow replacing the selected-key set
+    private final FlatSelectedKeys selectedKeys;
     private final Queue<SocketChannel> newClients = new ConcurrentLinkedQueue<>();
+    // Connections handed over by a retiring reactor, their old keys carry the channel and context
+    private final Queue<SelectionKey> adopted = new ConcurrentLinkedQueue<>();
     private final Map<Byte, MessageHandler> handlers;
     private final MessageHandler errorHandler;
-    private final int headerSize;
+    private final FrameCodec codec;
+    private final int maxBodySize;
+    private final Compression compression;
+    private final ConnectionBudget budget;
+    // Connections that ran out of budget, served round-robin after the selected keys
+    private final ArrayDeque<SelectionKey> readyList = new ArrayDeque<>();
+    private long iteration;
+    private final LaneDispatcher lanes;
+    private final FrameBatcher batcher = new FrameBatcher();
+    // Shared by all reactors, null when capture is off
+    private final TrafficCapture capture;
+    // This reactor's shard of the key-value service, null when it is off
+    private final KvDispatcher kv;
+    // Null when the journal is off
+    private final JournalDispatcher journal;
+    // Subscriptions of this reactor's connections, null when publish/subscribe is off
+    private final PubSubDispatcher pubSub;
+    // This reactor's connections to the upstream servers, null without upstreams
+    private final Forwarder forwarder;
+    public final ReactorStats stats = new ReactorStats();
+    // Only measured with an elastic reactor count
+    private final boolean measureBusy;
+    // Time spent outside select, read by the scaler
+    private volatile long busyNanos;
+    // Set once the reactor is retired, its connections move to these
+    private volatile WorkerReactor[] successors;
+    // Set by the first migration attempt, the ones after it wait for their connections to finish
+    private boolean migrating;
+    private int nextSuccessor;
+    private final int index;
+    // Null without load shedding
+    private final LoadShedder shedder;
+    // When the frames of this iteration are counted as arrived, only measured with load shedding
+    private long readyAt;
+    private long loopStart;
+    // Reactor thread's event ring, null when events are off
+    private EventRing events;
 
-    public WorkerReactor(ServerConfig config) throws IOException {
+    /**
+     * @param kv      shared key-value service or null, this reactor owns shard {@code index}
+     * @param journal shared journal or null
+     * @param pubSub  shared publish/subscribe service or null
+     */
+    public WorkerReactor(ServerConfig config, Lanes lanes, TrafficCapture capture, KvStore kv, int index, Journal journal,
+                         PubSub pubSub) throws IOException {
         this.selector = Selector.open();
-        this.handlers = config.handlers();
+        this.selectedKeys = FlatSelectedKeys.install(selector);
+        this.kv = kv == null ? null : new KvDispatcher(kv, index, selector, config.config().codec());
+        this.journal = journal == null ? null : new JournalDispatcher(journal, selector, config.config().codec());
+        this.pubSub = pubSub == null ? null : new PubSubDispatcher(pubSub, selector, stats, config.config().codec());
+        this.forwarder = Forwarder.create(config.upstreams(), selector, config.config().codec(), config.config().maxBodySize());
+        Map<Byte, MessageHandler> handlers = BatchHandler.withHandlers(config.handlers(), config.errorHandler(), config.config().codec());
+        if (kv != null) handlers = this.kv.withHandlers(handlers);
+        if (journal != null) handlers = journal.withHandlers(handlers, config.config().codec());
+        this.handlers = handlers;
         this.errorHandler = config.errorHandler();
-        this.headerSize = config.config().headerSizeBytes();
+        this.codec = config.config().codec();
+        this.maxBodySize = config.config().maxBodySize();
+        this.compression = config.config().compression();
+        this.budget = config.connectionBudget();
+        this.lanes = new LaneDispatcher(lanes, selector, errorHandler);
+        this.capture = capture;
+        this.measureBusy = config.elastic() != null;
+        this.index = index;
+        this.shedder = config.shedding() == null ? null : new LoadShedder(config.shedding(), config.config().codec());
     }
 
     public void registerNewClient(SocketChannel client) {
@@ -36,95 +126,451 @@ public class WorkerReactor implements Runnable {
         selector.wakeup();
     }
 
+    /**
+     * Takes over a connection another reactor cancelled, the context goes with it.
+     */
+    void adopt(SelectionKey key) {
+        adopted.add(key);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the reactor once its connections moved to {@code successors}. A connection moves when it is reading,
+     * one waiting for its response or writing it moves after, so nothing it started is lost. The acceptor must no
+     * longer hand this reactor new connections.
+     */
+    void retire(WorkerReactor[] successors) {
+        this.successors = successors;
+        selector.wakeup();
+    }
+
+    long busyNanos() {
+        return busyNanos;
+    }
+
     @Override
     public void run() {
+        if (EventLog.INFO) events = EventLog.ring();
+        loopStart = System.nanoTime();
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                selector.select();
+                iteration++;
+                boolean waited = false;
+                if (!readyList.isEmpty()) {
+                    selector.selectNow();
+                } else if (shedder == null || selector.selectNow() == 0 && !hasPending()) {
+                    // Forwarded requests time out even when nothing else happens
+                    selector.select(forwarder == null ? 0 : forwarder.millisToNextDeadline());
+                    waited = true;
+                }
+                long busyStart = measureBusy ? System.nanoTime() : 0;
+                if (shedder != null) markReady(waited);
 
                 registerPendingClients();
+                lanes.drainCompletions(this::onResponse);
+                if (kv != null) kv.drain(this::onResponse);
+                if (journal != null) journal.drainCompletions(this::onResponse);
+                if (pubSub != null) pubSub.drain();
 
-                var keys = selector.selectedKeys().iterator();
-                while (keys.hasNext()) {
-                    SelectionKey key = keys.next();
-                    keys.remove();
-
-                    if (!key.isValid()) continue;
-
-                    try {
-                        if (key.isReadable()) handleRead(key);
-                        if (key.isWritable()) handleWrite(key);
-                    } catch (IOException e) {
-                        closeChannel(key);
+                if (selectedKeys != null) {
+                    for (int i = 0; i < selectedKeys.size(); i++) {
+                        handleKey(selectedKeys.get(i));
                     }
+                    selectedKeys.reset();
+                } else {
+                    var keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+                }
+
+                serveReadyList();
+                batcher.flush(lanes, this::onResponse);
+                lanes.flush();
+                if (journal != null) journal.flush();
+                if (pubSub != null) pubSub.flush(this::onPush);
+                if (forwarder != null) {
+                    forwarder.expire(this::onRelayed);
+                    forwarder.flush(this::onRelayed);
                 }
+                if (measureBusy) busyNanos += System.nanoTime() - busyStart;
+                if (successors != null && migrateConnections()) break;
             } catch (IOException e) {
                 log.severe("Selector error: " + e.getMessage());
             }
         }
+        if (compression != null) compression.close();
+        if (forwarder != null) forwarder.close();
+        if (successors != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.warning("Failed to close selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) return;
+        if (key.attachment() instanceof UpstreamConnection) {
+            forwarder.handle(key, this::onRelayed);
+            return;
+        }
+
+        try {
+            if (key.isReadable()) handleRead(key);
+            if (key.isValid() && key.isWritable()) handleWrite(key);
+        } catch (IOException e) {
+            closeChannel(key);
+        }
+    }
+
+    /**
+     * A {@code selectNow} takes back a wakeup that came before it, so what other threads queued by then is checked
+     * here instead of waiting in {@code select} for a wakeup that will not come.
+     */
+    private boolean hasPending() {
+        return !newClients.isEmpty() || !adopted.isEmpty() || successors != null && !migrating
+                || lanes.hasPending()
+                || kv != null && kv.hasPending()
+                || journal != null && journal.hasPending()
+                || pubSub != null && pubSub.hasPending();
+    }
+
+    /**
+     * Hands the connections that are reading to the successors, the rest go once they are done with their response.
+     *
+     * @return true when no connection is left
+     */
+    private boolean migrateConnections() {
+        WorkerReactor[] targets = successors;
+        migrating = true;
+        boolean left = false;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof ServerClientContext ctx)) continue;
+            if (ctx.deferred || !isReading(ctx) || ctx.outbox != null) {
+                left = true;
+                continue;
+            }
+            // The channel may join another selector while this key waits to be deregistered
+            key.cancel();
+            targets[nextSuccessor++ % targets.length].adopt(key);
+            stats.migrated++;
+        }
+        return !left && newClients.isEmpty() && adopted.isEmpty();
+    }
+
+    /**
+     * Frames that were there before select was called arrived while the previous iteration ran, so they are counted
+     * from its start, the latest time the reactor looked at them. The rest arrived while select waited.
+     */
+    private void markReady(boolean waited) {
+        long now = System.nanoTime();
+        readyAt = waited ? now : loopStart;
+        loopStart = now;
     }
 
     private void registerPendingClients() throws IOException {
         SocketChannel client;
         //noinspection resource
         while ((client = newClients.poll()) != null) {
-            ServerClientContext ctx = new ServerClientContext(headerSize);
-            log.info("Reactor " + Thread.currentThread().getName() + " handled client ");
+            ServerClientContext ctx = new ServerClientContext(codec, maxBodySize);
+            if (EventLog.INFO) events.record(Event.CONNECTION_REGISTERED, ctx.connectionId, index);
             client.register(selector, SelectionKey.OP_READ, ctx);
         }
+        SelectionKey moved;
+        while ((moved = adopted.poll()) != null) {
+            try {
+                moved.channel().register(selector, SelectionKey.OP_READ, moved.attachment());
+                if (EventLog.INFO) events.record(Event.CONNECTION_ADOPTED, ((ServerClientContext) moved.attachment()).connectionId, index);
+            } catch (IOException e) {
+                moved.channel().close();
+            }
+        }
     }
 
+    /**
+     * Serves each connection that ran out of budget once, connections that run out again
+     * go back to the end of the list.
+     */
+    private void serveReadyList() {
+        for (int i = readyList.size(); i > 0; i--) {
+            SelectionKey key = readyList.poll();
+            ServerClientContext ctx = (ServerClientContext) key.attachment();
+            ctx.deferred = false;
+            if (!key.isValid()) continue;
+            try {
+                if (ctx.status == ClientStatus.WRITING_RESPONSE) {
+                    handleWrite(key);
+                } else if (ctx.status != ClientStatus.PROCESSING) {
+                    if (ctx.outbox != null && !ctx.outbox.isEmpty()) handleWrite(key);
+                    if (key.isValid()) handleRead(key);
+                }
+            } catch (IOException e) {
+                closeChannel(key);
+            }
+        }
+    }
+
+    private void defer(SelectionKey key, ServerClientContext ctx) {
+        if (!ctx.deferred) {
+            ctx.deferred = true;
+            stats.budgetDeferrals++;
+            readyList.add(key);
+        }
+    }
+
+    /**
+     * Reads until the socket has no more data, a request waits for its response or the connection is out of budget.
+     * Pipelined requests are read one after another while their responses go out at once, each counts to the frame
+     * budget.
+     */
     private void handleRead(SelectionKey key) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
         ServerClientContext ctx = (ServerClientContext) key.attachment();
+        ctx.startIteration(iteration);
 
-        if (ctx.status == ClientStatus.READING_HEADER) {
-            int read = ctx.readHeader(channel, key);
-            if (read < 0) {
-                closeChannel(key);
+        while (ctx.status == ClientStatus.READING_HEADER || ctx.status == ClientStatus.READING_BODY) {
+            if (ctx.budgetExhausted(budget)) {
+                defer(key, ctx);
                 return;
             }
-            if (read == 0) return;
-        }
 
-        if (ctx.status == ClientStatus.READING_BODY) {
-            int read = channel.read(ctx.bodyBuffer);
-            if (read < 0) {
-                closeChannel(key);
-                return;
+            if (ctx.status == ClientStatus.READING_HEADER) {
+                int read = ctx.readHeader(channel, key);
+                if (read < 0) {
+                    closeChannel(key);
+                    return;
+                }
+                if (read == 0) return;
+                // Headers are read whole, so they can take the connection past its byte budget
+                ctx.iterationBytes += read;
+                continue;
             }
-            if (read == 0) return;
-            if (!ctx.bodyBuffer.hasRemaining()) {
-                processMessage(key, ctx.tlvType, ctx.bodyBuffer);
+
+            if (ctx.status == ClientStatus.READING_BODY) {
+                int read = readBounded(channel, ctx.bodyBuffer, bytesLeft(ctx));
+                if (read < 0) {
+                    closeChannel(key);
+                    return;
+                }
+                ctx.iterationBytes += read;
+                if (!ctx.bodyBuffer.hasRemaining()) {
+                    ctx.iterationFrames++;
+                    processMessage(key, ctx.tlvType, ctx.requestBody(compression));
+                    // The loop goes on only if the response went out and the connection is reading again
+                    if (!key.isValid()) return;
+                } else if (read == 0) {
+                    return;
+                }
             }
         }
     }
 
+    private int bytesLeft(ServerClientContext ctx) {
+        return Math.max(0, budget.bytesPerIteration() - ctx.iterationBytes);
+    }
+
+    private static int readBounded(SocketChannel channel, ByteBuffer buffer, int maxBytes) throws IOException {
+        if (buffer.remaining() <= maxBytes) return channel.read(buffer);
+        if (maxBytes == 0) return 0;
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + maxBytes);
+        try {
+            return channel.read(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
     private void handleWrite(SelectionKey key) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
         ServerClientContext ctx = (ServerClientContext) key.attachment();
+        ctx.startIteration(iteration);
+
+        if (ctx.budgetExhausted(budget)) {
+            defer(key, ctx);
+            return;
+        }
+
+        // Pushed messages go out between responses, a response waits for the message in flight
+        Outbox outbox = ctx.outbox;
+        if (outbox != null && outbox.inFlight() && !writeMessages(key, channel, ctx, true)) return;
+        if (ctx.status == ClientStatus.WRITING_RESPONSE && !writeResponse(key, channel, ctx)) return;
+        if (outbox != null) writeMessages(key, channel, ctx, false);
+    }
 
-        int written = channel.write(ctx.responseBuffer);
+    /**
+     * @return true if the response is written and the connection kept
+     */
+    private boolean writeResponse(SelectionKey key, SocketChannel channel, ServerClientContext ctx) throws IOException {
+        int written = writeBounded(channel, ctx.responseBuffer, bytesLeft(ctx));
         if (written < 0) {
             closeChannel(key);
+            return false;
+        }
+        ctx.iterationBytes += written;
+        if (ctx.responseBuffer.hasRemaining()) {
+            awaitWrite(key, ctx);
+            return false;
+        }
+        if (shedder != null) {
+            long now = System.nanoTime();
+            shedder.record(ctx.queuedNanos + now - ctx.responseReadyAt, now);
+        }
+        if (ctx.keepAlive) {
+            ctx.resetCtx();
+            key.interestOps(SelectionKey.OP_READ);
+            return true;
+        }
+        closeChannel(key);
+        return false;
+    }
+
+    /**
+     * @param headOnly only finish the message in flight
+     * @return true if the messages are written
+     */
+    private boolean writeMessages(SelectionKey key, SocketChannel channel, ServerClientContext ctx, boolean headOnly) throws IOException {
+        Outbox outbox = ctx.outbox;
+        ctx.iterationBytes += (int) pubSub.write(outbox, channel, bytesLeft(ctx), headOnly);
+        if (headOnly ? outbox.inFlight() : !outbox.isEmpty()) {
+            awaitWrite(key, ctx);
+            return false;
+        }
+        key.interestOps(isReading(ctx) ? SelectionKey.OP_READ : 0);
+        return true;
+    }
+
+    /**
+     * Waits for the socket to take more, a reading connection keeps reading meanwhile.
+     */
+    private void awaitWrite(SelectionKey key, ServerClientContext ctx) {
+        if (ctx.budgetExhausted(budget)) {
+            defer(key, ctx);
+        } else {
+            key.interestOps(isReading(ctx) ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+        }
+    }
+
+    private static boolean isReading(ServerClientContext ctx) {
+        return ctx.status == ClientStatus.READING_HEADER || ctx.status == ClientStatus.READING_BODY;
+    }
+
+    /**
+     * Writes the response right away instead of waiting a select round for OP_WRITE,
+     * the connection only registers OP_WRITE if the socket buffer is full.
+     */
+    private void writeEagerly(SelectionKey key, ServerClientContext ctx) throws IOException {
+        stats.responses++;
+        handleWrite(key);
+        if (key.isValid() && ctx.status == ClientStatus.WRITING_RESPONSE) {
+            stats.writeFallbacks++;
+        }
+    }
+
+    private static int writeBounded(SocketChannel channel, ByteBuffer buffer, int maxBytes) throws IOException {
+        if (buffer.remaining() <= maxBytes) return channel.write(buffer);
+        if (maxBytes == 0) return 0;
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + maxBytes);
+        try {
+            return channel.write(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    private void processMessage(SelectionKey key, int tlvType, ByteBuffer bodyBuffer) throws IOException {
+        // Handlers cover the 1 byte types, wider types from a 2 byte codec get the error handler
+        byte type = tlvType > TLV_TYPE_MASK ? ERROR_TYPE : (byte) tlvType;
+        MessageHandler handler = handlers.getOrDefault(type, errorHandler);
+        ServerClientContext ctx = (ServerClientContext) key.attachment();
+        if (capture != null) capture.record(ctx.connectionId, tlvType, ctx.keepAlive, bodyBuffer);
+        if (shedder != null) {
+            long now = System.nanoTime();
+            ctx.queuedNanos = now - readyAt;
+            if (shedder.shouldShed(ctx.queuedNanos, now)) {
+                stats.shed++;
+                ctx.responseReadyAt = now;
+                ctx.setResponse(shedder.busyResponse());
+                writeEagerly(key, ctx);
+                return;
+            }
+        }
+        if (kv != null && kv.handOff(key, type, bodyBuffer)) {
+            stats.kvHandoffs++;
+            ctx.status = ClientStatus.PROCESSING;
             return;
         }
-        if (!ctx.responseBuffer.hasRemaining()) {
-            if (ctx.keepAlive) {
-                ctx.resetCtx();
-                key.interestOps(SelectionKey.OP_READ);
-            } else {
-                closeChannel(key);
+        if (journal != null && journal.append(key, type, bodyBuffer)) {
+            ctx.status = ClientStatus.PROCESSING;
+            return;
+        }
+        if (forwarder != null && forwarder.forward(key, type, ctx.requestHeader(), ctx.rawRequestBody())) {
+            stats.forwarded++;
+            ctx.status = ClientStatus.PROCESSING;
+            return;
+        }
+        ByteBuffer response = pubSub == null ? null : pubSub.process(key, type, bodyBuffer);
+        if (response == null) {
+            if (handler instanceof CoalescingMessageHandler coalescing && lanes.follow(key, coalescing, bodyBuffer)) {
+                stats.coalesced++;
+                ctx.status = ClientStatus.PROCESSING;
+                return;
+            }
+            if (batcher.add(key, type, handler, bodyBuffer) || lanes.dispatch(key, type, handler, bodyBuffer)) {
+                ctx.status = ClientStatus.PROCESSING;
+                return;
             }
+            response = handler.processMessage(bodyBuffer);
         }
+        if (shedder != null) ctx.responseReadyAt = System.nanoTime();
+        ctx.setResponse(response, compression);
+        writeEagerly(key, ctx);
     }
 
-    private void processMessage(SelectionKey key, byte type, ByteBuffer bodyBuffer) {
-        MessageHandler handler = handlers.getOrDefault(type, errorHandler);
-        ByteBuffer response = handler.processMessage(bodyBuffer);
+    /**
+     * Writes the messages published to the connection in this iteration, a connection waiting for its response
+     * gets them after it.
+     */
+    private void onPush(SelectionKey key) {
         ServerClientContext ctx = (ServerClientContext) key.attachment();
-        ctx.setResponse(response);
-        key.interestOps(SelectionKey.OP_WRITE);
+        if (ctx.status == ClientStatus.PROCESSING) return;
+        try {
+            handleWrite(key);
+        } catch (IOException e) {
+            closeChannel(key);
+        }
+    }
+
+    private void onResponse(SelectionKey key, ByteBuffer response) {
+        respond(key, response, compression);
+    }
+
+    /**
+     * Answers with a frame an upstream encoded, it goes back as it is.
+     */
+    private void onRelayed(SelectionKey key, ByteBuffer response) {
+        respond(key, response, null);
+    }
+
+    private void respond(SelectionKey key, ByteBuffer response, Compression compression) {
+        if (!key.isValid()) return;
+        if (response == null) {
+            closeChannel(key);
+            return;
+        }
+        ServerClientContext ctx = (ServerClientContext) key.attachment();
+        if (shedder != null) ctx.responseReadyAt = System.nanoTime();
+        ctx.setResponse(response, compression);
+        try {
+            writeEagerly(key, ctx);
+        } catch (IOException e) {
+            closeChannel(key);
+        }
     }
 
     private void closeChannel(SelectionKey key) {
@@ -0,0 +1,170 @@
+package se.edinjakupovic.proxy;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.ServerConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
+/**
+ * Per reactor side of forwarding. Requests of an upstream's types are relayed as read, header and body straight from
+ * the client connection's buffers, over the reactor's own pooled connections to the upstream servers. The upstream's
+ * response frame goes back to the client as it is.
+ * <p>
+ * Only touched by its reactor thread.
+ */
+public final class Forwarder {
+    private static final Logger log = Logger.getLogger("Forwarder");
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+
+    private final Selector selector;
+    private final Route[] routes = new Route[TLV_TYPE_MASK + 1];
+    private final List<Route> allRoutes = new ArrayList<>();
+    // Connections that got requests in this loop iteration
+    private final List<UpstreamConnection> dirty = new ArrayList<>();
+    private final ByteBuffer[] scratch = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+
+    private static final class Route {
+        private final UpstreamConnection[] connections;
+        private final UpstreamConfig.Balancing balancing;
+        private int next;
+
+        Route(UpstreamConfig config, FrameCodec codec, int maxBodySize, ByteBuffer errorFrame) {
+            connections = new UpstreamConnection[config.servers().size() * config.connectionsPerServer()];
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.timeoutMillis());
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = new UpstreamConnection(config.servers().get(i % config.servers().size()), codec, maxBodySize,
+                        timeoutNanos, errorFrame);
+            }
+            balancing = config.balancing();
+        }
+
+        UpstreamConnection pick() {
+            if (balancing == UpstreamConfig.Balancing.ROUND_ROBIN) {
+                UpstreamConnection connection = connections[next];
+                next = (next + 1) % connections.length;
+                return connection;
+            }
+            UpstreamConnection least = connections[0];
+            for (UpstreamConnection connection : connections) {
+                if (connection.pending() < least.pending()) least = connection;
+            }
+            return least;
+        }
+    }
+
+    private Forwarder(List<UpstreamConfig> upstreams, Selector selector, FrameCodec codec, int maxBodySize) {
+        this.selector = selector;
+        ByteBuffer errorFrame = ServerConstants.errorFrame(codec).asReadOnlyBuffer();
+        for (UpstreamConfig upstream : upstreams) {
+            Route route = new Route(upstream, codec, maxBodySize, errorFrame);
+            allRoutes.add(route);
+            for (int type = upstream.fromType(); type <= upstream.toType(); type++) {
+                routes[type] = route;
+            }
+        }
+    }
+
+    /**
+     * @param maxBodySize larger responses fail the upstream connection
+     * @return null if there are no upstreams
+     */
+    public static Forwarder create(List<UpstreamConfig> upstreams, Selector selector, FrameCodec codec, int maxBodySize) {
+        return upstreams.isEmpty() ? null : new Forwarder(upstreams, selector, codec, maxBodySize);
+    }
+
+    /**
+     * Queues the request for an upstream connection, the client key stops being selected until the response is back.
+     * The header is sent with the keep alive bit set, the client connection itself closes as it asked.
+     *
+     * @param header view of the request's header as read, it is changed in place
+     * @param body   view of the request's body as read
+     * @return false if no upstream serves the type
+     * @throws IOException if no connection to the picked upstream could be opened
+     */
+    public boolean forward(SelectionKey client, byte type, ByteBuffer header, ByteBuffer body) throws IOException {
+        Route route = routes[type];
+        if (route == null) return false;
+        UpstreamConnection connection = route.pick();
+        FrameCodec.setKeepAlive(header, header.position());
+        connection.send(selector, client, header, body);
+        client.interestOps(0);
+        if (!connection.dirty) {
+            connection.dirty = true;
+            dirty.add(connection);
+        }
+        return true;
+    }
+
+    /**
+     * Serves a selected upstream connection, a failed connection answers its waiting clients with null.
+     */
+    public void handle(SelectionKey key, BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        UpstreamConnection connection = (UpstreamConnection) key.attachment();
+        try {
+            connection.handle(scratch, onResponse);
+        } catch (IOException e) {
+            log.warning("Upstream " + connection.address + " failed: " + e.getMessage());
+            connection.fail(onResponse);
+        }
+    }
+
+    /**
+     * Writes the requests forwarded in this iteration, one gathering write per connection.
+     */
+    public void flush(BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        for (UpstreamConnection connection : dirty) {
+            connection.dirty = false;
+            try {
+                connection.flush(scratch);
+            } catch (IOException e) {
+                log.warning("Upstream " + connection.address + " failed: " + e.getMessage());
+                connection.fail(onResponse);
+            }
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Answers the forwarded requests that waited longer than their upstream's timeout with the error frame.
+     */
+    public void expire(BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        long now = System.nanoTime();
+        for (Route route : allRoutes) {
+            for (UpstreamConnection connection : route.connections) {
+                connection.expire(now, onResponse);
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds until the next forwarded request times out, at least 1, or 0 if none is waiting
+     */
+    public long millisToNextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (Route route : allRoutes) {
+            for (UpstreamConnection connection : route.connections) {
+                next = Math.min(next, connection.nextDeadline());
+            }
+        }
+        if (next == Long.MAX_VALUE) return 0;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime()) + 1);
+    }
+
+    public void close() {
+        for (Route route : allRoutes) {
+            for (UpstreamConnection connection : route.connections) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package se.edinjakupovic.proxy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
+/**
+ * Forwards types {@code fromType..toType} (inclusive) to upstream servers speaking the same codec instead of
+ * handling them locally. The upstreams must answer with frames, like {@link se.edinjakupovic.NioClient} expects.
+ *
+ * @param connectionsPerServer connections each reactor keeps to each server, opened on first use
+ * @param balancing            how a reactor picks one of its connections for a request
+ * @param timeoutMillis        how long a request waits for the upstream before the client gets the error frame
+ */
+public record UpstreamConfig(
+        String name,
+        int fromType,
+        int toType,
+        List<InetSocketAddress> servers,
+        int connectionsPerServer,
+        Balancing balancing,
+        long timeoutMillis
+) {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5_000;
+
+    public enum Balancing {
+        ROUND_ROBIN,
+        // The connection with the fewest requests waiting for a response
+        LEAST_PENDING
+    }
+
+    public UpstreamConfig {
+        if (fromType < 0 || toType > TLV_TYPE_MASK || fromType > toType) {
+            throw new IllegalArgumentException("Upstream " + name + " has invalid type range " + fromType + ".." + toType);
+        }
+        if (servers.isEmpty() || connectionsPerServer <= 0) {
+            throw new IllegalArgumentException("Upstream " + name + " needs servers and a positive number of connections");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Upstream " + name + " needs a positive timeout, got " + timeoutMillis);
+        }
+    }
+
+    public UpstreamConfig(String name, int fromType, int toType, List<InetSocketAddress> servers, int connectionsPerServer,
+                          Balancing balancing) {
+        this(name, fromType, toType, servers, connectionsPerServer, balancing, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public boolean overlaps(UpstreamConfig other) {
+        return fromType <= other.toType && other.fromType <= toType;
+    }
+}
@@ -0,0 +1,221 @@
+package se.edinjakupovic.proxy;
+
+import se.edinjakupovic.FrameCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Non-blocking connection from a reactor to one upstream server, registered on the reactor's selector.
+ * Requests are pipelined, the upstream answers them in order, so the responses go to the waiting client
+ * connections first in first out.
+ * <p>
+ * A request not answered within the upstream's timeout gets the error frame. Its response is dropped when it comes,
+ * and since every request waits the same time, the ones timing out are always the oldest.
+ * <p>
+ * Only touched by its reactor thread.
+ */
+public final class UpstreamConnection {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    final InetSocketAddress address;
+    private final FrameCodec codec;
+    private final int maxBodySize;
+    private final FrameCodec.Header header = new FrameCodec.Header();
+    private final long timeoutNanos;
+    // Read-only, handed out as duplicates
+    private final ByteBuffer errorFrame;
+    // Null until the first request and again after a failure
+    private SocketChannel channel;
+    private SelectionKey key;
+    // Client connections waiting for a response, in the order their requests were sent
+    private final ArrayDeque<Waiting> waiting = new ArrayDeque<>();
+    // Responses still to come for requests that timed out
+    private int abandoned;
+    // Views of the client connections' request buffers
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // Response frame being read
+    private ByteBuffer response;
+    // Already in the forwarder's list of connections to flush
+    boolean dirty;
+
+    /**
+     * @param body view of the request's body, drained once the whole request is written
+     */
+    private record Waiting(SelectionKey client, ByteBuffer body, long deadline) {
+    }
+
+    UpstreamConnection(InetSocketAddress address, FrameCodec codec, int maxBodySize, long timeoutNanos, ByteBuffer errorFrame) {
+        this.address = address;
+        this.codec = codec;
+        this.maxBodySize = maxBodySize;
+        this.timeoutNanos = timeoutNanos;
+        this.errorFrame = errorFrame;
+    }
+
+    int pending() {
+        return waiting.size() + abandoned;
+    }
+
+    /**
+     * @return when the oldest waiting request times out, {@link Long#MAX_VALUE} if none waits
+     */
+    long nextDeadline() {
+        Waiting oldest = waiting.peek();
+        return oldest == null ? Long.MAX_VALUE : oldest.deadline;
+    }
+
+    /**
+     * Queues the request, it is written by the next {@link #flush}.
+     *
+     * @throws IOException if the connection could not be opened
+     */
+    void send(Selector selector, SelectionKey client, ByteBuffer header, ByteBuffer body) throws IOException {
+        if (channel == null) connect(selector);
+        out.add(header);
+        out.add(body);
+        waiting.add(new Waiting(client, body, System.nanoTime() + timeoutNanos));
+    }
+
+    private void connect(Selector selector) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected = channel.connect(address);
+            key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * Writes the queued requests with one gathering write, the rest waits for OP_WRITE.
+     */
+    void flush(ByteBuffer[] scratch) throws IOException {
+        if (channel == null || !channel.isConnected()) return;
+        int count = 0;
+        for (ByteBuffer buffer : out) {
+            if (count == scratch.length) break;
+            scratch[count++] = buffer;
+        }
+        if (count > 0) {
+            try {
+                channel.write(scratch, 0, count);
+            } finally {
+                Arrays.fill(scratch, 0, count, null);
+            }
+            while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                out.poll();
+            }
+        }
+        key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Handles the readiness the selector reported, complete responses go to {@code onResponse}.
+     */
+    void handle(ByteBuffer[] scratch, BiConsumer<SelectionKey, ByteBuffer> onResponse) throws IOException {
+        if (key.isConnectable()) {
+            channel.finishConnect();
+            flush(scratch);
+            return;
+        }
+        if (key.isReadable()) read(onResponse);
+        if (key.isValid() && key.isWritable()) flush(scratch);
+    }
+
+    private void read(BiConsumer<SelectionKey, ByteBuffer> onResponse) throws IOException {
+        if (channel.read(in) < 0) throw new EOFException("Upstream " + address + " closed the connection");
+        in.flip();
+        while (in.hasRemaining()) {
+            if (response == null) {
+                int headerLength = codec.headerLength(in, in.position(), in.limit());
+                if (headerLength < 0) break;
+                codec.decodeHeader(in, in.position(), header);
+                if (header.length > maxBodySize) {
+                    throw new IOException("Upstream " + address + " sent a body of " + header.length + " bytes, larger than max " + maxBodySize);
+                }
+                response = ByteBuffer.allocate(headerLength + header.length);
+            }
+            int length = Math.min(in.remaining(), response.remaining());
+            response.put(response.position(), in, in.position(), length);
+            response.position(response.position() + length);
+            in.position(in.position() + length);
+            if (response.hasRemaining()) break;
+
+            if (abandoned > 0) {
+                abandoned--;
+            } else {
+                Waiting oldest = waiting.poll();
+                if (oldest == null) throw new IOException("Upstream " + address + " sent a response nobody waits for");
+                onResponse.accept(oldest.client, response.flip());
+            }
+            response = null;
+        }
+        in.compact();
+    }
+
+    /**
+     * Answers the requests past their deadline with the error frame. A timed out request that is not even written
+     * means the upstream stopped reading, and its bytes still point into the client's buffers, which the client's
+     * next request reuses. The connection is then dropped and every waiting request gets the error frame.
+     */
+    void expire(long now, BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        Waiting oldest;
+        while ((oldest = waiting.peek()) != null && oldest.deadline - now <= 0) {
+            if (oldest.body.hasRemaining()) {
+                reset(onResponse, errorFrame);
+                return;
+            }
+            waiting.poll();
+            abandoned++;
+            onResponse.accept(oldest.client, errorFrame.duplicate());
+        }
+    }
+
+    /**
+     * Closes the connection and answers every waiting client with null, the next request opens a new one.
+     */
+    void fail(BiConsumer<SelectionKey, ByteBuffer> onResponse) {
+        reset(onResponse, null);
+    }
+
+    /**
+     * @param answer null to close the waiting clients' connections
+     */
+    private void reset(BiConsumer<SelectionKey, ByteBuffer> onResponse, ByteBuffer answer) {
+        close();
+        Waiting next;
+        while ((next = waiting.poll()) != null) {
+            onResponse.accept(next.client, answer == null ? null : answer.duplicate());
+        }
+        out.clear();
+        in.clear();
+        response = null;
+        abandoned = 0;
+    }
+
+    void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+        channel = null;
+        key = null;
+    }
+}
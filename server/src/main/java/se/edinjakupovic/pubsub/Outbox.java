@@ -0,0 +1,72 @@
+package se.edinjakupovic.pubsub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Messages waiting to be pushed to a subscribed connection, each a duplicate of the frame shared by all subscribers.
+ * <p>
+ * Only touched by the connection's reactor thread.
+ */
+public final class Outbox {
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final int capacity;
+    // Already in the reactor's list of outboxes to write
+    boolean pending;
+
+    Outbox(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return false if the outbox is full
+     */
+    boolean offer(ByteBuffer frame) {
+        if (frames.size() == capacity) return false;
+        frames.add(frame);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /**
+     * True while the first frame is partly written, nothing else may be written to the connection before it is done.
+     */
+    public boolean inFlight() {
+        ByteBuffer head = frames.peek();
+        return head != null && head.position() > 0;
+    }
+
+    /**
+     * Writes the queued frames with one gathering write.
+     *
+     * @param scratch  holds the frames of the write, its length bounds their number
+     * @param maxBytes frames are added while less than this many bytes are, so the write goes past it by at most one frame
+     * @param headOnly write only the first frame
+     */
+    long write(SocketChannel channel, ByteBuffer[] scratch, int maxBytes, boolean headOnly) throws IOException {
+        int count = 0;
+        long bytes = 0;
+        for (ByteBuffer frame : frames) {
+            if (count == scratch.length || bytes >= maxBytes || (headOnly && count == 1)) break;
+            scratch[count++] = frame;
+            bytes += frame.remaining();
+        }
+        if (count == 0) return 0;
+        long written;
+        try {
+            written = channel.write(scratch, 0, count);
+        } finally {
+            Arrays.fill(scratch, 0, count, null);
+        }
+        while (!frames.isEmpty() && !frames.peek().hasRemaining()) {
+            frames.poll();
+        }
+        return written;
+    }
+}
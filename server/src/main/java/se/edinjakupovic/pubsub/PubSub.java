@@ -0,0 +1,42 @@
+package se.edinjakupovic.pubsub;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publish/subscribe service shared by the reactors of a server. Each reactor keeps the subscriptions of its own
+ * connections, a message published on one reactor is encoded once and handed to all others.
+ */
+public final class PubSub {
+    private final PubSubConfig config;
+    private final List<PubSubDispatcher> reactors = new CopyOnWriteArrayList<>();
+
+    private PubSub(PubSubConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @return null if {@code config} is null
+     */
+    public static PubSub open(PubSubConfig config) {
+        return config == null ? null : new PubSub(config);
+    }
+
+    PubSubConfig config() {
+        return config;
+    }
+
+    void register(PubSubDispatcher reactor) {
+        reactors.add(reactor);
+    }
+
+    /**
+     * Hands the encoded MESSAGE frame to every reactor except {@code origin}, they only read it through duplicates.
+     */
+    void publish(PubSubDispatcher origin, String topic, ByteBuffer frame) {
+        for (PubSubDispatcher reactor : reactors) {
+            if (reactor != origin) reactor.post(topic, frame);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package se.edinjakupovic.pubsub;
+
+/**
+ * Turns on publish/subscribe on the reserved types, see {@link se.edinjakupovic.PubSubProtocol}.
+ *
+ * @param maxQueuedMessages messages a subscriber may have waiting for its socket before it counts as slow
+ * @param slowConsumer      what happens to a message for a slow subscriber
+ */
+public record PubSubConfig(int maxQueuedMessages, SlowConsumer slowConsumer) {
+    public static final int DEFAULT_MAX_QUEUED_MESSAGES = 1024;
+
+    public enum SlowConsumer {
+        // The subscriber misses the message and stays connected
+        DROP,
+        // The subscriber is disconnected
+        DISCONNECT
+    }
+
+    public PubSubConfig {
+        if (maxQueuedMessages <= 0) {
+            throw new IllegalArgumentException("Max queued messages must be positive, got " + maxQueuedMessages);
+        }
+    }
+
+    public PubSubConfig() {
+        this(DEFAULT_MAX_QUEUED_MESSAGES, SlowConsumer.DROP);
+    }
+}
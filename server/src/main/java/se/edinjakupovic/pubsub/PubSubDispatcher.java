@@ -0,0 +1,192 @@
+package se.edinjakupovic.pubsub;
+
+import se.edinjakupovic.FrameCodec;
+import se.edinjakupovic.PubSubProtocol;
+import se.edinjakupovic.ReactorStats;
+import se.edinjakupovic.ServerClientContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Per reactor side of publish/subscribe. A published message is encoded once into a direct buffer, every subscriber's
+ * {@link Outbox} gets a duplicate of it, so the bytes are neither copied per subscriber nor into a temporary direct
+ * buffer when written. Messages published on other reactors arrive through the inbox.
+ * <p>
+ * Everything except {@link #post} runs on the reactor thread.
+ */
+public final class PubSubDispatcher {
+    private static final Logger log = Logger.getLogger("PubSub");
+    private static final int MAX_FRAMES_PER_WRITE = 64;
+
+    private final PubSub hub;
+    private final Selector selector;
+    private final ReactorStats stats;
+    private final FrameCodec codec;
+    private final int maxQueuedMessages;
+    private final PubSubConfig.SlowConsumer slowConsumer;
+    // Connections of this reactor by topic, closed ones are removed when a message finds them
+    private final Map<String, Set<SelectionKey>> topics = new HashMap<>();
+    private final Queue<Publication> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+    // Connections that got messages in this loop iteration
+    private final List<SelectionKey> pending = new ArrayList<>();
+    private final ByteBuffer[] scratch = new ByteBuffer[MAX_FRAMES_PER_WRITE];
+
+    private record Publication(String topic, ByteBuffer frame) {
+    }
+
+    public PubSubDispatcher(PubSub hub, Selector selector, ReactorStats stats, FrameCodec codec) {
+        this.hub = hub;
+        this.selector = selector;
+        this.stats = stats;
+        this.codec = codec;
+        this.maxQueuedMessages = hub.config().maxQueuedMessages();
+        this.slowConsumer = hub.config().slowConsumer();
+        hub.register(this);
+    }
+
+    /**
+     * @return the response, null if the type is not SUBSCRIBE, UNSUBSCRIBE or PUBLISH
+     */
+    public ByteBuffer process(SelectionKey key, byte type, ByteBuffer body) {
+        return switch (type) {
+            case PubSubProtocol.SUBSCRIBE -> status(type, subscribe(key, body));
+            case PubSubProtocol.UNSUBSCRIBE -> status(type, unsubscribe(key, body));
+            case PubSubProtocol.PUBLISH -> status(type, publish(body));
+            default -> null;
+        };
+    }
+
+    private boolean subscribe(SelectionKey key, ByteBuffer body) {
+        if (!body.hasRemaining()) return false;
+        ServerClientContext ctx = (ServerClientContext) key.attachment();
+        if (ctx.outbox == null) ctx.outbox = new Outbox(maxQueuedMessages);
+        topics.computeIfAbsent(topic(body), _ -> new LinkedHashSet<>()).add(key);
+        return true;
+    }
+
+    private boolean unsubscribe(SelectionKey key, ByteBuffer body) {
+        if (!body.hasRemaining()) return false;
+        String topic = topic(body);
+        Set<SelectionKey> subscribers = topics.get(topic);
+        if (subscribers != null && subscribers.remove(key) && subscribers.isEmpty()) topics.remove(topic);
+        return true;
+    }
+
+    private boolean publish(ByteBuffer body) {
+        String topic = PubSubProtocol.topic(body);
+        if (topic == null) return false;
+        int length = body.remaining();
+        ByteBuffer frame = ByteBuffer.allocateDirect(codec.headerSize(length) + length);
+        int headerSize = codec.encodeHeader(frame, 0, PubSubProtocol.MESSAGE, true, length, (byte) 0);
+        frame.put(headerSize, body, body.position(), length);
+        frame = frame.asReadOnlyBuffer();
+        deliver(topic, frame);
+        hub.publish(this, topic, frame);
+        return true;
+    }
+
+    void post(String topic, ByteBuffer frame) {
+        inbox.add(new Publication(topic, frame));
+        if (wakeupRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return true from the moment another thread posts work until the next drain
+     */
+    public boolean hasPending() {
+        return wakeupRequested.get();
+    }
+
+    /**
+     * Delivers the messages published on other reactors.
+     */
+    public void drain() {
+        wakeupRequested.set(false);
+        Publication publication;
+        while ((publication = inbox.poll()) != null) {
+            deliver(publication.topic(), publication.frame());
+        }
+    }
+
+    private void deliver(String topic, ByteBuffer frame) {
+        Set<SelectionKey> subscribers = topics.get(topic);
+        if (subscribers == null) return;
+        for (Iterator<SelectionKey> it = subscribers.iterator(); it.hasNext(); ) {
+            SelectionKey key = it.next();
+            if (!key.isValid()) {
+                it.remove();
+                continue;
+            }
+            Outbox outbox = ((ServerClientContext) key.attachment()).outbox;
+            if (outbox.offer(frame.duplicate())) {
+                stats.pushes++;
+                if (!outbox.pending) {
+                    outbox.pending = true;
+                    pending.add(key);
+                }
+            } else if (slowConsumer == PubSubConfig.SlowConsumer.DISCONNECT) {
+                stats.slowConsumerDisconnects++;
+                it.remove();
+                close(key);
+            } else {
+                stats.pushDrops++;
+            }
+        }
+        if (subscribers.isEmpty()) topics.remove(topic);
+    }
+
+    /**
+     * Passes the connections that got messages in this iteration to {@code onPush}, once each.
+     */
+    public void flush(Consumer<SelectionKey> onPush) {
+        for (SelectionKey key : pending) {
+            ((ServerClientContext) key.attachment()).outbox.pending = false;
+            if (key.isValid()) onPush.accept(key);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Writes the connection's queued messages, see {@link Outbox#write}.
+     */
+    public long write(Outbox outbox, SocketChannel channel, int maxBytes, boolean headOnly) throws IOException {
+        return outbox.write(channel, scratch, maxBytes, headOnly);
+    }
+
+    private static String topic(ByteBuffer body) {
+        return StandardCharsets.UTF_8.decode(body.slice()).toString();
+    }
+
+    private ByteBuffer status(byte type, boolean ok) {
+        return codec.frame(type, new byte[]{ok ? PubSubProtocol.OK : PubSubProtocol.MALFORMED}, true);
+    }
+
+    private static void close(SelectionKey key) {
+        try {
+            key.cancel();
+            key.channel().close();
+        } catch (IOException e) {
+            log.warning("Failed to close slow subscriber: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package se.edinjakupovic.shedding;
+
+import se.edinjakupovic.BusyProtocol;
+import se.edinjakupovic.FrameCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CoDel style overload detection for one reactor. Every answered request reports how long it queued, before its
+ * handler started and between its response being ready and written. A burst makes some requests wait, but if even
+ * the lowest delay of an interval is above the target the queue is standing and will not drain on its own.
+ * <p>
+ * The reactor is then overloaded and sheds every new request that already waited longer than the target, until an
+ * interval's lowest delay is back under it. Otherwise only requests that waited a whole interval are shed. Shedding
+ * answers with a BUSY frame right away, so it costs a fraction of handling the request and the requests still
+ * handled stay within the target.
+ * <p>
+ * Only used from its reactor's thread.
+ */
+public final class LoadShedder {
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final ByteBuffer busyFrame;
+    private long intervalEnd;
+    private long minDelay = Long.MAX_VALUE;
+    private boolean overloaded;
+
+    public LoadShedder(SheddingConfig config, FrameCodec codec) {
+        this.targetNanos = config.targetMicros() * 1_000;
+        this.intervalNanos = config.intervalMillis() * 1_000_000;
+        this.busyFrame = BusyProtocol.frame(codec, config.retryAfterMillis()).asReadOnlyBuffer();
+        this.intervalEnd = System.nanoTime() + intervalNanos;
+    }
+
+    /**
+     * @param queuedNanos time the request waited before its handler would start
+     * @return true if the request should be answered with {@link #busyResponse()}
+     */
+    public boolean shouldShed(long queuedNanos, long now) {
+        if (now - intervalEnd >= 0) endInterval(now);
+        return queuedNanos > (overloaded ? targetNanos : intervalNanos);
+    }
+
+    /**
+     * @param delayNanos time an answered request spent queued
+     */
+    public void record(long delayNanos, long now) {
+        if (delayNanos < minDelay) minDelay = delayNanos;
+        if (now - intervalEnd >= 0) endInterval(now);
+    }
+
+    private void endInterval(long now) {
+        // An interval without requests says nothing about a queue
+        overloaded = minDelay != Long.MAX_VALUE && minDelay > targetNanos;
+        minDelay = Long.MAX_VALUE;
+        intervalEnd = now + intervalNanos;
+    }
+
+    public boolean overloaded() {
+        return overloaded;
+    }
+
+    public ByteBuffer busyResponse() {
+        return busyFrame.duplicate();
+    }
+}
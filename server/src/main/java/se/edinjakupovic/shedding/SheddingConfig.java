@@ -0,0 +1,22 @@
+package se.edinjakupovic.shedding;
+
+/**
+ * Lets the multi reactor server answer requests with a BUSY frame instead of queueing them when it is overloaded,
+ * see {@link LoadShedder}.
+ *
+ * @param targetMicros     queueing delay the lowest of an interval may reach before the reactor counts as overloaded
+ * @param intervalMillis   how long the delay has to stay above the target, also the most a request may wait otherwise
+ * @param retryAfterMillis hint sent in the BUSY frame
+ */
+public record SheddingConfig(
+        long targetMicros,
+        long intervalMillis,
+        int retryAfterMillis
+) {
+    public SheddingConfig {
+        if (targetMicros <= 0 || intervalMillis <= 0 || targetMicros >= intervalMillis * 1_000) {
+            throw new IllegalArgumentException("Target " + targetMicros + " µs must be positive and below the interval of " + intervalMillis + " ms");
+        }
+        if (retryAfterMillis < 0) throw new IllegalArgumentException("Retry after must not be negative, got " + retryAfterMillis);
+    }
+}
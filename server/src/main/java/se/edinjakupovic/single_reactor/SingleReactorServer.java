@@ -1,9 +1,24 @@
 package se.edinjakupovic.single_reactor;
 
+import se.edinjakupovic.BatchHandler;
 import se.edinjakupovic.ClientStatus;
+import se.edinjakupovic.CoalescingMessageHandler;
+import se.edinjakupovic.Compression;
+import se.edinjakupovic.ConnectionBudget;
+import se.edinjakupovic.Event;
+import se.edinjakupovic.EventLog;
+import se.edinjakupovic.EventRing;
+import se.edinjakupovic.FrameBatcher;
 import se.edinjakupovic.MessageHandler;
+import se.edinjakupovic.ReactorStats;
 import se.edinjakupovic.ServerClientContext;
 import se.edinjakupovic.ServerConfig;
+import se.edinjakupovic.capture.TrafficCapture;
+import se.edinjakupovic.journal.Journal;
+import se.edinjakupovic.journal.JournalDispatcher;
+import se.edinjakupovic.kv.KvShard;
+import se.edinjakupovic.lanes.LaneDispatcher;
+import se.edinjakupovic.lanes.Lanes;
 
 import java.io.IOException;
 import java.net.StandardSocketOptions;
@@ -15,25 +30,68 @@ import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import static se.edinjakupovic.ServerConstants.ERROR_TYPE;
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
+
 public class SingleReactorServer {
     private static final Logger log = Logger.getLogger("Server");
     private final ServerConfig config;
-    private final Map<Byte, MessageHandler> handlers;
+    private Map<Byte, MessageHandler> handlers;
+    // The only shard of the key-value service, null when it is off
+    private final KvShard kv;
     private final MessageHandler errorHandler;
+    private final Compression compression;
+    private final Lanes laneExecutors;
+    private LaneDispatcher lanes;
+    private final FrameBatcher batcher = new FrameBatcher();
+    private final ReactorStats stats = new ReactorStats();
+    private TrafficCapture capture;
+    // Null when the journal is off
+    private JournalDispatcher journal;
+    // Reactor thread's event ring, null when events are off
+    private EventRing events;
 
     public SingleReactorServer(ServerConfig config) {
+        if (config.pubSub() != null) {
+            throw new IllegalArgumentException("Publish/subscribe needs the multi reactor server");
+        }
+        if (!config.upstreams().isEmpty()) {
+            throw new IllegalArgumentException("Forwarding needs the multi reactor server");
+        }
+        if (config.elastic() != null) {
+            throw new IllegalArgumentException("An elastic reactor count needs the multi reactor server");
+        }
+        if (config.shedding() != null) {
+            throw new IllegalArgumentException("Load shedding needs the multi reactor server");
+        }
+        if (!config.connectionBudget().equals(ConnectionBudget.UNLIMITED)) {
+            throw new IllegalArgumentException("A connection budget needs the multi reactor server");
+        }
         this.config = config;
-        this.handlers = config.handlers();
+        this.kv = config.kv() == null ? null : new KvShard(config.kv(), config.config().codec());
+        Map<Byte, MessageHandler> handlers = BatchHandler.withHandlers(config.handlers(), config.errorHandler(), config.config().codec());
+        this.handlers = kv == null ? handlers : kv.withHandlers(handlers);
         this.errorHandler = config.errorHandler();
+        this.compression = config.config().compression();
+        this.laneExecutors = new Lanes(config.lanes());
     }
 
     public void start(Runnable onStart) throws IOException {
+        if (EventLog.INFO) events = EventLog.ring();
         try (Selector selector = Selector.open();
-             ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+             ServerSocketChannel serverSocket = ServerSocketChannel.open();
+             TrafficCapture capture = TrafficCapture.open(config.capture());
+             Journal journal = Journal.open(config.journal())) {
+            this.capture = capture;
+            if (journal != null) {
+                this.journal = new JournalDispatcher(journal, selector, config.config().codec());
+                handlers = journal.withHandlers(handlers, config.config().codec());
+            }
             serverSocket.socket().setReuseAddress(true);
             serverSocket.bind(config.bindAddress());
             serverSocket.configureBlocking(false);
             serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+            lanes = new LaneDispatcher(laneExecutors, selector, errorHandler);
             log.info("Started server on port: " + config.bindAddress().getPort());
             onStart.run();
 
@@ -41,21 +99,28 @@ public class SingleReactorServer {
                 selector.select(key -> {
                     try {
                         if (!key.isValid()) {
-                            print("Closing invalid key");
+                            if (EventLog.DEBUG) events.record(Event.INVALID_KEY, connectionId(key), 0);
                             closeChannel(key);
                             return;
                         }
                         if (key.isAcceptable()) accept(selector, serverSocket);
                         if (key.isReadable()) read(key);
-                        if (key.isWritable()) write(key);
+                        if (key.isValid() && key.isWritable()) write(key);
                     } catch (IOException e) {
-                        print("SERVER ERROR " + e);
+                        if (EventLog.DEBUG) events.record(Event.CONNECTION_FAILED, connectionId(key), 0, e);
                         closeChannel(key);
                     }
                 });
+                lanes.drainCompletions(this::onResponse);
+                if (journal != null) this.journal.drainCompletions(this::onResponse);
+                batcher.flush(lanes, this::onResponse);
+                lanes.flush();
+                if (journal != null) this.journal.flush();
             }
+        } finally {
+            laneExecutors.shutdown();
         }
-        if (Thread.currentThread().isInterrupted()) print("Server stopped");
+        if (EventLog.DEBUG && Thread.currentThread().isInterrupted()) events.record(Event.SERVER_STOPPED, 0, 0);
     }
 
     private void write(SelectionKey key) throws IOException {
@@ -86,7 +151,7 @@ public class SingleReactorServer {
             if (state.status == ClientStatus.READING_HEADER) {
                 int read = state.readHeader(clientChannel, key);
                 if (read < 0) {
-                    print("SERVER ERROR - Got 1 while reading header, closing connection");
+                    if (EventLog.DEBUG) events.record(Event.PEER_CLOSED, state.connectionId, 0);
                     closeChannel(key);
                     return;
                 }
@@ -96,13 +161,12 @@ public class SingleReactorServer {
             if (state.status == ClientStatus.READING_BODY) {
                 int read = clientChannel.read(state.bodyBuffer);
                 if (read < 0) {
-                    print("SERVER ERROR - Got 1 while reading body, closing connection");
+                    if (EventLog.DEBUG) events.record(Event.PEER_CLOSED, state.connectionId, 0);
                     closeChannel(key);
                     return;
                 }
-                if (read == 0) return;
                 if (!state.bodyBuffer.hasRemaining()) {
-                    processMessage(key, state.tlvType, state.bodyBuffer);
+                    processMessage(key, state.tlvType, state.requestBody(compression));
                 }
             }
         } catch (IOException e) {
@@ -114,14 +178,59 @@ public class SingleReactorServer {
         }
     }
 
-    private void processMessage(SelectionKey key, byte type, ByteBuffer bodyBuffer) {
+    private void processMessage(SelectionKey key, int tlvType, ByteBuffer bodyBuffer) throws IOException {
+        // Handlers cover the 1 byte types, wider types from a 2 byte codec get the error handler
+        byte type = tlvType > TLV_TYPE_MASK ? ERROR_TYPE : (byte) tlvType;
         MessageHandler messageHandler = handlers.get(type);
+        ServerClientContext state = (ServerClientContext) key.attachment();
+        if (capture != null) capture.record(state.connectionId, tlvType, state.keepAlive, bodyBuffer);
+        MessageHandler handler = messageHandler == null ? errorHandler : messageHandler;
+        if (handler instanceof CoalescingMessageHandler coalescing && lanes.follow(key, coalescing, bodyBuffer)) {
+            stats.coalesced++;
+            state.status = ClientStatus.PROCESSING;
+            return;
+        }
+        if ((journal != null && journal.append(key, type, bodyBuffer))
+                || batcher.add(key, type, handler, bodyBuffer) || lanes.dispatch(key, type, handler, bodyBuffer)) {
+            state.status = ClientStatus.PROCESSING;
+            return;
+        }
         ByteBuffer responseBuffer = messageHandler == null
                 ? errorHandler.processMessage(bodyBuffer)
                 : messageHandler.processMessage(bodyBuffer);
+        state.setResponse(responseBuffer, compression);
+        writeEagerly(key, state);
+    }
+
+    /**
+     * Writes the response right away instead of waiting a select round for OP_WRITE,
+     * {@link #write} only registers OP_WRITE if the socket buffer is full.
+     */
+    private void writeEagerly(SelectionKey key, ServerClientContext state) throws IOException {
+        stats.responses++;
+        write(key);
+        if (key.isValid() && state.status == ClientStatus.WRITING_RESPONSE) {
+            stats.writeFallbacks++;
+        }
+    }
+
+    private void onResponse(SelectionKey key, ByteBuffer response) {
+        if (!key.isValid()) return;
+        if (response == null) {
+            closeChannel(key);
+            return;
+        }
         ServerClientContext state = (ServerClientContext) key.attachment();
-        state.setResponse(responseBuffer);
-        key.interestOps(SelectionKey.OP_WRITE);
+        state.setResponse(response, compression);
+        try {
+            writeEagerly(key, state);
+        } catch (IOException e) {
+            closeChannel(key);
+        }
+    }
+
+    public ReactorStats stats() {
+        return stats;
     }
 
     private void accept(Selector selector, ServerSocketChannel serverSocket) throws IOException {
@@ -129,7 +238,7 @@ public class SingleReactorServer {
         if (client == null) return;
         client.configureBlocking(false);
         client.setOption(StandardSocketOptions.TCP_NODELAY, true);
-        ServerClientContext clientCtx = new ServerClientContext(config.config().headerSizeBytes());
+        ServerClientContext clientCtx = new ServerClientContext(config.config().codec(), config.config().maxBodySize());
         client.register(selector, SelectionKey.OP_READ, clientCtx);
     }
 
@@ -144,9 +253,7 @@ public class SingleReactorServer {
         }
     }
 
-    static final boolean logEnabled = false;
-
-    public static void print(Object any) {
-        if (logEnabled) System.out.print(any);
+    private static long connectionId(SelectionKey key) {
+        return key.attachment() instanceof ServerClientContext ctx ? ctx.connectionId : -1;
     }
 }
@@ -1,9 +1,12 @@
 package se.edinjakupovic.utils;
 
+import se.edinjakupovic.FrameCodec;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import static se.edinjakupovic.ServerConstants.KEEP_ALIVE_BIT;
+import static se.edinjakupovic.ServerConstants.TLV_TYPE_MASK;
 
 public final class PayloadUtils {
 
@@ -12,25 +15,18 @@ public final class PayloadUtils {
     }
 
     public static ByteBuffer payload(byte type, String body, boolean keepAlive) {
-        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
-        byte payloadLength = (byte) payload.length;
-
-        byte typeByte = (byte) (type & 0x7F);
-        if (keepAlive) {
-            typeByte |= 0x80;
-        }
-
-        ByteBuffer buffer = ByteBuffer.allocate(5 + payloadLength);
+        return payload(FrameCodec.DEFAULT, type & TLV_TYPE_MASK, body.getBytes(StandardCharsets.UTF_8), keepAlive);
+    }
 
-        buffer.put(typeByte);
-        buffer.put((byte) (payloadLength >> 24));
-        buffer.put((byte) (payloadLength >> 16));
-        buffer.put((byte) (payloadLength >> 8));
-        buffer.put((byte) (payloadLength));
-        buffer.put(payload);
+    public static ByteBuffer payload(FrameCodec codec, int type, byte[] body, boolean keepAlive) {
+        return codec.frame(type, body, keepAlive);
+    }
 
-        buffer.flip();
-        return buffer;
+    /**
+     * Frame with the extended 6 byte header, flags are left empty and set by {@link se.edinjakupovic.Compression}.
+     */
+    public static ByteBuffer flaggedPayload(byte type, byte[] body, boolean keepAlive) {
+        return payload(FrameCodec.DEFAULT.withFlags(), type & TLV_TYPE_MASK, body, keepAlive);
     }
 
     public static boolean isKeepAlive(byte typeByte) {
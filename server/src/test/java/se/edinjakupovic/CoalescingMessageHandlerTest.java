@@ -0,0 +1,80 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CoalescingMessageHandlerTest {
+
+    @Test
+    void concurrentIdenticalRequestsShareOneInvocation() throws Exception {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch leading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CoalescingMessageHandler handler = (CoalescingMessageHandler) MessageHandler.idempotent(_ -> {
+            invocations.incrementAndGet();
+            leading.countDown();
+            await(release);
+            return ByteBuffer.wrap(new byte[]{1, 2, 3});
+        });
+
+        List<CompletableFuture<ByteBuffer>> followers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<ByteBuffer> leader = executor.submit(() -> handler.processMessage(body("popular-key")));
+            assertThat(leading.await(1, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 7; i++) {
+                CompletableFuture<ByteBuffer> call = handler.follow(body("popular-key"));
+                assertThat(call.isDone()).isFalse();
+                followers.add(call);
+            }
+            release.countDown();
+
+            assertThat(leader.get(1, TimeUnit.SECONDS).remaining()).isEqualTo(3);
+        }
+        for (CompletableFuture<ByteBuffer> follower : followers) {
+            assertThat(follower.get(1, TimeUnit.SECONDS).remaining()).isEqualTo(3);
+        }
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(handler.inFlight()).isZero();
+        assertThat(handler.follow(body("popular-key"))).isNull();
+    }
+
+    @Test
+    void differentBodiesAreNotCoalesced() {
+        AtomicInteger invocations = new AtomicInteger();
+        MessageHandler handler = MessageHandler.idempotent(body -> {
+            invocations.incrementAndGet();
+            return body;
+        });
+
+        handler.processMessage(body("a"));
+        handler.processMessage(body("b"));
+        handler.processMessage(body("a"));
+
+        assertThat(invocations.get()).isEqualTo(3);
+    }
+
+    private static ByteBuffer body(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
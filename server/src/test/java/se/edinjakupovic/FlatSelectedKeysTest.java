@@ -0,0 +1,55 @@
+package se.edinjakupovic;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FlatSelectedKeysTest {
+
+    @Test
+    void selectShouldReportReadyKeysWithOrWithoutTheFlatSet() throws Exception {
+        Pipe pipe = Pipe.open();
+        try (Selector selector = Selector.open(); Pipe.SourceChannel source = pipe.source(); Pipe.SinkChannel sink = pipe.sink()) {
+            source.configureBlocking(false);
+            SelectionKey key = source.register(selector, SelectionKey.OP_READ);
+            // Null unless the tests run with --add-opens java.base/sun.nio.ch=ALL-UNNAMED
+            FlatSelectedKeys flat = FlatSelectedKeys.install(selector);
+            sink.write(ByteBuffer.wrap(new byte[]{1}));
+
+            for (int round = 0; round < 2; round++) {
+                assertThat(selector.select(1000)).isEqualTo(1);
+                if (flat != null) {
+                    assertThat(flat.size()).isEqualTo(1);
+                    assertThat(flat.get(0)).isSameAs(key);
+                    flat.reset();
+                } else {
+                    assertThat(selector.selectedKeys()).containsExactly(key);
+                    selector.selectedKeys().clear();
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldGrowAndForgetKeysOnReset() throws Exception {
+        Pipe pipe = Pipe.open();
+        // Only the source's key is needed
+        pipe.sink().close();
+        try (Selector selector = Selector.open(); Pipe.SourceChannel source = pipe.source()) {
+            source.configureBlocking(false);
+            SelectionKey key = source.register(selector, SelectionKey.OP_READ);
+            FlatSelectedKeys keys = new FlatSelectedKeys();
+            for (int i = 0; i < 3000; i++) keys.add(key);
+            assertThat(keys.size()).isEqualTo(3000);
+            assertThat(keys.get(2999)).isSameAs(key);
+            keys.reset();
+            assertThat(keys.size()).isZero();
+            assertThat(keys.iterator().hasNext()).isFalse();
+        }
+    }
+}
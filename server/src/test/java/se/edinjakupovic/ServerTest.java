@@ -1,16 +1,47 @@
 package se.edinjakupovic;
 
 import org.junit.jupiter.api.Test;
+import se.edinjakupovic.capture.CaptureConfig;
+import se.edinjakupovic.capture.CaptureReader;
+import se.edinjakupovic.journal.JournalConfig;
+import se.edinjakupovic.kv.KvConfig;
+import se.edinjakupovic.lanes.LaneConfig;
+import se.edinjakupovic.multi_reactor.ElasticConfig;
+import se.edinjakupovic.multi_reactor.MultiReactorServer;
+import se.edinjakupovic.proxy.UpstreamConfig;
+import se.edinjakupovic.pubsub.PubSubConfig;
+import se.edinjakupovic.shedding.SheddingConfig;
+import se.edinjakupovic.single_reactor.SingleReactorServer;
 import se.edinjakupovic.utils.IterativeByteClient;
 import se.edinjakupovic.utils.TestServer;
 
+import java.io.EOFException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static se.edinjakupovic.utils.PayloadUtils.flaggedPayload;
 import static se.edinjakupovic.utils.PayloadUtils.payload;
 
 class ServerTest {
@@ -106,6 +137,957 @@ class ServerTest {
         }
     }
 
+    @Test
+    void shouldInflateRequestsAndDeflateLargeResponses() throws Exception {
+        byte[] body = "{\"key\":\"value\"},".repeat(200).getBytes(StandardCharsets.UTF_8);
+        Compression compression = new Compression(64);
+        try (var server = TestServer.withConfig(new TLVConfig(6, 1 << 16, 64), Map.of(
+                (byte) 1, request -> {
+                    byte[] echo = new byte[request.remaining()];
+                    request.get(echo);
+                    return flaggedPayload((byte) 1, echo, false);
+                }
+        ))) {
+            ByteBuffer request = compression.compressFrame(flaggedPayload((byte) 1, body, false), null);
+            assertThat(Compression.isCompressed(request.get(5))).isTrue();
+
+            ByteBuffer response = server.testClient().sendPayload(request);
+            assertThat(response.get(0)).isEqualTo((byte) 1);
+            assertThat(Compression.isCompressed(response.get(5))).isTrue();
+            assertThat(response.getInt(1)).isLessThan(body.length);
+
+            ByteBuffer inflated = compression.inflate(response.position(6), null, 1 << 16);
+            assertThat(inflated).isEqualTo(ByteBuffer.wrap(body));
+        }
+    }
+
+    @Test
+    void nioClientShouldRejectResponsesInflatingPastItsMax() throws Exception {
+        TestServer server = TestServer.withConfig(new TLVConfig(6, 1 << 16, 64), Map.of(
+                (byte) 1, _ -> flaggedPayload((byte) 1, new byte[8192], true)
+        ));
+        try {
+            NioClient client = new NioClient(new InetSocketAddress(8080),
+                    new Compression(FrameCodec.DEFAULT.withFlags(), 64, Deflater.BEST_SPEED, 4096));
+            try {
+                CompletableFuture<Long> response = client.sendRPC(flaggedPayload((byte) 1, new byte[0], true));
+                assertThat(response.handle((_, e) -> e.getMessage()).get(1, TimeUnit.SECONDS))
+                        .contains("inflates to 8192 bytes, max is 4096");
+            } finally {
+                client.stop();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void nioClientShouldReuseBuffersAcrossCallbackRequests() throws Exception {
+        TestServer server = TestServer.withHandler((byte) 1, request -> {
+            byte[] echo = new byte[request.remaining()];
+            request.get(echo);
+            return payload((byte) 1, new String(echo, StandardCharsets.UTF_8));
+        });
+        try {
+            NioClient client = new NioClient();
+            try {
+                List<String> bodies = new CopyOnWriteArrayList<>();
+                for (String body : List.of("a much longer body than the next", "short", "")) {
+                    CountDownLatch done = new CountDownLatch(1);
+                    ByteBuffer request = payload((byte) 1, body, true);
+                    assertThat(client.sendRPC(request, new ResponseCallback() {
+                        @Override
+                        public void onResponse(int type, ByteBuffer response, long elapsedNanos) {
+                            bodies.add(StandardCharsets.UTF_8.decode(response).toString());
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onError(String reason) {
+                            bodies.add("error: " + reason);
+                            done.countDown();
+                        }
+                    })).isTrue();
+                    // The request was copied, so the caller's buffer is free to reuse right away
+                    request.clear().put(new byte[request.capacity()]);
+                    assertThat(done.await(1, TimeUnit.SECONDS)).isTrue();
+                }
+                assertThat(bodies).containsExactly("a much longer body than the next", "short", "");
+
+                assertThat(client.sendRPC(payload((byte) 1, "future", true)).get(1, TimeUnit.SECONDS)).isNotNull();
+            } finally {
+                client.stop();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void coalescedRequestsShouldShareWritesAndBeAnsweredInOrder() throws Exception {
+        TestServer server = TestServer.withHandler((byte) 1, request -> {
+            byte[] echo = new byte[request.remaining()];
+            request.get(echo);
+            return payload((byte) 1, new String(echo, StandardCharsets.UTF_8));
+        });
+        try {
+            NioClient client = new NioClient(new InetSocketAddress(8080), FrameCodec.DEFAULT, null, null,
+                    new WriteCoalescing(2_000, 4096));
+            try {
+                int requests = 300;
+                List<String> bodies = new CopyOnWriteArrayList<>();
+                CountDownLatch done = new CountDownLatch(requests);
+                ResponseCallback callback = new ResponseCallback() {
+                    @Override
+                    public void onResponse(int type, ByteBuffer response, long elapsedNanos) {
+                        bodies.add(StandardCharsets.UTF_8.decode(response).toString());
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(String reason) {
+                        bodies.add("error: " + reason);
+                        done.countDown();
+                    }
+                };
+                for (int i = 0; i < requests; i++) {
+                    assertThat(client.sendRPC(payload((byte) 1, "request " + i, true), callback)).isTrue();
+                }
+                assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+                assertThat(bodies).isEqualTo(IntStream.range(0, requests).mapToObj(i -> "request " + i).toList());
+                assertThat(client.state.channelsOpened).isEqualTo(1);
+                assertThat(client.state.coalescedRequests).isEqualTo(requests);
+                assertThat(client.state.coalescedWrites).isLessThan(requests / 4);
+            } finally {
+                client.stop();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void shouldCaptureIncomingFrames() throws Exception {
+        Path file = Files.createTempFile("capture", ".bin");
+        try {
+            try (var server = TestServer.withCapture(Map.of((byte) 1, _ -> ByteBuffer.wrap(new byte[]{1})),
+                    new CaptureConfig(file, 1 << 16))) {
+                server.testClient().sendPayload(payload((byte) 1, "first"));
+                server.testClient().sendPayload(payload((byte) 1, "second"));
+                server.testClient().sendPayload(payload((byte) 2, "unknown"));
+            }
+
+            List<CaptureReader.CapturedFrame> frames = CaptureReader.read(file);
+            assertThat(frames.stream().map(f -> StandardCharsets.UTF_8.decode(f.body()).toString()).toList())
+                    .containsExactly("first", "second", "unknown");
+            assertThat(frames.get(2).type()).isEqualTo(2);
+            assertThat(frames.get(0).connectionId()).isNotEqualTo(frames.get(1).connectionId());
+            assertThat(frames.get(0).nanos()).isLessThanOrEqualTo(frames.get(1).nanos());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void appendsShouldBeAnsweredWithTheirOffsetAndReadBack() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            try (var server = TestServer.withJournal(Map.of(), new JournalConfig(directory))) {
+                for (int i = 0; i < 3; i++) {
+                    ByteBuffer append = server.testClient().sendPayload(JournalProtocol.append(("record-" + i).getBytes(), false));
+                    assertThat(append.get(5)).isEqualTo(JournalProtocol.OK);
+                    assertThat(append.getLong(6)).isEqualTo(i);
+                }
+                ByteBuffer read = server.testClient().sendPayload(JournalProtocol.read(1, false));
+                assertThat((byte) (read.get(0) & ServerConstants.TLV_TYPE_MASK)).isEqualTo(JournalProtocol.READ);
+                assertThat(read.get(5)).isEqualTo(JournalProtocol.OK);
+                assertThat(StandardCharsets.UTF_8.decode(read.position(6)).toString()).isEqualTo("record-1");
+                assertThat(server.testClient().sendPayload(JournalProtocol.read(3, false)).get(5)).isEqualTo(JournalProtocol.NOT_FOUND);
+            }
+        } finally {
+            try (var files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void coalescedFollowerShouldNotBlockItsReactor() throws Exception {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch leading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 2, Map.of(
+                (byte) 1, MessageHandler.idempotent(_ -> {
+                    invocations.incrementAndGet();
+                    leading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return FrameCodec.DEFAULT.frame(1, "shared".getBytes(), true);
+                }),
+                (byte) 2, _ -> FrameCodec.DEFAULT.frame(2, "other".getBytes(), true)),
+                null));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        // The acceptor takes turns, so the leader and the other connection share the first reactor, the follower
+        // and the bystander the second
+        try (SocketChannel leader = SocketChannel.open(new InetSocketAddress(8080));
+             SocketChannel follower = SocketChannel.open(new InetSocketAddress(8080));
+             SocketChannel _ = SocketChannel.open(new InetSocketAddress(8080));
+             SocketChannel bystander = SocketChannel.open(new InetSocketAddress(8080))) {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            writeFully(leader, payload((byte) 1, "key", true));
+            assertThat(leading.await(1, TimeUnit.SECONDS)).isTrue();
+            writeFully(follower, payload((byte) 1, "key", true));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (server.stats().coalesced == 0 && System.nanoTime() < deadline) Thread.yield();
+            assertThat(server.stats().coalesced).isEqualTo(1);
+
+            // The follower's reactor keeps serving while the leader is still in the handler
+            writeFully(bystander, payload((byte) 2, "other", true));
+            assertThat(text(readFrame(bystander).position(5))).isEqualTo("other");
+            assertThat(invocations.get()).isEqualTo(1);
+            release.countDown();
+            assertThat(text(readFrame(leader).position(5))).isEqualTo("shared");
+            assertThat(text(readFrame(follower).position(5))).isEqualTo("shared");
+            assertThat(invocations.get()).isEqualTo(1);
+        } finally {
+            release.countDown();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void frameBudgetShouldSpreadPipelinedRequestsOverIterations() throws Exception {
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 1, Map.of(
+                (byte) 1, body -> {
+                    byte[] echo = new byte[body.remaining()];
+                    body.get(echo);
+                    return FrameCodec.DEFAULT.frame(1, echo, true);
+                }),
+                null).withConnectionBudget(new ConnectionBudget(Integer.MAX_VALUE, 2)));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(8080))) {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            ByteBuffer pipelined = ByteBuffer.allocate(8 * 7);
+            for (int i = 0; i < 8; i++) pipelined.put(payload((byte) 1, "r" + i, true));
+            writeFully(channel, pipelined.flip());
+
+            for (int i = 0; i < 8; i++) {
+                assertThat(text(readFrame(channel).position(5))).isEqualTo("r" + i);
+            }
+            // Two requests per iteration, the rest wait in the ready list
+            assertThat(server.stats().budgetDeferrals).isGreaterThanOrEqualTo(3L);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void byteBudgetShouldSpreadPipelinedRequestsOverIterations() throws Exception {
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 1, Map.of(
+                (byte) 1, body -> {
+                    byte[] echo = new byte[body.remaining()];
+                    body.get(echo);
+                    return FrameCodec.DEFAULT.frame(1, echo, true);
+                }),
+                null).withConnectionBudget(new ConnectionBudget(100, 1000)));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(8080))) {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            // Headers are read whole, so some of them end past the budget
+            int[] lengths = {0, 1, 3, 7, 12, 16, 22, 33};
+            List<String> bodies = new ArrayList<>();
+            for (int i = 0; i < 20; i++) bodies.add("x".repeat(lengths[i % lengths.length]));
+            ByteBuffer pipelined = ByteBuffer.allocate(bodies.stream().mapToInt(body -> 5 + body.length()).sum());
+            for (String body : bodies) pipelined.put(payload((byte) 1, body, true));
+            writeFully(channel, pipelined.flip());
+
+            for (String body : bodies) {
+                assertThat(text(readFrame(channel).position(5))).isEqualTo(body);
+            }
+            assertThat(server.stats().budgetDeferrals).isGreaterThanOrEqualTo(3L);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void singleReactorShouldRejectAConnectionBudget() {
+        ServerConfig config = new ServerConfig(new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0,
+                1000, 1, Map.of(), null).withConnectionBudget(new ConnectionBudget(1 << 16, 4));
+
+        assertThatThrownBy(() -> new SingleReactorServer(config))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("multi reactor");
+    }
+
+    @Test
+    void kvRequestsShouldReachTheOwningShardFromAnyReactor() throws Exception {
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 4, Map.of(),
+                null).withKv(new KvConfig(1 << 20)));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        try {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            // A connection per request, the acceptor spreads them over the reactors
+            SimpleClient client = new SimpleClient(new InetSocketAddress(8080));
+            for (int i = 0; i < 32; i++) {
+                ByteBuffer put = client.sendPayload(KvProtocol.put(("key-" + i).getBytes(), ("value-" + i).getBytes(), false));
+                assertThat(put.get(5)).isEqualTo(KvProtocol.OK);
+            }
+            for (int i = 0; i < 32; i++) {
+                ByteBuffer get = client.sendPayload(KvProtocol.get(("key-" + i).getBytes(), false));
+                assertThat((byte) (get.get(0) & ServerConstants.TLV_TYPE_MASK)).isEqualTo(KvProtocol.GET);
+                assertThat(get.get(5)).isEqualTo(KvProtocol.OK);
+                assertThat(StandardCharsets.UTF_8.decode(get.position(6)).toString()).isEqualTo("value-" + i);
+            }
+            assertThat(client.sendPayload(KvProtocol.delete("key-3".getBytes(), false)).get(5)).isEqualTo(KvProtocol.OK);
+            assertThat(client.sendPayload(KvProtocol.get("key-3".getBytes(), false)).get(5)).isEqualTo(KvProtocol.NOT_FOUND);
+
+            int stored = 0;
+            for (int shard = 0; shard < server.kv().shards(); shard++) {
+                stored += server.kv().shard(shard).size();
+            }
+            assertThat(stored).isEqualTo(31);
+            assertThat(server.stats().kvHandoffs).isGreaterThan(0L);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void publishedMessagesShouldReachSubscribersOnEveryReactor() throws Exception {
+        MultiReactorServer server = pubSubServer(new PubSubConfig());
+        List<SocketChannel> subscribers = new ArrayList<>();
+        try {
+            // A connection per reactor, the acceptor spreads them
+            for (int i = 0; i < 4; i++) {
+                SocketChannel subscriber = SocketChannel.open(new InetSocketAddress(8080));
+                subscribers.add(subscriber);
+                writeFully(subscriber, PubSubProtocol.subscribe("news", true));
+                assertThat(readFrame(subscriber).get(5)).isEqualTo(PubSubProtocol.OK);
+            }
+            try (SocketChannel publisher = SocketChannel.open(new InetSocketAddress(8080))) {
+                writeFully(publisher, PubSubProtocol.publish("sports", "goal".getBytes(), true));
+                assertThat(readFrame(publisher).get(5)).isEqualTo(PubSubProtocol.OK);
+                writeFully(publisher, PubSubProtocol.publish("news", "hello".getBytes(), true));
+                assertThat(readFrame(publisher).get(5)).isEqualTo(PubSubProtocol.OK);
+            }
+
+            for (SocketChannel subscriber : subscribers) {
+                ByteBuffer message = readFrame(subscriber);
+                assertThat((byte) (message.get(0) & ServerConstants.TLV_TYPE_MASK)).isEqualTo(PubSubProtocol.MESSAGE);
+                ByteBuffer body = message.position(5);
+                assertThat(PubSubProtocol.topic(body)).isEqualTo("news");
+                assertThat(StandardCharsets.UTF_8.decode(PubSubProtocol.message(body)).toString()).isEqualTo("hello");
+            }
+            assertThat(server.stats().pushes).isEqualTo(4);
+        } finally {
+            for (SocketChannel subscriber : subscribers) subscriber.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void slowSubscribersShouldBeDisconnected() throws Exception {
+        MultiReactorServer server = pubSubServer(new PubSubConfig(2, PubSubConfig.SlowConsumer.DISCONNECT));
+        try (SocketChannel subscriber = SocketChannel.open(new InetSocketAddress(8080));
+             SocketChannel publisher = SocketChannel.open(new InetSocketAddress(8080))) {
+            writeFully(subscriber, PubSubProtocol.subscribe("news", true));
+            assertThat(readFrame(subscriber).get(5)).isEqualTo(PubSubProtocol.OK);
+
+            // The subscriber reads nothing, once the socket buffers are full its outbox fills up
+            byte[] message = new byte[64 * 1024];
+            for (int i = 0; i < 500 && server.stats().slowConsumerDisconnects == 0; i++) {
+                writeFully(publisher, PubSubProtocol.publish("news", message, true));
+                assertThat(readFrame(publisher).get(5)).isEqualTo(PubSubProtocol.OK);
+            }
+            assertThat(server.stats().slowConsumerDisconnects).isEqualTo(1);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void forwardedTypesShouldBeAnsweredByTheUpstream() throws Exception {
+        MultiReactorServer upstream = new MultiReactorServer(new ServerConfig(new InetSocketAddress(8081), new TLVConfig(5, 1000),
+                1000L, 1000L, 0, 1000, 1, Map.of((byte) 1, b -> FrameCodec.DEFAULT.frame(1, ("upstream " + utf8(b)).getBytes(), true)),
+                null));
+        upstream.startServer(() -> {});
+        MultiReactorServer proxy = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 2,
+                Map.of((byte) 2, b -> FrameCodec.DEFAULT.frame(2, ("local " + utf8(b)).getBytes(), true)),
+                null).withUpstreams(List.of(new UpstreamConfig("backend", 1, 1,
+                List.of(new InetSocketAddress(8081)), 2, UpstreamConfig.Balancing.LEAST_PENDING))));
+        CountDownLatch started = new CountDownLatch(1);
+        proxy.startServer(started::countDown);
+        try {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            SimpleClient client = new SimpleClient(new InetSocketAddress(8080));
+            for (int i = 0; i < 8; i++) {
+                assertThat(utf8(client.sendPayload(payload((byte) 1, "request-" + i)).position(5))).isEqualTo("upstream request-" + i);
+            }
+            assertThat(utf8(client.sendPayload(payload((byte) 2, "request")).position(5))).isEqualTo("local request");
+            assertThat(proxy.stats().forwarded).isEqualTo(8);
+        } finally {
+            proxy.shutdown();
+            upstream.shutdown();
+        }
+    }
+
+    @Test
+    void forwardedRequestsShouldGetTheErrorFrameWhenTheUpstreamIsLate() throws Exception {
+        CountDownLatch slowAnswered = new CountDownLatch(1);
+        MultiReactorServer upstream = new MultiReactorServer(new ServerConfig(new InetSocketAddress(8081), new TLVConfig(5, 1000),
+                1000L, 1000L, 0, 1000, 1, Map.of((byte) 1, b -> {
+                    String body = utf8(b);
+                    if (body.equals("slow")) {
+                        sleep(400);
+                        slowAnswered.countDown();
+                    }
+                    return FrameCodec.DEFAULT.frame(1, body.getBytes(), true);
+                }),
+                null));
+        upstream.startServer(() -> {});
+        // One reactor with one upstream connection, so both requests share it
+        MultiReactorServer proxy = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 1, Map.of(),
+                null).withUpstreams(List.of(new UpstreamConfig("backend", 1, 1,
+                List.of(new InetSocketAddress(8081)), 1, UpstreamConfig.Balancing.ROUND_ROBIN, 100))));
+        CountDownLatch started = new CountDownLatch(1);
+        proxy.startServer(started::countDown);
+        try {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            SimpleClient client = new SimpleClient(new InetSocketAddress(8080));
+            long start = System.nanoTime();
+            assertThat(client.sendPayload(payload((byte) 1, "slow"))).isEqualTo(ServerConstants.errorFrame(FrameCodec.DEFAULT));
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(350));
+
+            // The late answer to the timed out request is dropped, not handed to the next one
+            assertThat(slowAnswered.await(1, TimeUnit.SECONDS)).isTrue();
+            assertThat(utf8(client.sendPayload(payload((byte) 1, "fast")).position(5))).isEqualTo("fast");
+        } finally {
+            proxy.shutdown();
+            upstream.shutdown();
+        }
+    }
+
+    @Test
+    void upstreamsShouldNotTakeReservedTypes() {
+        ServerConfig config = new ServerConfig(new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 1,
+                Map.of(), null);
+        List<InetSocketAddress> servers = List.of(new InetSocketAddress(8081));
+
+        assertThatThrownBy(() -> config.withUpstreams(List.of(new UpstreamConfig("kv", 100, KvProtocol.GET, servers, 1,
+                UpstreamConfig.Balancing.ROUND_ROBIN))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("reserved");
+        assertThatThrownBy(() -> config.withUpstreams(List.of(new UpstreamConfig("busy", BusyProtocol.BUSY, BusyProtocol.BUSY,
+                servers, 1, UpstreamConfig.Balancing.ROUND_ROBIN))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(config.withUpstreams(List.of(new UpstreamConfig("below", 1, BusyProtocol.BUSY - 1, servers, 1,
+                UpstreamConfig.Balancing.ROUND_ROBIN))).upstreams()).hasSize(1);
+    }
+
+    @Test
+    void clusterClientShouldRouteKeysToTheirNodeAsNodesChange() throws Exception {
+        List<InetSocketAddress> nodes = List.of(new InetSocketAddress("localhost", 8081),
+                new InetSocketAddress("localhost", 8082), new InetSocketAddress("localhost", 8083));
+        List<MultiReactorServer> servers = new ArrayList<>();
+        for (InetSocketAddress node : nodes) {
+            String port = String.valueOf(node.getPort());
+            MultiReactorServer server = new MultiReactorServer(new ServerConfig(new InetSocketAddress(node.getPort()),
+                    new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 1,
+                    Map.of((byte) 1, _ -> FrameCodec.DEFAULT.frame(1, port.getBytes(), true)),
+                    null));
+            CountDownLatch started = new CountDownLatch(1);
+            server.startServer(started::countDown);
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            servers.add(server);
+        }
+        ClusterClient client = new ClusterClient(nodes.subList(0, 2));
+        try {
+            List<ByteBuffer> keys = new ArrayList<>();
+            for (int i = 0; i < 64; i++) keys.add(ByteBuffer.wrap(("key-" + i).getBytes()));
+            assertAnsweredByOwner(client, keys);
+
+            client.addNode(nodes.get(2));
+            assertAnsweredByOwner(client, keys);
+            assertThat(keys.stream().map(client::nodeFor).toList()).contains(nodes.get(2));
+
+            client.removeNode(nodes.get(0));
+            assertAnsweredByOwner(client, keys);
+            assertThat(keys.stream().map(client::nodeFor).toList()).doesNotContain(nodes.get(0));
+        } finally {
+            client.stop();
+            servers.forEach(MultiReactorServer::shutdown);
+        }
+    }
+
+    @Test
+    void hedgedRequestsShouldNotWaitForAStalledReactor() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(new InetSocketAddress(8080),
+                new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 2, Map.of(
+                (byte) 1, _ -> {
+                    if (calls.incrementAndGet() % 80 == 0) sleep(100);
+                    return FrameCodec.DEFAULT.frame(1, "ok".getBytes(), true);
+                },
+                (byte) 2, _ -> {
+                    sleep(1500);
+                    return FrameCodec.DEFAULT.frame(2, "late".getBytes(), true);
+                }),
+                null));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        NioClient client = new NioClient(new InetSocketAddress(8080), FrameCodec.DEFAULT, null, new HedgePolicy(
+                Set.of(1), 0.2, TimeUnit.MILLISECONDS.toNanos(20), 50, TimeUnit.MILLISECONDS.toNanos(1000)));
+        try {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            long slowest = 0;
+            for (int i = 0; i < 320; i++) {
+                CompletableFuture<Long> elapsed = new CompletableFuture<>();
+                assertThat(client.sendRPC(payload((byte) 1, "request", true), new ResponseCallback() {
+                    @Override
+                    public void onResponse(int type, ByteBuffer response, long elapsedNanos) {
+                        elapsed.complete(elapsedNanos);
+                    }
+
+                    @Override
+                    public void onError(String reason) {
+                        elapsed.completeExceptionally(new IllegalStateException(reason));
+                    }
+                })).isTrue();
+                long nanos = elapsed.get(2, TimeUnit.SECONDS);
+                // Before enough latencies were observed nothing is hedged
+                if (i >= 50) slowest = Math.max(slowest, nanos);
+            }
+            assertThat(client.state.hedgeWins).isPositive();
+            assertThat(slowest).isLessThan(TimeUnit.MILLISECONDS.toNanos(80));
+
+            CompletableFuture<String> late = new CompletableFuture<>();
+            client.sendRPC(payload((byte) 2, "request", true), new ResponseCallback() {
+                @Override
+                public void onResponse(int type, ByteBuffer response, long elapsedNanos) {
+                    late.complete("answered");
+                }
+
+                @Override
+                public void onError(String reason) {
+                    late.complete(reason);
+                }
+            });
+            assertThat(late.get(2, TimeUnit.SECONDS)).startsWith("Timed out");
+            assertThat(client.state.timeouts).isEqualTo(1);
+        } finally {
+            client.stop();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void hedgesOfCompressedRequestsShouldSendTheFrame() throws Exception {
+        // Compressed frames of a varint codec start after the unused bytes of the longest header
+        FrameCodec codec = FrameCodec.VARINT.withFlags();
+        AtomicBoolean stalled = new AtomicBoolean();
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(new InetSocketAddress(8080),
+                TLVConfig.of(codec, 1 << 16, 64), 1000L, 1000L, 0, 1000, 2, Map.of(
+                (byte) 1, body -> {
+                    byte[] echo = new byte[body.remaining()];
+                    body.get(echo);
+                    if (echo[0] == 's' && stalled.compareAndSet(false, true)) sleep(1000);
+                    return codec.frame(1, echo, true);
+                }),
+                null));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        NioClient client = new NioClient(new InetSocketAddress(8080), codec, new Compression(codec, 64),
+                new HedgePolicy(Set.of(1), 1, TimeUnit.MILLISECONDS.toNanos(20), 50, TimeUnit.MILLISECONDS.toNanos(2000)));
+        try {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 40; i++) {
+                assertThat(echo(client, codec, "fast " + "x".repeat(200))).isEqualTo("fast " + "x".repeat(200));
+            }
+            long start = System.nanoTime();
+            assertThat(echo(client, codec, "slow " + "x".repeat(200))).isEqualTo("slow " + "x".repeat(200));
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+            assertThat(client.state.hedgeWins).isEqualTo(1);
+        } finally {
+            client.stop();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void elasticServerShouldMigrateConnectionsWhenScalingDown() throws Exception {
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 2,
+                Map.of((byte) 1, b -> {
+                    long spinUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(b.get(0));
+                    while (System.nanoTime() < spinUntil) Thread.onSpinWait();
+                    return FrameCodec.DEFAULT.frame(1, "ok".getBytes(), true);
+                }),
+                null).withElastic(new ElasticConfig(1, 2, 0.3, 0.05, 50)));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        List<SocketChannel> channels = new ArrayList<>();
+        try {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 4; i++) {
+                channels.add(SocketChannel.open(new InetSocketAddress(8080)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.activeWorkers() > 1 || server.stats().migrated < 2) {
+                assertThat(System.nanoTime()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            // Kept alive connections of the retired reactor answer from their new one
+            for (SocketChannel channel : channels) {
+                writeFully(channel, FrameCodec.DEFAULT.frame(1, new byte[]{0}, true));
+                assertThat(utf8(readFrame(channel).position(5))).isEqualTo("ok");
+            }
+
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.activeWorkers() < 2) {
+                assertThat(System.nanoTime()).isLessThan(deadline);
+                writeFully(channels.getFirst(), FrameCodec.DEFAULT.frame(1, new byte[]{5}, true));
+                readFrame(channels.getFirst());
+            }
+        } finally {
+            for (SocketChannel channel : channels) channel.close();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void overloadedReactorShouldShedWithBusy() throws Exception {
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1000), 1000L, 1000L, 0, 1000, 1,
+                Map.of((byte) 1, _ -> {
+                    sleep(1);
+                    return FrameCodec.DEFAULT.frame(1, "ok".getBytes(), true);
+                }),
+                null).withShedding(new SheddingConfig(5_000, 50, 10)));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        try (ExecutorService executor = Executors.newFixedThreadPool(16)) {
+            assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+            // One request at a time never queues behind another
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(8080))) {
+                for (int i = 0; i < 20; i++) {
+                    writeFully(channel, FrameCodec.DEFAULT.frame(1, new byte[0], true));
+                    assertThat(readFrame(channel).get(0) & 0x7f).isEqualTo(1);
+                }
+            }
+            assertThat(server.stats().shed).isEqualTo(0L);
+
+            AtomicInteger answered = new AtomicInteger();
+            AtomicInteger busy = new AtomicInteger();
+            List<Future<?>> load = new ArrayList<>();
+            for (int c = 0; c < 16; c++) {
+                load.add(executor.submit(() -> {
+                    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(8080))) {
+                        for (int i = 0; i < 50; i++) {
+                            writeFully(channel, FrameCodec.DEFAULT.frame(1, new byte[0], true));
+                            ByteBuffer response = readFrame(channel);
+                            if ((response.get(0) & 0x7f) == BusyProtocol.BUSY) {
+                                assertThat(BusyProtocol.retryAfterMillis(response.position(5))).isEqualTo(10);
+                                busy.incrementAndGet();
+                            } else {
+                                answered.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : load) f.get(30, TimeUnit.SECONDS);
+
+            assertThat(busy.get()).isGreaterThan(0);
+            assertThat(answered.get()).isGreaterThan(0);
+            assertThat((long) busy.get()).isEqualTo(server.stats().shed);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void nioClientShouldBackOffAfterBusy() throws Exception {
+        TestServer server = TestServer.withHandlers(Map.of(
+                (byte) 1, _ -> BusyProtocol.frame(FrameCodec.DEFAULT, 100),
+                (byte) 2, _ -> FrameCodec.DEFAULT.frame(2, new byte[0], true)));
+        try {
+            NioClient client = new NioClient();
+            try {
+                CompletableFuture<Long> shed = client.sendRPC(payload((byte) 1, "request", true));
+                assertThat(shed.handle((_, e) -> e.getMessage()).get(1, TimeUnit.SECONDS))
+                        .isEqualTo("Server busy, retry after 100 ms");
+
+                long start = System.nanoTime();
+                client.sendRPC(payload((byte) 2, "request", true)).get(1, TimeUnit.SECONDS);
+                assertThat(System.nanoTime() - start).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(80));
+                assertThat(client.state.busy).isEqualTo(1);
+            } finally {
+                client.stop();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void heavyLaneShouldNotDelayControlLane() throws Exception {
+        CountDownLatch heavyStarted = new CountDownLatch(1);
+        CountDownLatch releaseHeavy = new CountDownLatch(1);
+        try (var server = TestServer.withLanes(Map.of(
+                        (byte) 1, _ -> ByteBuffer.wrap(new byte[]{1}),
+                        (byte) 64, _ -> {
+                            heavyStarted.countDown();
+                            try {
+                                releaseHeavy.await();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            return ByteBuffer.wrap(new byte[]{64});
+                        }),
+                List.of(
+                        new LaneConfig("control", 0, 15, 10, 1, 16),
+                        new LaneConfig("heavy", 64, 127, 0, 1, 0)
+                ));
+             ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<ByteBuffer> heavy = executor.submit(() -> server.testClient().sendPayload(payload((byte) 64, "slow")));
+            assertThat(heavyStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+            ByteBuffer control = server.testClient().sendPayload(payload((byte) 1, "ping"));
+            assertThat(control.get()).isEqualTo((byte) 1);
+
+            ByteBuffer rejected = server.testClient().sendPayload(payload((byte) 65, "no room"));
+            assertThat(rejected.get()).isEqualTo(ServerConstants.ERROR_TYPE);
+
+            releaseHeavy.countDown();
+            assertThat(heavy.get(1, TimeUnit.SECONDS).get()).isEqualTo((byte) 64);
+        }
+    }
+
+    @Test
+    void batchHandlerShouldGetAllFramesReadyInOneIteration() throws Exception {
+        CountDownLatch reactorBlocked = new CountDownLatch(1);
+        CountDownLatch releaseReactor = new CountDownLatch(1);
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        BatchMessageHandler echo = bodies -> {
+            batchSizes.add(bodies.size());
+            return bodies.stream().map(body -> ByteBuffer.allocate(body.remaining()).put(body).flip()).toList();
+        };
+        var clients = List.of(
+                new IterativeByteClient(new InetSocketAddress(8080), payload((byte) 2, "a")),
+                new IterativeByteClient(new InetSocketAddress(8080), payload((byte) 2, "b")),
+                new IterativeByteClient(new InetSocketAddress(8080), payload((byte) 2, "c"))
+        );
+        try (var server = TestServer.withHandlers(Map.of(
+                (byte) 1, _ -> {
+                    reactorBlocked.countDown();
+                    try {
+                        releaseReactor.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return ByteBuffer.wrap(new byte[]{1});
+                },
+                (byte) 2, echo));
+             ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            clients.forEach(IterativeByteClient::openConnection);
+            // Connections are accepted in order, once a later one is answered the three are registered
+            assertThat(server.testClient().sendPayload(payload((byte) 3, "sync")).remaining()).isGreaterThan(0);
+
+            Future<ByteBuffer> blocking = executor.submit(() -> server.testClient().sendPayload(payload((byte) 1, "block")));
+            assertThat(reactorBlocked.await(1, TimeUnit.SECONDS)).isTrue();
+            clients.forEach(c -> c.writeXBytes(6));
+            releaseReactor.countDown();
+            blocking.get(1, TimeUnit.SECONDS);
+
+            clients.forEach(c -> c.tryReadXBytes(1));
+            assertThat(clients.get(0).readBuffer.get(0)).isEqualTo((byte) 'a');
+            assertThat(clients.get(1).readBuffer.get(0)).isEqualTo((byte) 'b');
+            assertThat(clients.get(2).readBuffer.get(0)).isEqualTo((byte) 'c');
+            assertThat(batchSizes).containsExactly(3);
+        }
+    }
+
+    @Test
+    void batchShouldAnswerEveryInnerRequestInOrder() throws Exception {
+        FrameCodec codec = FrameCodec.VARINT;
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        BatchMessageHandler echo = bodies -> {
+            batchSizes.add(bodies.size());
+            return bodies.stream().map(body -> codec.frame(2, StandardCharsets.UTF_8.encode(text(body)).array(), true)).toList();
+        };
+        MessageHandler upper = body -> codec.frame(1, text(body).toUpperCase().getBytes(StandardCharsets.UTF_8), true);
+        TestServer server = TestServer.withConfig(TLVConfig.of(codec, 1000, 1000), Map.of((byte) 1, upper, (byte) 2, echo));
+        try {
+            NioClient client = new NioClient(new InetSocketAddress(8080), codec, null);
+            BatchProtocol.Builder batch = new BatchProtocol.Builder()
+                    .add(1, "a".getBytes(StandardCharsets.UTF_8))
+                    .add(2, "b".getBytes(StandardCharsets.UTF_8))
+                    .add(69, "c".getBytes(StandardCharsets.UTF_8))
+                    .add(2, "d".getBytes(StandardCharsets.UTF_8))
+                    .add(1, "e".getBytes(StandardCharsets.UTF_8));
+
+            List<BatchProtocol.Entry> responses = client.sendBatch(batch, true).get(1, TimeUnit.SECONDS);
+            // The same handlers answer outside a batch
+            CompletableFuture<String> single = new CompletableFuture<>();
+            client.sendRPC(codec.frame(1, "f".getBytes(StandardCharsets.UTF_8), true), new ResponseCallback() {
+                @Override
+                public void onResponse(int type, ByteBuffer body, long elapsedNanos) {
+                    single.complete(type + " " + text(body));
+                }
+
+                @Override
+                public void onError(String reason) {
+                    single.completeExceptionally(new RuntimeException(reason));
+                }
+            });
+            assertThat(single.get(1, TimeUnit.SECONDS)).isEqualTo("1 F");
+            client.stop();
+
+            assertThat(responses.stream().map(BatchProtocol.Entry::type).toList())
+                    .containsExactly(1, 2, (int) BatchProtocol.ERROR_TYPE, 2, 1);
+            assertThat(text(responses.get(0).body())).isEqualTo("A");
+            assertThat(text(responses.get(1).body())).isEqualTo("b");
+            assertThat(responses.get(2).body().remaining()).isEqualTo(0);
+            assertThat(text(responses.get(3).body())).isEqualTo("d");
+            assertThat(text(responses.get(4).body())).isEqualTo("E");
+            assertThat(batchSizes).containsExactly(2);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void shouldReadVarintHeadersInPieces() {
+        byte[] body = new byte[300];
+        ByteBuffer request = FrameCodec.VARINT.frame(1, body, false);
+        var client = new IterativeByteClient(new InetSocketAddress(8080), request);
+        TestServer server = TestServer.withConfig(TLVConfig.of(FrameCodec.VARINT, 1000, 1000), Map.of(
+                (byte) 1, b -> ByteBuffer.wrap(new byte[]{(byte) (b.remaining() >> 8), (byte) b.remaining()})
+        ));
+        try {
+            client.openConnection();
+            client.writeXBytes(1);
+            client.writeXBytes(1);
+            client.writeXBytes(1);
+            client.writeXBytes(body.length);
+
+            client.tryReadXBytes(2);
+            assertThat(client.readBuffer.getShort(0)).isEqualTo((short) 300);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void errorFrameShouldUseTheServerCodec() throws Exception {
+        for (FrameCodec codec : List.of(FrameCodec.VARINT, FrameCodec.DEFAULT.withFlags())) {
+            TestServer server = TestServer.withConfig(TLVConfig.of(codec, 1000, 1000), Map.of(
+                    (byte) 1, _ -> codec.frame(1, "ok".getBytes(), true)));
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(8080))) {
+                writeFully(channel, codec.frame(69, "unknown".getBytes(), false));
+                // Without keep alive the server closes after the response, so everything read is the response
+                ByteBuffer response = ByteBuffer.allocate(64);
+                while (channel.read(response) >= 0) {
+                }
+                assertThat(response.flip()).isEqualTo(ServerConstants.errorFrame(codec));
+            } finally {
+                server.close();
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String echo(NioClient client, FrameCodec codec, String body) throws Exception {
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        assertThat(client.sendRPC(payload(codec, 1, body.getBytes(StandardCharsets.UTF_8), true), new ResponseCallback() {
+            @Override
+            public void onResponse(int type, ByteBuffer response, long elapsedNanos) {
+                answer.complete(StandardCharsets.UTF_8.decode(response).toString());
+            }
+
+            @Override
+            public void onError(String reason) {
+                answer.completeExceptionally(new IllegalStateException(reason));
+            }
+        })).isTrue();
+        return answer.get(2, TimeUnit.SECONDS);
+    }
+
+    private static void assertAnsweredByOwner(ClusterClient client, List<ByteBuffer> keys) throws Exception {
+        for (ByteBuffer key : keys) {
+            CompletableFuture<String> answer = new CompletableFuture<>();
+            assertThat(client.sendRPC(key, payload((byte) 1, "request", true), new ResponseCallback() {
+                @Override
+                public void onResponse(int type, ByteBuffer response, long elapsedNanos) {
+                    answer.complete(utf8(response));
+                }
+
+                @Override
+                public void onError(String reason) {
+                    answer.completeExceptionally(new IllegalStateException(reason));
+                }
+            })).isTrue();
+            assertThat(answer.get(1, TimeUnit.SECONDS)).isEqualTo(String.valueOf(client.nodeFor(key).getPort()));
+        }
+    }
+
+    private static MultiReactorServer pubSubServer(PubSubConfig pubSub) throws Exception {
+        MultiReactorServer server = new MultiReactorServer(new ServerConfig(
+                new InetSocketAddress(8080), new TLVConfig(5, 1 << 17), 1000L, 1000L, 0, 1000, 4, Map.of(),
+                null).withPubSub(pubSub));
+        CountDownLatch started = new CountDownLatch(1);
+        server.startServer(started::countDown);
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        return server;
+    }
+
+    private static String utf8(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer frame) throws Exception {
+        while (frame.hasRemaining()) channel.write(frame);
+    }
+
+    private static ByteBuffer readFrame(SocketChannel channel) throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(5);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) throw new EOFException();
+        }
+        ByteBuffer frame = ByteBuffer.allocate(5 + header.getInt(1)).put(header.flip());
+        while (frame.hasRemaining()) {
+            if (channel.read(frame) < 0) throw new EOFException();
+        }
+        return frame.flip();
+    }
+
+    private static String text(ByteBuffer body) {
+        return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+    }
+
     private String utf8String(ByteBuffer response) {
         return new String(response.array(), 0, response.limit());
     }
@@ -0,0 +1,134 @@
+package se.edinjakupovic.journal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JournalTest {
+
+    @Test
+    void shouldRollSegmentsAndRecoverThemOnReopen() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            // Room for a handful of records per segment, an index entry every 3rd record
+            JournalConfig config = new JournalConfig(directory, 64, 0, 3);
+            try (Journal journal = Journal.open(config)) {
+                for (int i = 0; i < 20; i++) {
+                    assertThat(journal.append(record("record-" + i))).isEqualTo(i);
+                }
+                assertThat(journal.read(0)).isNull();
+                commit(journal);
+                assertThat(journal.append(ByteBuffer.allocate(64))).isEqualTo(Journal.TOO_LARGE);
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                assertThat(files.count()).isGreaterThan(1);
+            }
+
+            try (Journal journal = Journal.open(config)) {
+                assertThat(journal.durableOffset()).isEqualTo(20);
+                for (int i = 0; i < 20; i++) {
+                    assertThat(text(journal.read(i))).isEqualTo("record-" + i);
+                }
+                assertThat(journal.read(20)).isNull();
+                assertThat(journal.append(record("record-20"))).isEqualTo(20);
+                commit(journal);
+                assertThat(text(journal.read(20))).isEqualTo("record-20");
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void concurrentCommitsShouldShareForces() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            // The window keeps the committer waiting while the other commits queue up
+            try (Journal journal = Journal.open(new JournalConfig(directory, 1 << 20, 50_000, 64))) {
+                int commits = 10;
+                CountDownLatch committed = new CountDownLatch(commits);
+                for (int i = 0; i < commits; i++) {
+                    journal.append(record("record-" + i));
+                    journal.commit(failure -> {
+                        if (failure == null) committed.countDown();
+                    });
+                }
+                assertThat(committed.await(5, TimeUnit.SECONDS)).isTrue();
+                assertThat(journal.forces()).isLessThan(commits);
+                assertThat(journal.durableOffset()).isEqualTo(commits);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void failedForceShouldFailTheJournal() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            try (Journal journal = Journal.open(new JournalConfig(directory))) {
+                journal.append(record("record-0"));
+                commit(journal);
+                assertThat(journal.append(record("record-1"))).isEqualTo(1);
+                // What a force failing on the committer does
+                journal.fail(new IOException("disk gone"));
+
+                assertThat(commitFailure(journal)).hasMessage("disk gone");
+                assertThatThrownBy(() -> journal.append(record("record-2"))).isInstanceOf(IOException.class);
+                // Neither this commit nor a later successful one may expose the failed record
+                assertThat(commitFailure(journal)).isNotNull();
+                assertThat(journal.durableOffset()).isEqualTo(1);
+                assertThat(text(journal.read(0))).isEqualTo("record-0");
+                assertThat(journal.read(1)).isNull();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static IOException commitFailure(Journal journal) throws InterruptedException {
+        CompletableFuture<IOException> committed = new CompletableFuture<>();
+        journal.commit(committed::complete);
+        try {
+            return committed.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void commit(Journal journal) throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        journal.commit(failure -> committed.countDown());
+        assertThat(committed.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static ByteBuffer record(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer record) {
+        return record == null ? null : StandardCharsets.UTF_8.decode(record).toString();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
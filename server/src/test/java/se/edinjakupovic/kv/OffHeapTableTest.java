@@ -0,0 +1,97 @@
+package se.edinjakupovic.kv;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapTableTest {
+
+    @Test
+    void shouldPutOverwriteAndRemoveAcrossResizes() {
+        OffHeapTable table = new OffHeapTable(1 << 24);
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(put(table, "key-" + i, "value-" + i)).isTrue();
+        }
+        for (int i = 0; i < 10_000; i += 2) {
+            assertThat(put(table, "key-" + i, "new-" + i)).isTrue();
+        }
+        for (int i = 0; i < 10_000; i += 3) {
+            assertThat(remove(table, "key-" + i)).isTrue();
+        }
+
+        assertThat(table.size()).isEqualTo(10_000 - 3_334);
+        for (int i = 0; i < 10_000; i++) {
+            String expected = i % 3 == 0 ? null : (i % 2 == 0 ? "new-" : "value-") + i;
+            assertThat(get(table, "key-" + i)).isEqualTo(expected);
+        }
+        assertThat(remove(table, "key-0")).isFalse();
+    }
+
+    @Test
+    void shouldCompactGarbageBeforeRejectingPuts() {
+        OffHeapTable table = new OffHeapTable(4096);
+        String value = "x".repeat(100);
+        // Far more than fits, the overwritten entries are garbage that compaction reclaims
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(put(table, "key-" + (i % 10), value + i)).isTrue();
+        }
+        assertThat(table.size()).isEqualTo(10);
+        assertThat(get(table, "key-9")).isEqualTo(value + 999);
+
+        int stored = 0;
+        while (put(table, "fill-" + stored, value)) stored++;
+        assertThat(stored).isBetween(1, 4096 / 100);
+        assertThat(table.liveBytes()).isLessThanOrEqualTo(4096);
+        assertThat(get(table, "key-0")).isEqualTo(value + 990);
+    }
+
+    @Test
+    void shouldCompactInPlaceWhenOverwritingOnAFullArena() {
+        OffHeapTable table = new OffHeapTable(4096);
+        String value = "x".repeat(100);
+        // About 2/3 live, so the arena is at its max and never half garbage when it overflows
+        for (int i = 0; i < 24; i++) {
+            assertThat(put(table, "key-" + i, value)).isTrue();
+        }
+        int compactionsBefore = table.compactions();
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(put(table, "key-0", value + (i % 10))).isTrue();
+        }
+
+        assertThat(get(table, "key-0")).isEqualTo(value + 9);
+        for (int i = 1; i < 24; i++) {
+            assertThat(get(table, "key-" + i)).isEqualTo(value);
+        }
+        // Each compaction reclaims the garbage of about a dozen overwrites
+        assertThat(table.compactions() - compactionsBefore).isBetween(5_000 / 20, 5_000 / 5);
+        // Without garbage to reclaim a put fails instead of compacting
+        int stored = 0;
+        while (put(table, "fill-" + stored, value)) stored++;
+        int compactionsWhenFull = table.compactions();
+        assertThat(put(table, "one-more", value)).isFalse();
+        assertThat(table.compactions()).isEqualTo(compactionsWhenFull);
+    }
+
+    private static boolean put(OffHeapTable table, String key, String value) {
+        ByteBuffer k = bytes(key);
+        return table.put(k, bytes(value), OffHeapTable.hash(k));
+    }
+
+    private static boolean remove(OffHeapTable table, String key) {
+        ByteBuffer k = bytes(key);
+        return table.remove(k, OffHeapTable.hash(k));
+    }
+
+    private static String get(OffHeapTable table, String key) {
+        ByteBuffer k = bytes(key);
+        ByteBuffer value = table.get(k, OffHeapTable.hash(k));
+        return value == null ? null : StandardCharsets.UTF_8.decode(value).toString();
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,10 +1,14 @@
 package se.edinjakupovic.utils;
 
 import se.edinjakupovic.*;
+import se.edinjakupovic.capture.CaptureConfig;
+import se.edinjakupovic.journal.JournalConfig;
+import se.edinjakupovic.lanes.LaneConfig;
 import se.edinjakupovic.single_reactor.SingleReactorServer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -16,27 +20,42 @@ public class TestServer implements AutoCloseable {
     ExecutorService executor;
 
     public static TestServer withHandler(Byte type, MessageHandler handler) {
-        return new TestServer(Map.of(type, handler));
+        return withHandlers(Map.of(type, handler));
     }
 
     public static TestServer withHandlers(Map<Byte, MessageHandler> handlers) {
-        return new TestServer(handlers);
+        return new TestServer(new TLVConfig(5, 1000), handlers, List.of(), null, null);
     }
 
-    private TestServer(Map<Byte, MessageHandler> handlers) {
+    public static TestServer withConfig(TLVConfig tlvConfig, Map<Byte, MessageHandler> handlers) {
+        return new TestServer(tlvConfig, handlers, List.of(), null, null);
+    }
+
+    public static TestServer withLanes(Map<Byte, MessageHandler> handlers, List<LaneConfig> lanes) {
+        return new TestServer(new TLVConfig(5, 1000), handlers, lanes, null, null);
+    }
+
+    public static TestServer withCapture(Map<Byte, MessageHandler> handlers, CaptureConfig capture) {
+        return new TestServer(new TLVConfig(5, 1000), handlers, List.of(), capture, null);
+    }
+
+    public static TestServer withJournal(Map<Byte, MessageHandler> handlers, JournalConfig journal) {
+        return new TestServer(new TLVConfig(5, 1000), handlers, List.of(), null, journal);
+    }
+
+    private TestServer(TLVConfig tlvConfig, Map<Byte, MessageHandler> handlers, List<LaneConfig> lanes, CaptureConfig capture,
+                       JournalConfig journal) {
         this.server = new SingleReactorServer(new ServerConfig(
                 new InetSocketAddress(8080),
-                new TLVConfig(
-                        5, 1000
-                ),
+                tlvConfig,
                 1000L,
                 1000L,
                 0,
                 1000,
                 1,
                 handlers,
-                _ -> ServerConstants.ERROR_TYPE_BASE
-        ));
+                null
+        ).withLanes(lanes).withCapture(capture).withJournal(journal));
         start();
     }
 
@@ -65,5 +84,11 @@ public class TestServer implements AutoCloseable {
     @Override
     public void close() {
         executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS))
+                throw new RuntimeException("Server did not stop in 1 second");
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
     }
 }